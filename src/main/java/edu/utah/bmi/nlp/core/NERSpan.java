@@ -12,9 +12,13 @@ public class NERSpan extends Span implements Comparable<Span> {
 
     public static final String scoreOnly = "score", scorewidth = "scorewidth", widthscore = "widthscore", widthOnly = "width";
     public static final String byStrWidth = "strWidth", byRuleLength = "ruleLength";
-    private String method = scorewidth;
-    private String widthCompareMethod = byRuleLength;
+    //    the compare method (SCORE_ONLY...WIDTH_ONLY), plus BY_STR_WIDTH if widths are compared by the string widths.
+//    One byte instead of two String references per span.
+    protected static final byte SCORE_ONLY = 0, SCORE_WIDTH = 1, WIDTH_SCORE = 2, WIDTH_ONLY = 3, BY_STR_WIDTH = 4;
+    private byte compareMode = SCORE_WIDTH;
     public int ruleLength;
+    //    whether it is matched by a PSEUDO rule
+    public boolean pseudo;
 
     public NERSpan(int begin, int end) {
         super(begin, end);
@@ -42,36 +46,83 @@ public class NERSpan extends Span implements Comparable<Span> {
     }
 
     public int compareTo(NERSpan o) {
+        return compare(compareMode, score, width, ruleLength, o);
+    }
+
+    /**
+     * Compare a match that has not been turned into a span yet with a span
+     *
+     * @param compareMode @see #getCompareMode
+     * @param score       score of the match
+     * @param width       width of the match
+     * @param ruleLength  length of the matched rule
+     * @param o           the span to compare with
+     * @return &gt;0 if the match has priority over the span, 0 if equal, &lt;0 otherwise
+     */
+    public static int compare(byte compareMode, double score, int width, int ruleLength, Span o) {
+        switch (compareMode & ~BY_STR_WIDTH) {
+            case SCORE_ONLY:
+                return compareScoreOnly(score, o);
+            case SCORE_WIDTH:
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("\t\tcurrent score: " + score + "\t---\toverlapped " + o.ruleId + " score: " + o.score);
+                int scoreResult = compareScoreOnly(score, o);
+                return scoreResult == 0 ? compareWidthOnly(compareMode, width, ruleLength, o) : scoreResult;
+            case WIDTH_SCORE:
+                int widthResult = compareWidthOnly(compareMode, width, ruleLength, o);
+                return widthResult == 0 ? compareScoreOnly(score, o) : widthResult;
+            default:
+                return compareWidthOnly(compareMode, width, ruleLength, o);
+        }
+    }
+
+    /**
+     * @param method             scoreOnly, scorewidth, widthscore or widthOnly
+     * @param widthCompareMethod byStrWidth or byRuleLength
+     * @return the compact form of the two compare methods
+     */
+    public static byte getCompareMode(String method, String widthCompareMethod) {
+        byte mode;
         switch (method) {
             case scoreOnly:
-                return compareScoreOnly(o);
+                mode = SCORE_ONLY;
+                break;
             case scorewidth:
-                return compareScorePrior(o);
+                mode = SCORE_WIDTH;
+                break;
             case widthscore:
-                return compareWidthPrior(o);
+                mode = WIDTH_SCORE;
+                break;
             default:
-                return compareWidthOnly(o);
+                mode = WIDTH_ONLY;
         }
+        if (byStrWidth.equals(widthCompareMethod))
+            mode |= BY_STR_WIDTH;
+        return mode;
     }
 
     public void setCompareMethod(String method) {
-        this.method = method;
+        compareMode = (byte) (getCompareMode(method, byRuleLength) | (compareMode & BY_STR_WIDTH));
     }
 
     public void setWidthCompareMethod(String widthCompareMethod) {
-        this.widthCompareMethod = widthCompareMethod;
+        compareMode = (byte) ((compareMode & ~BY_STR_WIDTH) | (byStrWidth.equals(widthCompareMethod) ? BY_STR_WIDTH : 0));
+    }
+
+    public void setCompareMode(byte compareMode) {
+        this.compareMode = compareMode;
     }
 
-    protected int compareScoreOnly(Span o) {
-        return (int) Math.signum(this.score - o.score);
+    protected static int compareScoreOnly(double score, Span o) {
+        return (int) Math.signum(score - o.score);
     }
 
-    protected int compareWidthOnly(Span o) {
-        if (widthCompareMethod.equals(byStrWidth)) {
-            return Integer.signum(this.width - o.width);
+    protected static int compareWidthOnly(byte compareMode, int width, int ruleLength, Span o) {
+        if ((compareMode & BY_STR_WIDTH) != 0) {
+            return Integer.signum(width - o.width);
         } else {
             if (o instanceof NERSpan)
-                return Integer.signum(this.ruleLength - ((NERSpan) o).ruleLength);
+                return Integer.signum(ruleLength - ((NERSpan) o).ruleLength);
             else {
                 System.err.println("Cannot compare NERSpan against Span using matched rule lengths. Return equal as default.");
                 return 0;
@@ -79,24 +130,4 @@ public class NERSpan extends Span implements Comparable<Span> {
         }
     }
 
-    protected int compareScorePrior(Span o) {
-        if (logger.isLoggable(Level.FINEST))
-            logger.finest("\t\tcurrent " + this.ruleId + " score: " + this.score + "\t---\toverlapped " + o.ruleId + " score: " + o.score);
-        int scoreResult = compareScoreOnly(o);
-        if (scoreResult == 0) {
-            return compareWidthOnly(o);
-        } else {
-            return scoreResult;
-        }
-    }
-
-    protected int compareWidthPrior(Span o) {
-        int widthResult = compareWidthOnly(o);
-        if (widthResult == 0) {
-            return compareScoreOnly(o);
-        } else {
-            return widthResult;
-        }
-    }
-
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.core;
+
+/**
+ * A Span that keeps a reference to the text it was matched in, and only copies its covered text when getText is
+ * called. Until then, the public text field is null--read the text through getText.
+ *
+ * @author Jianlin Shi
+ */
+public class SourceSpan extends Span {
+    protected CharSequence source;
+    //    the offset of source in the coordinates of begin and end
+    protected int sourceOffset;
+
+    public SourceSpan(int begin, int end, int ruleId, double score, CharSequence source, int sourceOffset) {
+        super(begin, end, ruleId, score);
+        this.width = end - begin + 1;
+        this.source = source;
+        this.sourceOffset = sourceOffset;
+    }
+
+    @Override
+    public String getText() {
+        if (text == null && source != null) {
+            text = source.subSequence(begin - sourceOffset, end - sourceOffset).toString();
+            source = null;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.fastner.MinimizedRules;
+
+import java.util.*;
+
+/**
+ * A compiled node of the char rules map, which is what FastCRule walks while matching. The rules map (HashMaps keyed by
+ * boxed Characters) is still kept for the other uses (e.g. NodeBounds, printing); each node refers to its map.
+ * <ul>
+ * <li>The special children (escape, capture markers, replication) are fields, so checking them is a null check.</li>
+ * <li>The children that a text char can step into are looked up in a sorted char[] (linear search for a few keys,
+ * binary search otherwise), or in a dense table for a node with many ASCII keys.</li>
+ * <li>A chain of nodes that only have one literal child each is compressed into one run of chars (@see #run), which is
+ * compared at once.</li>
+ * </ul>
+ *
+ * @author Jianlin Shi
+ */
+public class CharNode {
+    //    up to this many keys, a linear search is faster than a binary search
+    protected static final int LINEAR_KEYS = 8;
+    //    from this many ASCII keys on, a node gets a dense table
+    protected static final int DENSE_KEYS = 24;
+    protected static final int ASCII = 128;
+
+    public final HashMap map;
+    public final boolean end;
+    public CharNode escape, open, close, plus;
+    //    the children that a text char steps into, keys sorted. It includes '\\' and '+', as the walk does.
+    protected char[] keys;
+    protected CharNode[] children;
+    protected CharNode[] dense;
+    //    for an escape node only: the wildcards in the iteration order of the map, which is the order they are tried in
+    public char[] wildcards;
+    public CharNode[] wildcardNodes;
+    //    if not null, this node and the ones below it form a chain of single literal children: the walk can compare the
+    //    whole run and go on from runTarget
+    public char[] run;
+    public CharNode runTarget;
+    //    the path weights of the edges (@see MinimizedRules), only set if the rules map is minimized. A chain link has
+    //    no END and one child, so the weights along a run are all 0.
+    protected int[] weights, wildcardWeights;
+    public int escapeWeight, openWeight, closeWeight, plusWeight;
+
+    protected CharNode(HashMap map, Object endKey) {
+        this.map = map;
+        this.end = map.containsKey(endKey);
+    }
+
+    /**
+     * @param rulesMap the root of a compiled (frozen) char rules map
+     * @param endKey   the key of the END nodes
+     * @return the compiled root
+     */
+    public static CharNode compile(HashMap rulesMap, Object endKey) {
+        return compile(rulesMap, endKey, null);
+    }
+
+    /**
+     * @param rulesMap  the root of a compiled (frozen) char rules map
+     * @param endKey    the key of the END nodes
+     * @param minimized the path weights if the rules map is minimized, otherwise null
+     * @return the compiled root
+     */
+    public static CharNode compile(HashMap rulesMap, Object endKey, MinimizedRules minimized) {
+        IdentityHashMap<HashMap, CharNode> compiled = new IdentityHashMap<>();
+        CharNode root = compile(rulesMap, endKey, false, minimized, compiled);
+        for (CharNode node : compiled.values())
+            node.compressRun();
+        return root;
+    }
+
+    protected static CharNode compile(HashMap map, Object endKey, boolean escapeNode, MinimizedRules minimized,
+                                      IdentityHashMap<HashMap, CharNode> compiled) {
+        CharNode node = compiled.get(map);
+        if (node != null) {
+//            in a minimized map, an escape node can be merged with a node that a literal leads to
+            if (escapeNode && node.wildcards == null)
+                compileWildcards(node, minimized, compiled);
+            return node;
+        }
+        node = new CharNode(map, endKey);
+        compiled.put(map, node);
+        TreeMap<Character, CharNode> steps = new TreeMap<>();
+        for (Object entry : map.entrySet()) {
+            Object key = ((Map.Entry) entry).getKey();
+            Object value = ((Map.Entry) entry).getValue();
+            if (!(key instanceof Character) || !(value instanceof HashMap))
+                continue;
+            char ch = (Character) key;
+            CharNode child = compile((HashMap) value, endKey, ch == '\\', minimized, compiled);
+            int weight = minimized == null ? 0 : minimized.weight(map, key);
+            switch (ch) {
+                case '\\':
+                    node.escape = child;
+                    node.escapeWeight = weight;
+                    break;
+                case '(':
+                    node.open = child;
+                    node.openWeight = weight;
+                    break;
+                case ')':
+                    node.close = child;
+                    node.closeWeight = weight;
+                    break;
+                case '+':
+                    node.plus = child;
+                    node.plusWeight = weight;
+                    break;
+            }
+            if (ch != '(' && ch != ')')
+                steps.put(ch, child);
+        }
+        node.keys = new char[steps.size()];
+        node.children = new CharNode[steps.size()];
+        int i = 0, ascii = 0;
+        for (Map.Entry<Character, CharNode> step : steps.entrySet()) {
+            node.keys[i] = step.getKey();
+            node.children[i++] = step.getValue();
+            if (step.getKey() < ASCII)
+                ascii++;
+        }
+        if (ascii >= DENSE_KEYS) {
+            node.dense = new CharNode[ASCII];
+            for (int k = 0; k < node.keys.length && node.keys[k] < ASCII; k++)
+                node.dense[node.keys[k]] = node.children[k];
+        }
+        if (minimized != null) {
+            node.weights = new int[node.keys.length];
+            for (int k = 0; k < node.keys.length; k++)
+                node.weights[k] = minimized.weight(map, node.keys[k]);
+        }
+        if (escapeNode)
+            compileWildcards(node, minimized, compiled);
+        return node;
+    }
+
+    /**
+     * Set the wildcards of an escape node, whose children have been compiled
+     */
+    protected static void compileWildcards(CharNode node, MinimizedRules minimized,
+                                           IdentityHashMap<HashMap, CharNode> compiled) {
+        ArrayList<Character> wildcards = new ArrayList<>();
+        ArrayList<CharNode> wildcardNodes = new ArrayList<>();
+        for (Object entry : node.map.entrySet()) {
+            Object key = ((Map.Entry) entry).getKey();
+            Object value = ((Map.Entry) entry).getValue();
+            if (key instanceof Character && value instanceof HashMap) {
+                wildcards.add((Character) key);
+                wildcardNodes.add(compiled.get(value));
+            }
+        }
+        node.wildcards = new char[wildcards.size()];
+        for (int k = 0; k < wildcards.size(); k++)
+            node.wildcards[k] = wildcards.get(k);
+        node.wildcardNodes = wildcardNodes.toArray(new CharNode[0]);
+        if (minimized != null) {
+            node.wildcardWeights = new int[node.wildcards.length];
+            for (int k = 0; k < node.wildcards.length; k++)
+                node.wildcardWeights[k] = minimized.weight(node.map, node.wildcards[k]);
+        }
+    }
+
+    /**
+     * @return the child that the text char ch steps into, null if there is none
+     */
+    public CharNode step(char ch) {
+        if (dense != null && ch < ASCII)
+            return dense[ch];
+        char[] keys = this.keys;
+        if (keys.length <= LINEAR_KEYS) {
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] == ch)
+                    return children[i];
+            return null;
+        }
+        int i = Arrays.binarySearch(keys, ch);
+        return i < 0 ? null : children[i];
+    }
+
+    /**
+     * @return the path weight of the child that the text char ch steps into (which must exist), 0 if the rules map is
+     * not minimized
+     */
+    public int weight(char ch) {
+        if (weights == null)
+            return 0;
+        char[] keys = this.keys;
+        if (keys.length <= LINEAR_KEYS) {
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] == ch)
+                    return weights[i];
+            return 0;
+        }
+        return weights[Arrays.binarySearch(keys, ch)];
+    }
+
+    /**
+     * @return the path weight of the w-th wildcard of an escape node, 0 if the rules map is not minimized
+     */
+    public int getWildcardWeight(int w) {
+        return wildcardWeights == null ? 0 : wildcardWeights[w];
+    }
+
+    /**
+     * @return the path weight of a wildcard child of an escape node (which must exist)
+     */
+    public int getWildcardWeight(char wildcard) {
+        if (wildcardWeights != null)
+            for (int i = 0; i < wildcards.length; i++)
+                if (wildcards[i] == wildcard)
+                    return wildcardWeights[i];
+        return 0;
+    }
+
+    /**
+     * @return the wildcard child of an escape node, null if there is none
+     */
+    public CharNode getWildcard(char wildcard) {
+        if (wildcards != null)
+            for (int i = 0; i < wildcards.length; i++)
+                if (wildcards[i] == wildcard)
+                    return wildcardNodes[i];
+        return null;
+    }
+
+    /**
+     * Whether the walk at this node can do nothing but step into its single literal child
+     */
+    protected boolean isChainLink() {
+        return !end && escape == null && open == null && close == null && plus == null && keys.length == 1
+                && wildcards == null;
+    }
+
+    protected void compressRun() {
+        if (!isChainLink())
+            return;
+        StringBuilder chars = new StringBuilder();
+        CharNode node = this;
+        Set<CharNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        while (node.isChainLink() && visited.add(node)) {
+            chars.append(node.keys[0]);
+            node = node.children[0];
+        }
+        if (chars.length() > 1) {
+            run = chars.toString().toCharArray();
+            runTarget = node;
+        }
+    }
+
+    /**
+     * @return the number of nodes and of children below (and including) this node, for reporting the size
+     */
+    public int[] count() {
+        Set<CharNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<CharNode> nodes = new ArrayDeque<>();
+        nodes.push(this);
+        int children = 0;
+        while (!nodes.isEmpty()) {
+            CharNode node = nodes.pop();
+            if (!visited.add(node))
+                continue;
+            children += node.keys.length;
+            for (CharNode child : node.children)
+                nodes.push(child);
+            if (node.open != null)
+                nodes.push(node.open);
+            if (node.close != null)
+                nodes.push(node.close);
+        }
+        return new int[]{visited.size(), children};
+    }
+}
@@ -17,10 +17,14 @@ package edu.utah.bmi.nlp.fastcner;
 
 import edu.utah.bmi.nlp.core.Rule;
 import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastner.ConceptCounter;
 import edu.utah.bmi.nlp.fastner.FastNER;
+import edu.utah.bmi.nlp.fastner.FastRuleFactory;
+import edu.utah.bmi.nlp.fastner.PartitionedFastRule;
 import org.apache.uima.jcas.tcas.Annotation;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
@@ -42,6 +46,22 @@ public class FastCNER extends FastNER {
         initiate(ruleFile, true, constructRuleMap);
     }
 
+    protected FastCNER() {
+    }
+
+    /**
+     * Compile each concept with the cheapest char engine that supports its rules, @see
+     * FastRuleFactory#createPartitionedRule
+     *
+     * @param ruleStr rule file path or rule string
+     * @return the FastCNER
+     */
+    public static FastCNER createPartitioned(String ruleStr) {
+        FastCNER fastCNER = new FastCNER();
+        fastCNER.fastRule = FastRuleFactory.createPartitionedRule(ruleStr, fastCNER.typeDefinition, true);
+        return fastCNER;
+    }
+
     public FastCNER(HashMap<Integer, Rule> ruleStore) {
         initiate(ruleStore);
 
@@ -62,9 +82,71 @@ public class FastCNER extends FastNER {
      * @return matched results
      */
     public HashMap<String, ArrayList<Span>> processSpan(Span span) {
+        if (fastRule instanceof PartitionedFastRule)
+            return ((PartitionedFastRule) fastRule).processSpan(span);
         return ((FastCRule) fastRule).processSpan(span);
     }
 
+    /**
+     * Process the sentences (or other segments) of a text in one pass, @see FastCRule#processSegments
+     *
+     * @param text   document text
+     * @param begins segment begins in ascending order
+     * @param ends   segment ends
+     * @param count  number of segments
+     * @return matches, in which the begins and ends of Spans are the document offsets
+     */
+    public HashMap<String, ArrayList<Span>> processSegments(String text, int[] begins, int[] ends, int count) {
+        if (fastRule instanceof PartitionedFastRule)
+            return ((PartitionedFastRule) fastRule).processSegments(text, begins, ends, count);
+        return ((FastCRule) fastRule).processSegments(text, begins, ends, count);
+    }
+
+    /**
+     * Count the matches of each concept in a text without creating their spans, @see ConceptCounter
+     *
+     * @param text     the text
+     * @param concepts the concepts to count
+     * @return the counts, in the order of the concepts
+     */
+    public int[] countConcepts(String text, Collection<String> concepts) {
+        return count(text, ConceptCounter.counting(concepts)).getCounts();
+    }
+
+    /**
+     * @return whether each concept is found in the text, the matching stops once all of them are found
+     */
+    public boolean[] containsConcepts(String text, Collection<String> concepts) {
+        return count(text, ConceptCounter.presence(concepts)).getPresence();
+    }
+
+    /**
+     * @return true if any of the concepts is matched in the text, the matching stops at the first one found
+     */
+    public boolean containsAny(String text, Collection<String> concepts) {
+        return isAnyFound(count(text, new ConceptCounter(concepts, 1)));
+    }
+
+    public ConceptCounter count(String text, ConceptCounter counter) {
+        return countSegments(text, new int[]{0}, new int[]{text.length()}, 1, counter);
+    }
+
+    /**
+     * Count the matches in the segments of a text, @see FastCRule#countSegments
+     *
+     * @param counter the counts are added to
+     * @return the counter
+     */
+    public ConceptCounter countSegments(String text, int[] begins, int[] ends, int count, ConceptCounter counter) {
+        if (counter.isComplete())
+            return counter;
+        if (fastRule instanceof PartitionedFastRule)
+            ((PartitionedFastRule) fastRule).countSegments(text, begins, ends, count, counter);
+        else
+            ((FastCRule) fastRule).countSegments(text, begins, ends, count, counter);
+        return counter;
+    }
+
     public HashMap<String, ArrayList<Span>> processAnnotation(Annotation sentence) {
         Span span = new Span(sentence.getBegin(), sentence.getEnd(), sentence.getCoveredText());
         return processSpan(span);
@@ -72,20 +154,34 @@ public class FastCNER extends FastNER {
 
 
     public void setReplicationSupport(boolean support) {
-        ((FastCRule) fastRule).setReplicationSupport(support);
+        for (FastCRule engine : getEngines(FastCRule.class))
+            engine.setReplicationSupport(support);
     }
 
     public void setCompareMethod(String method) {
-        ((FastCRule) fastRule).setCompareMethod(method);
+        for (FastCRule engine : getEngines(FastCRule.class))
+            engine.setCompareMethod(method);
     }
 
     public void setSpecialCharacterSupport(Boolean scSupport) {
-        ((FastCRule) fastRule).setSpecialCharacterSupport(scSupport);
+        for (FastCRule engine : getEngines(FastCRule.class))
+            engine.setSpecialCharacterSupport(scSupport);
     }
 
 
     public void setMaxRepeatLength(int maxRepeatLength) {
-        ((FastCRule) fastRule).setMaxRepeatLength(maxRepeatLength);
+        for (FastCRule engine : getEngines(FastCRule.class))
+            engine.setMaxRepeatLength(maxRepeatLength);
+    }
+
+    public void setLazySpanText(boolean lazySpanText) {
+        for (FastCRule engine : getEngines(FastCRule.class))
+            engine.setLazySpanText(lazySpanText);
+    }
+
+    public void setLiteralPrefiltering(boolean literalPrefiltering) {
+        for (FastCRule engine : getEngines(FastCRule.class))
+            engine.setLiteralPrefiltering(literalPrefiltering);
     }
 
 
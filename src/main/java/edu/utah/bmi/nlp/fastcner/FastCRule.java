@@ -17,10 +17,16 @@ package edu.utah.bmi.nlp.fastcner;
 
 import edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants;
 import edu.utah.bmi.nlp.core.*;
+import edu.utah.bmi.nlp.fastner.ConceptCounter;
 import edu.utah.bmi.nlp.fastner.FastRuleWG;
+import edu.utah.bmi.nlp.fastner.MatchCandidates;
+import edu.utah.bmi.nlp.fastner.NodeBounds;
+import edu.utah.bmi.nlp.fastner.RuleTable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 
 import static java.lang.Character.*;
@@ -68,11 +74,20 @@ public class FastCRule extends FastRuleWG {
     protected int maxRepeatLength = 30;
     protected boolean supportReplications = false, scSupport = false;
     protected String method = "width";
-    protected int offset = 0;
-
-    //    Because the match branches caused by wildcards, some right matches can be found before left matches
-//    A segment tree is maintained to check the overlapping among matches within a same type of concept
-    protected HashMap<String, IntervalST> overlapCheckers = new HashMap<>();
+    //    method precompiled by setCompareMethod, so that compareMatch does not compare strings
+    protected static final byte SCORE_ONLY = 0, SCORE_WIDTH = 1, WIDTH_SCORE = 2, WIDTH_ONLY = 3;
+    protected byte compareStrategy = WIDTH_ONLY;
+    //    whether the output spans copy their texts only when getText is called (@see SourceSpan)
+    protected boolean lazySpanText = false;
+    //    per-thread match state, so that the text buffer is reused between the calls of one thread, while the engine can
+//    be shared among threads
+    protected final ThreadLocal<MatchState> matchStates = ThreadLocal.withInitial(MatchState::new);
+    //    the required literals of the rules (@see LiteralPrefilter), null if some rule has none. No initializer: it is
+//    built while the super constructor compiles the rules.
+    protected LiteralPrefilter literalPrefilter;
+    //    the compiled nodes of rulesMap that the matching walks (@see CharNode), built with the rule table
+    protected CharNode root;
+    protected boolean literalPrefiltering = true;
 
 
     protected FastCRule() {
@@ -159,14 +174,32 @@ public class FastCRule extends FastRuleWG {
         return null;
     }
 
+    public HashMap<String, ArrayList<Span>> processTokenOffsets(CharSequence text, int[] begins, int[] ends, int size,
+                                                                boolean caseSensitive) {
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("This method is not used in character-based ruleStore");
+        return null;
+    }
+
+    public HashMap<String, ArrayList<Span>> processTokenSegments(CharSequence text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 boolean caseSensitive) {
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("This method is not used in character-based ruleStore");
+        return null;
+    }
+
     public HashMap<String, ArrayList<Span>> processString(String text) {
-        offset = 0;
-        return processRules(text);
+        return processString(text, 0);
     }
 
     public HashMap<String, ArrayList<Span>> processString(String text, int offset) {
-        this.offset = offset;
-        return processRules(text);
+        MatchState state = matchStates.get().reset(text, offset);
+        try {
+            return processRules(state);
+        } finally {
+            state.clear();
+        }
     }
 
     public HashMap<String, ArrayList<Span>> processSpan(Span span) {
@@ -175,85 +208,204 @@ public class FastCRule extends FastRuleWG {
 
 
     public HashMap<String, ArrayList<Span>> processRules(String text) {
+        return processString(text, 0);
+    }
+
+    /**
+     * Process several segments (e.g. sentences) of a text in one pass: the text is copied only once, and each segment
+     * is matched within its own boundaries--no match can cross a segment boundary, and "\\b"/"\\e" match at the
+     * segment begin/end. The results are the same as processing each segment separately, but the begins and ends of
+     * the output spans are the offsets in the whole text.
+     *
+     * @param text   the whole text (e.g. document text)
+     * @param begins segment begins, in ascending order
+     * @param ends   segment ends, segments must not overlap
+     * @param count  number of segments to read from begins and ends
+     * @return matches
+     */
+    public HashMap<String, ArrayList<Span>> processSegments(String text, int[] begins, int[] ends, int count) {
+        MatchState state = matchStates.get().reset(text, 0);
+        try {
+            for (int i = 0; i < count; i++) {
+                state.setSegment(begins[i], ends[i]);
+                processSegment(state);
+            }
+            return resolveConflicts(state.toMatches(ruleTable, lazySpanText, removePseudo));
+        } finally {
+            state.clear();
+        }
+    }
+
+    /**
+     * Count the matches of the counter's concepts in the segments, @see #processSegments and ConceptCounter. The
+     * records that survive the overlap resolution are counted directly, no Span is created. In presence mode, the
+     * matching stops once the concepts are found: between the start positions of a FastCRule walk, and between the
+     * segments for the engines that match a segment at once.
+     *
+     * @param text    the whole text
+     * @param begins  segment begins, in ascending order
+     * @param ends    segment ends
+     * @param count   number of segments
+     * @param counter the counts are added to
+     */
+    public void countSegments(String text, int[] begins, int[] ends, int count, ConceptCounter counter) {
+        if (conflictResolver != null) {
+            counter.addAll(processSegments(text, begins, ends, count));
+            return;
+        }
+        counter.bind(ruleTable);
+        MatchState state = matchStates.get().reset(text, 0);
+        state.counter = counter;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (state.isComplete(begins[i], removePseudo))
+                    return;
+                state.setSegment(begins[i], ends[i]);
+                processSegment(state);
+            }
+            state.countRecords(Integer.MAX_VALUE, removePseudo);
+        } finally {
+            state.clear();
+        }
+    }
+
+    protected HashMap<String, ArrayList<Span>> processRules(MatchState state) {
+        processSegment(state);
+        return resolveConflicts(state.toMatches(ruleTable, lazySpanText, removePseudo));
+
+    }
+
+    /**
+     * Match the rules from every position of the current segment. A long segment is split into chunks of start
+     * positions that are matched in parallel (@see #setParallelism); every chunk reads the same char buffer, so a match
+     * can run beyond its chunk. The candidates of the chunks are then added in chunk order, which is the order of a
+     * sequential run.
+     */
+    protected void processSegment(MatchState state) {
+        if (supportReplications)
+            state.resetRuns();
+        int chunks = countChunks(state.limit - state.begin);
+        if (chunks == 1) {
+            processSegment(state, state.begin, state.limit);
+            return;
+        }
+        ArrayList<ForkJoinTask<MatchCandidates>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = state.begin + c * parallelChunkSize;
+            int to = c == chunks - 1 ? state.limit : from + parallelChunkSize;
+            MatchState chunkState = state.fork();
+            tasks.add(parallelPool.submit(() -> {
+                processSegment(chunkState, from, to);
+                return chunkState.candidates;
+            }));
+        }
+        for (ForkJoinTask<MatchCandidates> task : tasks) {
+            MatchCandidates candidates = task.join();
+            for (int i = 0; i < candidates.getSize(); i++) {
+                int end = candidates.getEnd(i);
+                addDeterminants(state, candidates.getTerminals(i), candidates.getBegin(i), end, end);
+            }
+        }
+    }
+
+    protected void processSegment(MatchState state, int from, int to) {
         // use the first "startposition" to remember the original start matching
         // position.
         // use the 2nd one to remember the start position in which recursion.
-        HashMap<String, ArrayList<Span>> matches = new HashMap<>();
-        char[] textChars = text.toCharArray();
-        for (int i = 0; i < textChars.length; i++) {
-            char previousChar = i > 0 ? textChars[i - 1] : ' ';
-            processRules(text, textChars, rulesMap, i, 0, i, matches, previousChar, false, ' ');
+        char[] textChars = state.chars;
+        int[] marks = null;
+        if (literalPrefiltering && literalPrefilter != null && to > from) {
+            marks = state.getMarks(to - from + 1);
+            literalPrefilter.mark(textChars, from, to, state.limit, maxRepeatLength, marks);
+        }
+        for (int i = from; i < to; i++) {
+            if (marks != null && marks[i - from] == 0)
+                continue;
+            if (state.counter != null && state.isComplete(i + state.offset, removePseudo))
+                return;
+            char previousChar = i > state.begin ? textChars[i - 1] : ' ';
+            processRules(state, root, 0, i, 0, i, previousChar, false, ' ');
         }
-        if (removePseudo)
-            removePseudoMatches(matches);
-        return matches;
-
     }
 
 
-    protected void processRules(String text, char[] textChars, HashMap rule, int matchBegin, int matchEnd, int currentPosition,
-                                HashMap<String, ArrayList<Span>> matches,
+    protected void processRules(MatchState state, CharNode rule, int path, int matchBegin, int matchEnd, int currentPosition,
                                 char previousChar, boolean wildcard, char previousKey) {
+        if (nodeBounds != null && cannotWin(state, rule.map, matchBegin, matchEnd, currentPosition))
+            return;
+        // a chain of single literal children: compare the whole run at once
+        if (rule.run != null) {
+            char[] run = rule.run;
+            if (currentPosition + run.length > state.limit)
+                return;
+            char[] textChars = state.chars;
+            for (int i = 0; i < run.length; i++)
+                if (textChars[currentPosition + i] != run[i])
+                    return;
+            char last = run[run.length - 1];
+            processRules(state, rule.runTarget, path, matchBegin, matchEnd, currentPosition + run.length, last, false, last);
+            return;
+        }
         // when reach the end of the tunedcontext, end the iteration
-        if (currentPosition < textChars.length) {
-            char thisChar = textChars[currentPosition];
+        if (currentPosition < state.limit) {
+            char thisChar = state.chars[currentPosition];
 
-            if (rule.containsKey('\\')) {
-                processWildCards(text, textChars, (HashMap) rule.get('\\'), matchBegin, matchEnd, currentPosition, matches, previousChar, true, '\\');
+            if (rule.escape != null) {
+                processWildCards(state, rule.escape, path + rule.escapeWeight, matchBegin, matchEnd, currentPosition, previousChar, true, '\\');
             }
-            if (rule.containsKey('(') && previousKey != '\\') {
-                processRules(text, textChars, (HashMap) rule.get('('), currentPosition, matchEnd, currentPosition, matches,
+            if (rule.open != null && previousKey != '\\') {
+                processRules(state, rule.open, path + rule.openWeight, currentPosition, matchEnd, currentPosition,
                         previousChar, false, '(');
             }
-            if (rule.containsKey(')') && previousKey != '\\') {
-                processRules(text, textChars, (HashMap) rule.get(')'), matchBegin, currentPosition, currentPosition, matches,
+            if (rule.close != null && previousKey != '\\') {
+                processRules(state, rule.close, path + rule.closeWeight, matchBegin, currentPosition, currentPosition,
                         previousChar, false, ')');
 
             }
             // if the end of a rule is met
 
-            if (rule.containsKey(END)) {
-                addDeterminants(text, rule, matches, matchBegin, matchEnd, currentPosition);
+            if (rule.end) {
+                addDeterminants(state, getTerminals(rule.map, path), matchBegin, matchEnd, currentPosition);
             }
             // if the current token match the element of a rule
-            if (rule.containsKey(thisChar) && (thisChar != ')' && thisChar != '(')) {
-                processRules(text, textChars, (HashMap) rule.get(thisChar), matchBegin, matchEnd, currentPosition + 1, matches,
+            CharNode next = rule.step(thisChar);
+            if (next != null) {
+                processRules(state, next, path + rule.weight(thisChar), matchBegin, matchEnd, currentPosition + 1,
                         thisChar, false, thisChar);
             }
 
-//            if(currentRepeats>0)
-//                currentRepeats=currentRepeats;
 //          Replications of current char
-            if (supportReplications && rule.containsKey('+')) {
-//                processRules(textChars, (HashMap) rule.get('+'), matchBegin, matchEnd, currentPosition, matches,
-//                        previousChar, false, ' ');
-                processRules(text, textChars, (HashMap) rule.get('+'), matchBegin, matchEnd, currentPosition, matches,
+            if (supportReplications && rule.plus != null) {
+                processRules(state, rule.plus, path + rule.plusWeight, matchBegin, matchEnd, currentPosition,
                         thisChar, false, '+');
-                processReplicants(text, textChars, (HashMap) rule.get('+'), matchBegin, matchEnd, currentPosition, matches,
+                processReplicants(state, rule.plus, path + rule.plusWeight, matchBegin, matchEnd, currentPosition,
                         thisChar, wildcard, previousKey);
             }
 
 
-        } else if (currentPosition == textChars.length && rule.containsKey(END)) {
+        } else if (currentPosition == state.limit && rule.end) {
             if (matchEnd == 0)
-                addDeterminants(text, rule, matches, matchBegin, currentPosition, currentPosition);
+                addDeterminants(state, getTerminals(rule.map, path), matchBegin, currentPosition, currentPosition);
             else
-                addDeterminants(text, rule, matches, matchBegin, matchEnd, currentPosition);
-        } else if (currentPosition == textChars.length && rule.containsKey('\\') && ((HashMap) rule.get('\\')).containsKey('e')) {
-            HashMap deterRule = ((HashMap) ((HashMap) rule.get('\\')).get('e'));
+                addDeterminants(state, getTerminals(rule.map, path), matchBegin, matchEnd, currentPosition);
+        } else if (currentPosition == state.limit && rule.escape != null && rule.escape.getWildcard('e') != null) {
+            HashMap deterRule = rule.escape.getWildcard('e').map;
+            int deterPath = path + rule.escapeWeight + rule.escape.getWildcardWeight('e');
             if (matchEnd == 0)
-                addDeterminants(text, deterRule, matches, matchBegin, currentPosition, currentPosition);
+                addDeterminants(state, getTerminals(deterRule, deterPath), matchBegin, currentPosition, currentPosition);
             else
-                addDeterminants(text, deterRule, matches, matchBegin, matchEnd, currentPosition);
-        } else if (currentPosition == textChars.length && rule.containsKey(')')) {
-            HashMap deterRule = (HashMap) rule.get(')');
-            if (deterRule.containsKey(END)) {
-                addDeterminants(text, deterRule, matches, matchBegin, currentPosition, currentPosition);
-            } else if (deterRule.containsKey('\\') && ((HashMap) deterRule.get('\\')).containsKey('e'))
-                processRules(text, textChars, (HashMap) ((HashMap) deterRule.get('\\')).get('e'), matchBegin, matchEnd, currentPosition, matches, previousChar, false, ' ');
-        } else if (currentPosition == textChars.length && rule.containsKey('+')) {
-            HashMap deterRule = (HashMap) rule.get('+');
-            processRules(text, textChars, deterRule, matchBegin, matchEnd, currentPosition, matches, previousChar, wildcard, previousKey);
+                addDeterminants(state, getTerminals(deterRule, deterPath), matchBegin, matchEnd, currentPosition);
+        } else if (currentPosition == state.limit && rule.close != null) {
+            CharNode deterRule = rule.close;
+            int deterPath = path + rule.closeWeight;
+            if (deterRule.end) {
+                addDeterminants(state, getTerminals(deterRule.map, deterPath), matchBegin, currentPosition, currentPosition);
+            } else if (deterRule.escape != null && deterRule.escape.getWildcard('e') != null)
+                processRules(state, deterRule.escape.getWildcard('e'),
+                        deterPath + deterRule.escapeWeight + deterRule.escape.getWildcardWeight('e'),
+                        matchBegin, matchEnd, currentPosition, previousChar, false, ' ');
+        } else if (currentPosition == state.limit && rule.plus != null) {
+            processRules(state, rule.plus, path + rule.plusWeight, matchBegin, matchEnd, currentPosition, previousChar, wildcard, previousKey);
         }
     }
 
@@ -290,90 +442,94 @@ public class FastCRule extends FastRuleWG {
     }
 
 
-    protected void processWildCards(String text, char[] textChars, HashMap rule, int matchBegin, int matchEnd, int currentPosition, HashMap<String, ArrayList<Span>> matches, char previousChar, boolean wildcard, char previousKey) {
-        char thisChar = textChars[currentPosition];
-        for (Object rulechar : rule.keySet()) {
-            char thisRuleChar = (Character) rulechar;
+    protected void processWildCards(MatchState state, CharNode rule, int path, int matchBegin, int matchEnd, int currentPosition,
+                                    char previousChar, boolean wildcard, char previousKey) {
+        char thisChar = state.chars[currentPosition];
+        char[] wildcards = rule.wildcards;
+        for (int w = 0; w < wildcards.length; w++) {
+            char thisRuleChar = wildcards[w];
+            CharNode child = rule.wildcardNodes[w];
+            int childPath = path + rule.getWildcardWeight(w);
             switch (thisRuleChar) {
                 case 's':
 //                    if (thisChar == ' ' || thisChar == '\t' || (scSupport && !(isLetterOrDigit(thisChar) || isWhitespace(thisChar) || WildCardChecker.isPunctuation(thisChar)))) {
                     if (iss(thisChar)) {
-                        processRules(text, textChars, (HashMap) rule.get('s'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 's');
                     }
                     break;
                 case 'n':
                     if (thisChar == '\n' || thisChar == '\r') {
-                        processRules(text, textChars, (HashMap) rule.get('n'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'n');
                     }
                     break;
                 case '(':
                     if (thisChar == '(')
-                        processRules(text, textChars, (HashMap) rule.get('('), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, '(');
                     break;
                 case ')':
                     if (thisChar == ')')
-                        processRules(text, textChars, (HashMap) rule.get(')'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, ')');
                     break;
                 case 'd':
                     if (isd(thisChar)) {
-                        processRules(text, textChars, (HashMap) rule.get('d'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'd');
                     }
                     break;
                 case 'C':
                     if (isC(thisChar)) {
-                        processRules(text, textChars, (HashMap) rule.get('C'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'C');
                     }
                     break;
                 case 'c':
                     if (isc(thisChar)) {
-                        processRules(text, textChars, (HashMap) rule.get('c'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'c');
                     }
                     break;
                 case 'p':
                     if (isp(thisChar)) {
-                        processRules(text, textChars, (HashMap) rule.get('p'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'p');
                     }
                     break;
                 case '+':
                     if (thisChar == '+') {
-                        processRules(text, textChars, (HashMap) rule.get('+'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, '+');
                     }
                     break;
                 case '\\':
                     if (thisChar == '\\') {
-                        processRules(text, textChars, (HashMap) rule.get('\\'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, false, '\\');
                     }
                     break;
                 case 'b':
-                    if (currentPosition == 0)
-                        processRules(text, textChars, (HashMap) rule.get('b'), matchBegin, matchEnd, currentPosition, matches,
+                    if (currentPosition == state.begin)
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition,
                                 previousChar, false, 'b');
                     break;
                 case 'a':
                     if (isa(thisChar))
 //                    if(thisChar!=' ' && thisChar!='\t' && thisChar!='\r' && thisChar!='\n')
-                        processRules(text, textChars, (HashMap) rule.get('a'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'a');
                     break;
                 case 'u':
                     if (isu(thisChar))
-                        processRules(text, textChars, (HashMap) rule.get('u'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'u');
                     break;
 
                 case 'w':
                     if (isw(thisChar)) {
-                        processRules(text, textChars, (HashMap) rule.get('w'), matchBegin, matchEnd, currentPosition + 1, matches,
+                        processRules(state, child, childPath, matchBegin, matchEnd, currentPosition + 1,
                                 thisChar, true, 'w');
                     }
                     break;
@@ -386,138 +542,72 @@ public class FastCRule extends FastRuleWG {
 
     }
 
-    protected void processReplicants(String text, char[] textChars, HashMap rule, int matchBegin, int matchEnd, int currentPosition, HashMap<String, ArrayList<Span>> matches, char previousChar, boolean wildcard, char previousKey) {
-        char thisChar = textChars[currentPosition];
-        int currentRepeats = 0;
+    /**
+     * Jump over the run of the replicated class (or char) that starts at currentPosition, at most maxRepeatLength
+     * chars. The run lengths come from the tables of the segment (@see RunLengths), so a run is scanned only once no
+     * matter how many branches reach it.
+     */
+    protected void processReplicants(MatchState state, CharNode rule, int path, int matchBegin, int matchEnd, int currentPosition,
+                                     char previousChar, boolean wildcard, char previousKey) {
         if (wildcard) {
-            switch (previousKey) {
-                case 's':
-                    //                        if (thisChar == ' ' || thisChar == '\t' || (int)thisChar==160 || (scSupport && !(isLetterOrDigit(thisChar) || isWhitespace(thisChar) || WildCardChecker.isPunctuation(thisChar)))) {
-                    if (iss(thisChar)) {
-                        while (iss(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'n':
-                    if ((thisChar == '\n' || thisChar == '\r')) {
-                        while ((thisChar == '\n' || thisChar == '\r') && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'd':
-                    if (isd(thisChar)) {
-                        while (isd(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'C':
-                    if (isC(thisChar)) {
-                        while (isC(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'c':
-                    if (isc(thisChar)) {
-                        while (isc(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }//
-                    }
-                    break;
-                case 'p':
-                    if (isp(thisChar)) {
-                        while (isp(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'a':
-                    if (isa(thisChar)) {
-                        while (isa(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'u':
-                    if (isu(thisChar)) {
-                        while (isu(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-                case 'w':
-                    if (isw(thisChar)) {
-                        while (isw(thisChar) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                            currentPosition++;
-                            currentRepeats++;
-                            if (currentPosition == textChars.length)
-                                break;
-                            thisChar = textChars[currentPosition];
-                        }
-                    }
-                    break;
-            }
-            processRules(text, textChars, rule, matchBegin, matchEnd, currentPosition, matches,
+            int slot = RunLengths.slotOf(previousKey);
+            if (slot != -1)
+                currentPosition += clampRepeats(state.getRuns(slot, this)[currentPosition]);
+            processRules(state, rule, path, matchBegin, matchEnd, currentPosition,
                     previousChar, false, '+');
-        } else if (thisChar == previousKey) {
-            while ((thisChar == previousKey) && currentRepeats < maxRepeatLength && currentPosition < textChars.length) {
-                currentPosition++;
-                currentRepeats++;
-                if (currentPosition == textChars.length)
-                    break;
-                thisChar = textChars[currentPosition];
-
-            }
-            processRules(text, textChars, rule, matchBegin, matchEnd, currentPosition, matches,
+        } else if (state.chars[currentPosition] == previousKey) {
+            currentPosition += clampRepeats(state.getRuns(RunLengths.SAME, this)[currentPosition]);
+            processRules(state, rule, path, matchBegin, matchEnd, currentPosition,
                     previousChar, false, '+');
         }
     }
 
+    protected int clampRepeats(int repeats) {
+        return repeats > maxRepeatLength ? Math.max(maxRepeatLength, 0) : repeats;
+    }
+
+    /**
+     * @param wildcard the wildcard class that is replicated (e.g. 'd' of "\\d+")
+     * @return whether thisChar belongs to the class
+     */
+    protected boolean inClass(char wildcard, char thisChar) {
+        switch (wildcard) {
+            case 's':
+                return iss(thisChar);
+            case 'n':
+                return thisChar == '\n' || thisChar == '\r';
+            case 'd':
+                return isd(thisChar);
+            case 'C':
+                return isC(thisChar);
+            case 'c':
+                return isc(thisChar);
+            case 'p':
+                return isp(thisChar);
+            case 'a':
+                return isa(thisChar);
+            case 'u':
+                return isu(thisChar);
+            case 'w':
+                return isw(thisChar);
+            default:
+                return false;
+        }
+    }
+
 
-    protected void addDeterminants(String text, HashMap rule, HashMap<String, ArrayList<Span>> matches,
-                                   int matchBegin, int matchEnd, int currentPosition) {
-        HashMap<Determinants, Integer> deterRule = (HashMap<Determinants, Integer>) rule.get(END);
+    protected void addDeterminants(MatchState state, int[] terminals, int matchBegin, int matchEnd, int currentPosition) {
+        if (state.candidates != null) {
+            state.candidates.add(terminals, matchBegin, matchEnd == 0 ? currentPosition : matchEnd);
+            return;
+        }
+        String text = state.text;
+        int offset = state.offset;
         int end = matchEnd == 0 ? currentPosition : matchEnd;
         if (matchBegin > end) {
             StringBuilder sb = new StringBuilder();
-            for (Object key : deterRule.keySet()) {
-                int rulePos = deterRule.get(key);
-                sb.append(getRule(rulePos).toString());
+            for (int index : terminals) {
+                sb.append(getRule(ruleTable.ids[index]).toString());
                 sb.append("\n");
             }
             logger.warning("Rule definition error ----matched begin > matched end\n" +
@@ -531,53 +621,98 @@ public class FastCRule extends FastRuleWG {
             return;
 
         }
-        Span currentSpan = new Span(matchBegin + offset, end + offset, text.substring(matchBegin, end));
+        int begin = matchBegin + offset;
+        end += offset;
         if (logger.isLoggable(Level.FINEST))
-            logger.finest("Try to addDeterminants: " + currentSpan.begin + ", " + currentSpan.end + "\t" + currentSpan.text);
-
-        for (Object key : deterRule.keySet()) {
-            ArrayList<Span> currentSpanList = new ArrayList<>();
-            int rulePos = deterRule.get(key);
-            double score = getScore(rulePos);
-            currentSpan.ruleId = rulePos;
-            currentSpan.score = score;
+            logger.finest("Try to addDeterminants: " + begin + ", " + end + "\t" + text.substring(matchBegin, end - offset));
+
+        for (int index : terminals) {
+            int rulePos = ruleTable.ids[index];
+            int conceptId = ruleTable.conceptIds[index];
+            double score = ruleTable.scores[index];
             if (logger.isLoggable(Level.FINEST))
-                logger.finest("\t\tRule Id: " + rulePos + "\t" + key + "\t" + getRule(rulePos).type + "\t" + getRuleString(rulePos));
+                logger.finest("\t\tRule Id: " + rulePos + "\t" + ruleTable.getConceptName(conceptId) + "\t" +
+                        ruleTable.types[index] + "\t" + getRuleString(rulePos));
 //          If needed, implement your own selection ruleStore and score updating logic below
-            if (matches.containsKey(key)) {
+            MatchRecords records = state.getRecords(conceptId);
 //              because the ruleStore are all processed at the same time from the input left to the input right,
 //                it becomes more efficient to compare the overlaps
-                currentSpanList = matches.get(key);
-                IntervalST<Integer> overlapChecker = overlapCheckers.get(key);
-                Object overlappedPos = overlapChecker.get(new Interval1D(currentSpan.begin, currentSpan.end - 1));
-                if (overlappedPos != null) {
-                    int pos = (int) overlappedPos;
-                    Span overlappedSpan = currentSpanList.get(pos);
+            OverlapIndex overlapChecker = state.getOverlapIndex(conceptId);
+            int slot = overlapChecker.find(begin, end);
+            if (slot != -1) {
+                int pos = overlapChecker.getPosition(slot);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("\t\tOverlapped with: " + records.getBegin(pos) + ", " + records.getEnd(pos) + "\t" +
+                            text.substring(records.getBegin(pos) - offset, records.getEnd(pos) - offset));
+                if (!compareMatch(score, end - begin, records.getScore(pos), records.getEnd(pos) - records.getBegin(pos))) {
                     if (logger.isLoggable(Level.FINEST))
-                        logger.finest("\t\tOverlapped with: " + overlappedSpan.begin + ", " + overlappedSpan.end + "\t" +
-                                text.substring(overlappedSpan.begin - offset, overlappedSpan.end - offset));
-                    if (!compareSpan(currentSpan, overlappedSpan)) {
-                        if (logger.isLoggable(Level.FINEST))
-                            logger.finest("\t\tSkip this span ...");
-                        continue;
-                    }
-                    currentSpanList.set(pos, currentSpan);
-                    overlapChecker.remove(new Interval1D(overlappedSpan.begin, overlappedSpan.end - 1));
-                    overlapChecker.put(new Interval1D(currentSpan.begin, currentSpan.end - 1), pos);
-                } else {
-                    overlapChecker.put(new Interval1D(currentSpan.begin, currentSpan.end - 1), currentSpanList.size());
-                    currentSpanList.add(currentSpan);
+                        logger.finest("\t\tSkip this span ...");
+                    continue;
                 }
+                records.set(pos, begin, end, rulePos, score, ruleTable.pseudo[index]);
+                overlapChecker.replace(slot, begin, end, pos);
             } else {
-                currentSpanList.add(currentSpan);
-                matches.put((String) key, currentSpanList);
-                IntervalST<Integer> overlapChecker = new IntervalST<Integer>();
-                overlapChecker.put(new Interval1D(currentSpan.begin, currentSpan.end - 1), 0);
-                overlapCheckers.put((String) key, overlapChecker);
+                overlapChecker.add(begin, end, records.add(begin, end, rulePos, score, ruleTable.pseudo[index]));
             }
         }
     }
 
+    /**
+     * Whether none of the matches below a rule node can be kept (@see FastRule#setBranchPruning): for each concept
+     * below, the match that a new match would be compared with is already known--the leftmost kept match that ends
+     * after matchBegin, if it begins before the earliest end of the new match--and the best score/width below cannot
+     * beat it.
+     */
+    protected boolean cannotWin(MatchState state, HashMap rule, int matchBegin, int matchEnd, int currentPosition) {
+        if ((compareStrategy != SCORE_ONLY && compareStrategy != WIDTH_ONLY) || state.candidates != null)
+            return false;
+        NodeBounds.Bound bound = nodeBounds.get(rule);
+        if (bound == null || bound.capture)
+            return false;
+//        the end of a match below is fixed if a group has been closed, otherwise it is at least currentPosition
+        int minEnd = matchEnd == 0 ? currentPosition : matchEnd;
+        int maxWidth;
+        if (matchEnd != 0)
+            maxWidth = matchEnd - matchBegin;
+        else if (bound.maxRemaining == NodeBounds.UNBOUNDED)
+            maxWidth = Integer.MAX_VALUE;
+        else
+            maxWidth = currentPosition - matchBegin + bound.maxRemaining;
+        for (int conceptId : bound.conceptIds) {
+            OverlapIndex overlapChecker = state.getOverlapIndex(conceptId);
+            int slot = overlapChecker.findEndingAfter(matchBegin + state.offset);
+            if (slot == -1 || overlapChecker.getBegin(slot) >= minEnd + state.offset)
+                return false;
+            MatchRecords records = state.getRecords(conceptId);
+            int pos = overlapChecker.getPosition(slot);
+            if (compareStrategy == SCORE_ONLY) {
+                double score = records.getScore(pos);
+                if (bound.minScore < 0 || (score >= 0 && bound.maxScore > score))
+                    return false;
+            } else if (maxWidth > records.getEnd(pos) - records.getBegin(pos)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * In the char rules, a wildcard or an escaped char consumes one char, "\b" and "\e" consume none, and "+"
+     * repeats the previous one.
+     */
+    @Override
+    protected int getEdgeLength(Object parentKey, Object key) {
+        if (parentKey != null && parentKey.equals('\\'))
+            return key.equals('b') || key.equals('e') ? 0 : 1;
+        if (key.equals('\\'))
+            return 0;
+        if (key.equals('(') || key.equals(')'))
+            return NodeBounds.CAPTURE;
+        if (key.equals('+'))
+            return NodeBounds.UNBOUNDED;
+        return 1;
+    }
+
     public double getScore(Span span) {
         return scores.get(span.ruleId);
     }
@@ -587,7 +722,14 @@ public class FastCRule extends FastRuleWG {
     }
 
     public void setScore(int ruleId, double score) {
+        checkNotSealed();
         scores.put(ruleId, score);
+        int index = ruleTable == null ? -1 : ruleTable.indexOf(ruleId);
+        if (index != -1) {
+            ruleTable.scores[index] = score;
+            if (nodeBounds != null)
+                compileNodeBounds();
+        }
     }
 
     /**
@@ -597,35 +739,50 @@ public class FastCRule extends FastRuleWG {
      * @param support support replications
      */
     public void setReplicationSupport(boolean support) {
+        checkNotSealed();
         this.supportReplications = support;
     }
 
     public void setCompareMethod(String method) {
+        checkNotSealed();
         this.method = method;
+        switch (method) {
+            case "score":
+                compareStrategy = SCORE_ONLY;
+                break;
+            case "scorewidth":
+                compareStrategy = SCORE_WIDTH;
+                break;
+            case "widthscore":
+                compareStrategy = WIDTH_SCORE;
+                break;
+            default:
+                compareStrategy = WIDTH_ONLY;
+        }
     }
 
-    protected boolean compareScoreOnly(Span a, Span b) {
-        if (getScore(a) < 0)
+    protected boolean compareScoreOnly(double scoreA, int widthA, double scoreB, int widthB) {
+        if (scoreA < 0)
             return true;
-        if (getScore(b) < 0)
+        if (scoreB < 0)
             return false;
-        return getScore(a) > getScore(b);
+        return scoreA > scoreB;
     }
 
-    protected boolean compareWidthOnly(Span a, Span b) {
-        return a.width > b.width;
+    protected boolean compareWidthOnly(double scoreA, int widthA, double scoreB, int widthB) {
+        return widthA > widthB;
     }
 
-    protected boolean compareScorePrior(Span a, Span b) {
+    protected boolean compareScorePrior(double scoreA, int widthA, double scoreB, int widthB) {
         if (logger.isLoggable(Level.FINEST))
-            logger.finest("\t\tcurrent " + a.ruleId + " score: " + getScore(a.ruleId) + "\t---\toverlapped " + b.ruleId + " score: " + getScore(b.ruleId));
-        if (getScore(a) < 0)
+            logger.finest("\t\tcurrent score: " + scoreA + "\t---\toverlapped score: " + scoreB);
+        if (scoreA < 0)
             return true;
-        if (getScore(b) < 0)
+        if (scoreB < 0)
             return false;
-        if (getScore(a) > getScore(b)) {
+        if (scoreA > scoreB) {
             return true;
-        } else if (getScore(a) >= getScore(b) && a.width > b.width
+        } else if (scoreA >= scoreB && widthA > widthB
 //                && getRule(b.ruleId).type != Determinants.PSEUDO
                 ) {
             return true;
@@ -633,34 +790,273 @@ public class FastCRule extends FastRuleWG {
         return false;
     }
 
-    protected boolean compareWidthPrior(Span a, Span b) {
-        if (a.width > b.width) {
+    protected boolean compareWidthPrior(double scoreA, int widthA, double scoreB, int widthB) {
+        if (widthA > widthB) {
             return true;
-        } else if (a.width == b.width && getScore(a) > getScore(b)) {
+        } else if (widthA == widthB && scoreA > scoreB) {
             return true;
         }
         return false;
     }
 
-    protected boolean compareSpan(Span a, Span b) {
-        switch (method) {
-            case "score":
-                return compareScoreOnly(a, b);
-            case "scorewidth":
-                return compareScorePrior(a, b);
-            case "widthscore":
-                return compareWidthPrior(a, b);
+    /**
+     * Whether a new match (a) wins over an overlapped match (b), by the scores of their rules and their widths
+     */
+    protected boolean compareMatch(double scoreA, int widthA, double scoreB, int widthB) {
+        switch (compareStrategy) {
+            case SCORE_ONLY:
+                return compareScoreOnly(scoreA, widthA, scoreB, widthB);
+            case SCORE_WIDTH:
+                return compareScorePrior(scoreA, widthA, scoreB, widthB);
+            case WIDTH_SCORE:
+                return compareWidthPrior(scoreA, widthA, scoreB, widthB);
             default:
-                return compareWidthOnly(a, b);
+                return compareWidthOnly(scoreA, widthA, scoreB, widthB);
         }
     }
 
+    protected boolean compareSpan(Span a, Span b) {
+        return compareMatch(getScore(a), a.width, getScore(b), b.width);
+    }
+
     public void setSpecialCharacterSupport(Boolean scSupport) {
+        checkNotSealed();
         this.scSupport = scSupport;
     }
 
+    @Override
+    protected void compileRuleTable() {
+        super.compileRuleTable();
+        root = CharNode.compile(rulesMap, END);
+        literalPrefilter = LiteralPrefilter.build(rulesMap, END);
+    }
+
+    /**
+     * The literal prefilter does not refer to the rule nodes, so only the compiled nodes are rebuilt
+     */
+    @Override
+    protected void compileMinimized() {
+        root = CharNode.compile(rulesMap, END, minimizedRules);
+    }
+
+    /**
+     * The start positions of the char rules are filtered by the literal prefilter instead
+     */
+    @Override
+    protected void compileStartTokens() {
+    }
+
+    /**
+     * @param literalPrefiltering if true (default), the rules are only walked from the positions where the required
+     *                            literals of some rule are found around (@see LiteralPrefilter). It has no effect on
+     *                            the output, and no effect at all if some rule has no literal.
+     */
+    public void setLiteralPrefiltering(boolean literalPrefiltering) {
+        checkNotSealed();
+        this.literalPrefiltering = literalPrefiltering;
+    }
+
     public void setMaxRepeatLength(int maxRepeatLength) {
+        checkNotSealed();
         this.maxRepeatLength = maxRepeatLength;
     }
 
+    /**
+     * @param lazySpanText if true, the output spans are SourceSpans, whose text field stays null until getText is
+     *                     called. Use it when only the offsets of the matches are needed.
+     */
+    public void setLazySpanText(boolean lazySpanText) {
+        checkNotSealed();
+        this.lazySpanText = lazySpanText;
+    }
+
+    /**
+     * Everything that changes while matching one text. The compiled rules are only read during matching, so keeping
+     * the per-call state here (instead of in the fields) allows one FastCRule to be shared by concurrent callers.
+     * A MatchState is reused by the calls of the same thread (@see #matchStates): the char buffer only grows.
+     */
+    protected static class MatchState {
+        public String text;
+        //        the buffer may be longer than the text, use length instead of chars.length
+        public char[] chars = new char[0];
+        public int length;
+        //        the boundaries of the segment being matched: matches cannot start before begin or go beyond limit
+        public int begin, limit;
+        //        the offset to be added to the begins and ends of output spans
+        public int offset;
+        //        the matches of each concept (indexed by concept id), as compact records until the end of the call
+//        (@see #toMatches)
+        public MatchRecords[] records = new MatchRecords[0];
+        //    Because the match branches caused by wildcards, some right matches can be found before left matches
+//    An interval index is maintained to check the overlapping among matches within a same type of concept. The
+//    indices are cleared (not dropped) between calls, so that their buffers are reused.
+        public OverlapIndex[] overlapCheckers = new OverlapIndex[0];
+        //        if not null, the matches are only recorded here (in a parallel chunk), not resolved
+        public MatchCandidates candidates;
+        //        if not null, the matches are counted here instead of turned into spans (@see #countSegments)
+        public ConceptCounter counter;
+        //        the number of records of each concept that have been counted
+        protected int[] counted = new int[0];
+        //        the run lengths of the current segment, shared with the parallel chunks, and the tables already fetched
+        public RunLengths runLengths = new RunLengths();
+        protected int[][] runs = new int[RunLengths.SLOTS][];
+        //        the start positions of a chunk that the literal prefilter lets through
+        protected int[] marks = new int[0];
+
+        public MatchState reset(String text, int offset) {
+            this.text = text;
+            this.length = text.length();
+            if (chars.length < length)
+                chars = new char[Math.max(length, chars.length * 2)];
+            text.getChars(0, length, chars, 0);
+            setSegment(0, length);
+            this.offset = offset;
+            clearRecords();
+            return this;
+        }
+
+        /**
+         * @return a state for a parallel chunk of the current segment, which shares the (read-only) char buffer
+         */
+        public MatchState fork() {
+            MatchState chunkState = new MatchState();
+            chunkState.text = text;
+            chunkState.chars = chars;
+            chunkState.length = length;
+            chunkState.setSegment(begin, limit);
+            chunkState.offset = offset;
+            chunkState.candidates = new MatchCandidates();
+            chunkState.runLengths = runLengths;
+            return chunkState;
+        }
+
+        public int[] getMarks(int size) {
+            if (marks.length < size)
+                marks = new int[Math.max(size, marks.length * 2)];
+            return marks;
+        }
+
+        public void resetRuns() {
+            runLengths.reset(chars, begin, limit);
+            Arrays.fill(runs, null);
+        }
+
+        /**
+         * @return the run lengths of a class slot in the current segment (@see RunLengths#get)
+         */
+        public int[] getRuns(int slot, FastCRule engine) {
+            int[] run = runs[slot];
+            if (run == null) {
+                char wildcard = slot < RunLengths.SAME ? RunLengths.CLASSES.charAt(slot) : ' ';
+                run = runs[slot] = runLengths.get(slot, c -> engine.inClass(wildcard, (char) c));
+            }
+            return run;
+        }
+
+        public OverlapIndex getOverlapIndex(int conceptId) {
+            if (conceptId >= overlapCheckers.length)
+                overlapCheckers = Arrays.copyOf(overlapCheckers, conceptId + 1);
+            if (overlapCheckers[conceptId] == null)
+                overlapCheckers[conceptId] = new OverlapIndex();
+            return overlapCheckers[conceptId];
+        }
+
+        public MatchRecords getRecords(int conceptId) {
+            if (conceptId >= records.length)
+                records = Arrays.copyOf(records, conceptId + 1);
+            if (records[conceptId] == null)
+                records[conceptId] = new MatchRecords();
+            return records[conceptId];
+        }
+
+        /**
+         * Create the Spans of the matches that survived the overlap resolution
+         *
+         * @param ruleTable  the table to look up the concept names
+         * @param lazyText   whether the span texts are copied only when asked for (@see SourceSpan)
+         * @param skipPseudo whether to leave out the matches of PSEUDO rules
+         * @return matches
+         */
+        public HashMap<String, ArrayList<Span>> toMatches(RuleTable ruleTable, boolean lazyText, boolean skipPseudo) {
+            HashMap<String, ArrayList<Span>> matches = new HashMap<>();
+            for (int conceptId = 0; conceptId < records.length; conceptId++) {
+                if (records[conceptId] != null && records[conceptId].size() > 0)
+                    matches.put(ruleTable.getConceptName(conceptId), records[conceptId].toSpans(text, offset, lazyText, skipPseudo));
+            }
+            return matches;
+        }
+
+        /**
+         * Count the records that end before a position: a match begins at or after its start position, so nothing
+         * can replace them any more. A concept's records are counted in order, up to the first one that can still be
+         * replaced.
+         *
+         * @param position   a position (with the offset) that no later match begins before, Integer.MAX_VALUE to
+         *                   count all the records
+         * @param skipPseudo whether the records of PSEUDO rules are left out
+         */
+        public void countRecords(int position, boolean skipPseudo) {
+            if (counted.length < records.length)
+                counted = Arrays.copyOf(counted, records.length);
+            for (int conceptId = 0; conceptId < records.length; conceptId++) {
+                MatchRecords conceptRecords = records[conceptId];
+                int slot = counter.getSlot(conceptId);
+                if (conceptRecords == null || slot == -1)
+                    continue;
+                int i = counted[conceptId];
+                for (; i < conceptRecords.size() && conceptRecords.getEnd(i) <= position; i++)
+                    if (!skipPseudo || !conceptRecords.isPseudo(i))
+                        counter.count(slot);
+                counted[conceptId] = i;
+            }
+        }
+
+        /**
+         * @return true if the counter is in presence mode, and enough concepts are found before the position
+         */
+        public boolean isComplete(int position, boolean skipPseudo) {
+            if (!counter.isPresenceMode())
+                return false;
+            countRecords(position, skipPseudo);
+            return counter.isComplete();
+        }
+
+        protected void clearRecords() {
+            Arrays.fill(counted, 0);
+            for (MatchRecords conceptRecords : records)
+                if (conceptRecords != null)
+                    conceptRecords.clear();
+            for (OverlapIndex index : overlapCheckers)
+                if (index != null)
+                    index.clear();
+        }
+
+        public void setSegment(int begin, int limit) {
+            this.begin = begin;
+            this.limit = limit;
+        }
+
+        /**
+         * Drop the references to the text and results, so that an idle thread does not hold them. The buffers that
+         * grew beyond MAX_RETAINED_BUFFER are dropped as well.
+         */
+        public void clear() {
+            text = null;
+            counter = null;
+            if (chars.length > MAX_RETAINED_BUFFER)
+                chars = new char[0];
+            if (marks.length > MAX_RETAINED_BUFFER)
+                marks = new int[0];
+            for (int i = 0; i < records.length; i++)
+                if (records[i] != null && records[i].size() > MAX_RETAINED_BUFFER)
+                    records[i] = null;
+            for (int i = 0; i < overlapCheckers.length; i++)
+                if (overlapCheckers[i] != null && overlapCheckers[i].size() > MAX_RETAINED_BUFFER)
+                    overlapCheckers[i] = null;
+            clearRecords();
+            runLengths.clear();
+            Arrays.fill(runs, null);
+        }
+    }
+
 }
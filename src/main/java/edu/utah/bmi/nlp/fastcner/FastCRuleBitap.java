@@ -0,0 +1,339 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.core.Rule;
+
+import java.util.*;
+
+/**
+ * A FastCRule for rule sets of short fixed-length patterns: every rule is a sequence of literal chars and single-char
+ * wildcards (a backslash followed by s, n, d, C, c, p, a, u or w, or an escaped char), without groups, replications
+ * or \b/\e, and no longer than 64 chars. The patterns are packed into 64-bit words and matched with the Shift-And
+ * (Bitap) algorithm: each input char advances all the patterns with a few bitwise operations, instead of walking the
+ * rules map from every position.
+ * <p>
+ * The matches are then added in the order that FastCRule would find them (by begin, then by the order of the rule
+ * nodes in a FastCRule walk), so that the overlap resolution and the output are the same.
+ * <p>
+ * If the compiled rules do not qualify (@see #qualifies), it works as a FastCRule.
+ *
+ * @author Jianlin Shi
+ */
+public class FastCRuleBitap extends FastCRule {
+    public static final int MAX_PATTERN_LENGTH = 64;
+    //    the wildcards that match one char of a class, the element of a class is CLASS + its index
+    protected static final String CLASSES = "sndCcpauw";
+    protected static final int CLASS = 0x10000;
+
+    //    number of 64-bit words, 0 if the rules are not compiled into patterns
+    protected int words;
+    //    per word: the first bit of each pattern, and the last bit of each pattern
+    protected long[] startMasks, endMasks;
+    //    the pattern that ends at each bit (word * 64 + bit), -1 if none
+    protected int[] endPatterns;
+    //    per pattern (in the order of a FastCRule walk): the dense indices of the rules that end with it, and its length
+    protected int[][] patternTerminals;
+    protected int[] patternLengths;
+    //    char * words + word -> the bits of the elements that match the char, for the chars below 128
+    protected long[] asciiMasks;
+    //    the other literal chars -> per word bits; and class index * words + word -> the bits of the class elements
+    protected HashMap<Character, long[]> literalMasks;
+    protected long[] classMasks;
+    protected ThreadLocal<Scratch> scratches;
+
+    protected FastCRuleBitap() {
+    }
+
+    public FastCRuleBitap(HashMap<Integer, Rule> ruleStore) {
+        super(ruleStore);
+    }
+
+    /**
+     * A quick check of the rule strings, before the rules map is built
+     *
+     * @param ruleStore rules
+     * @return true if all the rules can be matched as Shift-And patterns
+     */
+    public static boolean qualifies(Map<Integer, Rule> ruleStore) {
+        if (ruleStore.isEmpty())
+            return false;
+        for (Rule rule : ruleStore.values()) {
+            String pattern = rule.rule;
+            int length = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char ch = pattern.charAt(i);
+                if (ch == '\\') {
+                    if (++i == pattern.length())
+                        return false;
+                    ch = pattern.charAt(i);
+                    if (ch == 'b' || ch == 'e')
+                        return false;
+                } else if (ch == '(' || ch == ')' || ch == '+') {
+                    return false;
+                }
+                length++;
+            }
+            if (length == 0 || length > MAX_PATTERN_LENGTH)
+                return false;
+        }
+        return true;
+    }
+
+    public boolean isCompiled() {
+        return words > 0;
+    }
+
+    @Override
+    protected void compileRuleTable() {
+        super.compileRuleTable();
+        compilePatterns();
+    }
+
+    /**
+     * Collect the patterns from the rules map, in the order that processRules visits the rule nodes: wildcards (in the
+     * key order of the wildcard node), then the END of the node, then the literal chars.
+     */
+    protected void compilePatterns() {
+        words = 0;
+        if (scratches == null)
+            scratches = ThreadLocal.withInitial(Scratch::new);
+        ArrayList<HashMap> nodes = new ArrayList<>();
+        ArrayList<int[]> elements = new ArrayList<>();
+        if (!collectPatterns(rulesMap, new ArrayList<>(), nodes, elements) || nodes.isEmpty())
+            return;
+        int count = nodes.size();
+        patternTerminals = new int[count][];
+        for (int p = 0; p < count; p++)
+            patternTerminals[p] = (int[]) nodes.get(p).get(END);
+        patternLengths = new int[count];
+        int[] patternWords = new int[count], patternShifts = new int[count];
+        int wordCount = 1, used = 0;
+        for (int p = 0; p < count; p++) {
+            int length = elements.get(p).length;
+            if (used + length > 64) {
+                wordCount++;
+                used = 0;
+            }
+            patternLengths[p] = length;
+            patternWords[p] = wordCount - 1;
+            patternShifts[p] = used;
+            used += length;
+        }
+        startMasks = new long[wordCount];
+        endMasks = new long[wordCount];
+        endPatterns = new int[wordCount * 64];
+        Arrays.fill(endPatterns, -1);
+        asciiMasks = new long[128 * wordCount];
+        literalMasks = new HashMap<>();
+        classMasks = new long[CLASSES.length() * wordCount];
+        for (int p = 0; p < count; p++) {
+            int w = patternWords[p], shift = patternShifts[p];
+            int[] pattern = elements.get(p);
+            startMasks[w] |= 1L << shift;
+            endMasks[w] |= 1L << (shift + pattern.length - 1);
+            endPatterns[w * 64 + shift + pattern.length - 1] = p;
+            for (int i = 0; i < pattern.length; i++) {
+                long bit = 1L << (shift + i);
+                int element = pattern[i];
+                if (element >= CLASS) {
+                    classMasks[(element - CLASS) * wordCount + w] |= bit;
+                    for (char ch = 0; ch < 128; ch++) {
+                        if (matchClass(element - CLASS, ch))
+                            asciiMasks[ch * wordCount + w] |= bit;
+                    }
+                } else if (element < 128) {
+                    asciiMasks[element * wordCount + w] |= bit;
+                } else {
+                    long[] masks = literalMasks.get((char) element);
+                    if (masks == null) {
+                        masks = new long[wordCount];
+                        literalMasks.put((char) element, masks);
+                    }
+                    masks[w] |= bit;
+                }
+            }
+        }
+        words = wordCount;
+    }
+
+    /**
+     * @return false if a rule below the node cannot be matched as a Shift-And pattern
+     */
+    protected boolean collectPatterns(HashMap node, ArrayList<Integer> path, ArrayList<HashMap> nodes,
+                                      ArrayList<int[]> elements) {
+        Object wildcards = node.get('\\');
+        if (wildcards instanceof HashMap) {
+            for (Object key : ((HashMap) wildcards).keySet()) {
+                char ch = (Character) key;
+                int element;
+                if (ch == '(' || ch == ')' || ch == '+' || ch == '\\')
+                    element = ch;
+                else if (ch == 'b' || ch == 'e')
+                    return false;
+                else if (CLASSES.indexOf(ch) != -1)
+                    element = CLASS + CLASSES.indexOf(ch);
+                else
+//                    FastCRule never matches other wildcards
+                    continue;
+                path.add(element);
+                boolean qualified = collectPatterns((HashMap) ((HashMap) wildcards).get(key), path, nodes, elements);
+                path.remove(path.size() - 1);
+                if (!qualified)
+                    return false;
+            }
+        }
+        if (node.containsKey('(') || node.containsKey(')') || node.containsKey('+'))
+            return false;
+        if (node.containsKey(END)) {
+            if (path.isEmpty() || path.size() > MAX_PATTERN_LENGTH)
+                return false;
+            int[] pattern = new int[path.size()];
+            for (int i = 0; i < pattern.length; i++)
+                pattern[i] = path.get(i);
+            nodes.add(node);
+            elements.add(pattern);
+        }
+        for (Object key : node.keySet()) {
+            if (!(key instanceof Character) || key.equals('\\'))
+                continue;
+            path.add((int) (Character) key);
+            boolean qualified = collectPatterns((HashMap) node.get(key), path, nodes, elements);
+            path.remove(path.size() - 1);
+            if (!qualified)
+                return false;
+        }
+        return true;
+    }
+
+    protected boolean matchClass(int classIndex, char ch) {
+        switch (CLASSES.charAt(classIndex)) {
+            case 's':
+                return iss(ch);
+            case 'n':
+                return ch == '\n' || ch == '\r';
+            case 'd':
+                return isd(ch);
+            case 'C':
+                return isC(ch);
+            case 'c':
+                return isc(ch);
+            case 'p':
+                return isp(ch);
+            case 'a':
+                return isa(ch);
+            case 'u':
+                return isu(ch);
+            default:
+                return isw(ch);
+        }
+    }
+
+    /**
+     * Run the patterns over the segment, starting them at the positions from..to-1, then add the matches in the
+     * order of a FastCRule walk.
+     */
+    @Override
+    protected void processSegment(MatchState state, int from, int to) {
+        if (words == 0) {
+            super.processSegment(state, from, to);
+            return;
+        }
+        Scratch scratch = scratches.get().prepare(words);
+        long[] d = scratch.states;
+        char[] chars = state.chars;
+        for (int j = from; j < state.limit; j++) {
+            boolean start = j < to;
+            char ch = chars[j];
+            long[] masks;
+            int base;
+            if (ch < 128) {
+                masks = asciiMasks;
+                base = ch * words;
+            } else {
+                masks = scratch.masks;
+                base = 0;
+                fillMasks(ch, masks);
+            }
+            boolean active = false;
+            for (int w = 0; w < words; w++) {
+//                the bits shifted into the first bit of the next pattern are dropped, a pattern only starts by startMasks
+                long dw = ((d[w] << 1) & ~startMasks[w] | (start ? startMasks[w] : 0)) & masks[base + w];
+                d[w] = dw;
+                if (dw == 0)
+                    continue;
+                active = true;
+                long hits = dw & endMasks[w];
+                while (hits != 0) {
+                    int p = endPatterns[(w << 6) + Long.numberOfTrailingZeros(hits)];
+                    hits &= hits - 1;
+                    scratch.add(((long) (j - patternLengths[p] + 1) << 32) | p);
+                }
+            }
+            if (!start && !active)
+                break;
+        }
+        long[] matches = scratch.matches;
+        int size = scratch.size;
+        Arrays.sort(matches, 0, size);
+        for (int i = 0; i < size; i++) {
+            int begin = (int) (matches[i] >>> 32);
+            int p = (int) matches[i];
+            addDeterminants(state, patternTerminals[p], begin, 0, begin + patternLengths[p]);
+        }
+        scratch.size = 0;
+    }
+
+    protected void fillMasks(char ch, long[] masks) {
+        long[] literals = literalMasks.get(ch);
+        for (int w = 0; w < words; w++)
+            masks[w] = literals == null ? 0 : literals[w];
+        for (int c = 0; c < CLASSES.length(); c++) {
+            if (matchClass(c, ch)) {
+                for (int w = 0; w < words; w++)
+                    masks[w] |= classMasks[c * words + w];
+            }
+        }
+    }
+
+    /**
+     * Reusable buffers of one thread
+     */
+    protected static class Scratch {
+        public long[] states = new long[0], masks = new long[0];
+        //        begin << 32 | pattern of the matches found in a segment
+        public long[] matches = new long[64];
+        public int size = 0;
+
+        public Scratch prepare(int words) {
+            if (states.length < words) {
+                states = new long[words];
+                masks = new long[words];
+            } else {
+                Arrays.fill(states, 0, words, 0);
+            }
+            size = 0;
+            return this;
+        }
+
+        public void add(long match) {
+            if (size == matches.length)
+                matches = Arrays.copyOf(matches, size * 2);
+            matches[size++] = match;
+        }
+    }
+}
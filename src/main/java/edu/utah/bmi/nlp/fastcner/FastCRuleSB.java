@@ -44,25 +44,28 @@ public class FastCRuleSB extends FastCRule {
     }
 
     public void initiate(String ruleStr, String splitter) {
-        method = "scorewidth";
+        setCompareMethod("scorewidth");
         ruleStore = (HashMap<Integer, Rule>) FastRuleFactory.buildRuleStore(ruleStr, null, true, true)[0];
         initiate(ruleStore);
     }
 
     public void initiate(HashMap<Integer, Rule> ruleStore) {
+        rulesMap.clear();
         this.ruleStore = ruleStore;
         for (Map.Entry<Integer, Rule> ent : ruleStore.entrySet()) {
             addSBRule(ent.getValue());
         }
+        compileRuleTable();
     }
 
     public FastCRuleSB(HashMap<Integer, Rule> ruleStore) {
-        method = "scorewidth";
+        setCompareMethod("scorewidth");
 //        initiate(ruleStore);
         this.ruleStore = ruleStore;
         for (Map.Entry<Integer, Rule> ent : ruleStore.entrySet()) {
             addSBRule(ent.getValue());
         }
+        compileRuleTable();
     }
 
     public boolean addSBRule(Rule rule) {
@@ -0,0 +1,313 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import java.util.*;
+
+/**
+ * An Aho-Corasick automaton over one required literal factor of every rule of a compiled char rules map, used to find
+ * the positions where a rule can start, so that the rules map is walked only from those positions.
+ * <p>
+ * For each path from the root to an END, the longest run of literal chars (that every match of the path has to
+ * contain) is taken as its factor, together with the range of the number of chars that the path consumes before it.
+ * Wildcards, replications ("+") and escapes break a factor; capture markers do not, as they consume nothing. If any
+ * path has no literal at all (e.g. "\\d+"), no prefilter can be built.
+ * <p>
+ * The ranges are over-approximated (e.g. an escape is allowed to consume the backslash and the escaped char
+ * literally), so that no start position of a match is ever left out.
+ *
+ * @author Jianlin Shi
+ */
+public class LiteralPrefilter {
+    protected static final int ASCII = 128;
+
+    //    the factors, and for each the range of the chars consumed before it: [minOffset,
+//    maxFixedOffset + replications * maxRepeatLength]
+    protected final String[] factors;
+    protected final int[] minOffsets, maxFixedOffsets, replications;
+    protected int maxFactorLength = 0;
+
+    //    the automaton: full transitions for ASCII chars, sparse goto and fail links for the others
+    protected int[] asciiNext;
+    protected ArrayList<HashMap<Character, Integer>> gotos = new ArrayList<>();
+    protected int[] fail;
+    //    the factors that end at each state, including those of the fail chain
+    protected int[][] outputs;
+    //    finds the next first char of a factor, to skip the text while the automaton is at the root
+    protected StartCharScanner firstChars;
+
+    protected static class Factor {
+        final String text;
+        final int minOffset, maxFixedOffset, replications;
+
+        Factor(String text, int minOffset, int maxFixedOffset, int replications) {
+            this.text = text;
+            this.minOffset = minOffset;
+            this.maxFixedOffset = maxFixedOffset;
+            this.replications = replications;
+        }
+
+        Factor longer(Factor other) {
+            if (other == null)
+                return this;
+            return text.length() >= other.text.length() ? this : other;
+        }
+    }
+
+    /**
+     * @param rulesMap the root of a compiled rules map of FastCRule
+     * @param end      the key of the END nodes
+     * @return the prefilter, null if some rule has no required literal
+     */
+    public static LiteralPrefilter build(HashMap rulesMap, Object end) {
+        LinkedHashMap<String, Factor> factors = new LinkedHashMap<>();
+        if (!collect(rulesMap, end, 0, 0, 0, null, null, false, factors) || factors.isEmpty())
+            return null;
+        return new LiteralPrefilter(factors.values());
+    }
+
+    /**
+     * Walk all the paths below a node
+     *
+     * @param minOffset      the min number of chars consumed so far
+     * @param maxFixedOffset the max number of chars consumed so far, excluding the replications
+     * @param replications   the number of replications so far
+     * @param current        the factor being extended, null if the last element was not a literal
+     * @param best           the longest factor of the path so far
+     * @param opaque         whether the rest of the path cannot be read as literals (after an escaped backslash)
+     * @return false if a path has no factor
+     */
+    protected static boolean collect(HashMap node, Object end, int minOffset, int maxFixedOffset, int replications,
+                                     Factor current, Factor best, boolean opaque, LinkedHashMap<String, Factor> factors) {
+        for (Object entry : node.entrySet()) {
+            Object key = ((Map.Entry) entry).getKey();
+            Object value = ((Map.Entry) entry).getValue();
+            if (end.equals(key)) {
+                Factor factor = current == null ? best : current.longer(best);
+                if (factor == null)
+                    return false;
+                merge(factor, factors);
+                continue;
+            }
+            if (!(value instanceof HashMap) || !(key instanceof Character))
+                continue;
+            HashMap child = (HashMap) value;
+            Factor kept = current == null ? best : current.longer(best);
+            char ch = (Character) key;
+            boolean result;
+            switch (ch) {
+                case '(':
+                case ')':
+                    result = collect(child, end, minOffset, maxFixedOffset, replications, current, best, opaque,
+                            factors);
+                    break;
+                case '+':
+                    result = collect(child, end, minOffset, maxFixedOffset, replications + 1, null, kept, opaque,
+                            factors);
+                    break;
+                case '\\':
+                    result = collectEscapes(child, end, minOffset, maxFixedOffset, replications, kept, opaque, factors);
+                    break;
+                default:
+                    if (opaque) {
+                        result = collect(child, end, minOffset, maxFixedOffset + 2, replications + 1, null, kept,
+                                true, factors);
+                    } else {
+                        Factor extended = current == null ?
+                                new Factor(String.valueOf(ch), minOffset, maxFixedOffset, replications) :
+                                new Factor(current.text + ch, current.minOffset, current.maxFixedOffset,
+                                        current.replications);
+                        result = collect(child, end, minOffset + 1, maxFixedOffset + 1, replications, extended, best,
+                                false, factors);
+                    }
+            }
+            if (!result)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * An escape either matches a wildcard class (or an escaped char), or--when the text has a backslash--the backslash
+     * and the next char literally. It may also be replicated, so its max length is open.
+     */
+    protected static boolean collectEscapes(HashMap escapes, Object end, int minOffset, int maxFixedOffset,
+                                            int replications, Factor best, boolean opaque,
+                                            LinkedHashMap<String, Factor> factors) {
+        for (Object entry : escapes.entrySet()) {
+            Object key = ((Map.Entry) entry).getKey();
+            Object value = ((Map.Entry) entry).getValue();
+            if (end.equals(key)) {
+                if (best == null)
+                    return false;
+                merge(best, factors);
+                continue;
+            }
+            if (!(value instanceof HashMap) || !(key instanceof Character))
+                continue;
+            char ch = (Character) key;
+            int consumed = ch == 'b' || ch == 'e' ? 0 : 1;
+            if (!collect((HashMap) value, end, minOffset + consumed, maxFixedOffset + 2, replications + 1, null,
+                    best, opaque || ch == '\\', factors))
+                return false;
+        }
+        return true;
+    }
+
+    protected static void merge(Factor factor, LinkedHashMap<String, Factor> factors) {
+        Factor existing = factors.get(factor.text);
+        if (existing == null) {
+            factors.put(factor.text, factor);
+        } else {
+            factors.put(factor.text, new Factor(factor.text, Math.min(existing.minOffset, factor.minOffset),
+                    Math.max(existing.maxFixedOffset, factor.maxFixedOffset),
+                    Math.max(existing.replications, factor.replications)));
+        }
+    }
+
+    protected LiteralPrefilter(Collection<Factor> collected) {
+        int size = collected.size();
+        factors = new String[size];
+        minOffsets = new int[size];
+        maxFixedOffsets = new int[size];
+        replications = new int[size];
+        int i = 0;
+        for (Factor factor : collected) {
+            factors[i] = factor.text;
+            minOffsets[i] = factor.minOffset;
+            maxFixedOffsets[i] = factor.maxFixedOffset;
+            replications[i] = factor.replications;
+            maxFactorLength = Math.max(maxFactorLength, factor.text.length());
+            i++;
+        }
+        buildAutomaton();
+        char[] starts = new char[gotos.get(0).size()];
+        int s = 0;
+        for (char ch : gotos.get(0).keySet())
+            starts[s++] = ch;
+        firstChars = StartCharScanners.create(starts);
+    }
+
+    protected void buildAutomaton() {
+        ArrayList<ArrayList<Integer>> ends = new ArrayList<>();
+        gotos.add(new HashMap<>());
+        ends.add(new ArrayList<>());
+        for (int f = 0; f < factors.length; f++) {
+            int state = 0;
+            for (char ch : factors[f].toCharArray()) {
+                Integer next = gotos.get(state).get(ch);
+                if (next == null) {
+                    next = gotos.size();
+                    gotos.get(state).put(ch, next);
+                    gotos.add(new HashMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            ends.get(state).add(f);
+        }
+        int states = gotos.size();
+        fail = new int[states];
+        outputs = new int[states][];
+        asciiNext = new int[states * ASCII];
+//        breadth first, so that the fail target of a state is complete before the state
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            ArrayList<Integer> output = new ArrayList<>(ends.get(state));
+            if (state != 0)
+                for (int f : outputs[fail[state]])
+                    output.add(f);
+            outputs[state] = output.stream().mapToInt(Integer::intValue).toArray();
+            for (char ch = 0; ch < ASCII; ch++) {
+                Integer next = gotos.get(state).get(ch);
+                asciiNext[state * ASCII + ch] = next != null ? next :
+                        (state == 0 ? 0 : asciiNext[fail[state] * ASCII + ch]);
+            }
+            for (Map.Entry<Character, Integer> child : gotos.get(state).entrySet()) {
+                int next = child.getValue();
+                fail[next] = state == 0 ? 0 : step(fail[state], child.getKey());
+                queue.add(next);
+            }
+        }
+    }
+
+    protected int step(int state, char ch) {
+        if (ch < ASCII)
+            return asciiNext[state * ASCII + ch];
+        while (true) {
+            Integer next = gotos.get(state).get(ch);
+            if (next != null)
+                return next;
+            if (state == 0)
+                return 0;
+            state = fail[state];
+        }
+    }
+
+    /**
+     * Find the positions in [from, to) where a match can start.
+     *
+     * @param chars           the text
+     * @param from            the first start position to check
+     * @param to              the position after the last start position to check
+     * @param limit           matches cannot go beyond limit
+     * @param maxRepeatLength the max length of a replication
+     * @param marks           at least to - from + 1 long; on return, marks[i - from] &gt; 0 if a match can start at i
+     */
+    public void mark(char[] chars, int from, int to, int limit, int maxRepeatLength, int[] marks) {
+        int span = to - from;
+        Arrays.fill(marks, 0, span + 1, 0);
+        int repeat = Math.max(maxRepeatLength, 1);
+//        no factor that ends beyond this can lead back into [from, to): a factor can begin as far as its largest
+//        offset after a start position
+        long maxOffset = 0;
+        for (int f = 0; f < factors.length; f++)
+            maxOffset = Math.max(maxOffset, maxFixedOffsets[f] + (long) replications[f] * repeat);
+        long lastEnd = (long) to - 1 + maxOffset + maxFactorLength - 1;
+        int end = (int) Math.min(limit, lastEnd + 1);
+        int state = 0;
+        for (int p = from; p < end; p++) {
+            if (state == 0) {
+                p = firstChars.next(chars, p, end);
+                if (p == end)
+                    break;
+            }
+            state = step(state, chars[p]);
+            for (int f : outputs[state]) {
+                int factorBegin = p - factors[f].length() + 1;
+                long low = (long) factorBegin - maxFixedOffsets[f] - (long) replications[f] * repeat;
+                long high = (long) factorBegin - minOffsets[f];
+                if (low < from)
+                    low = from;
+                if (high > to - 1)
+                    high = to - 1;
+                if (low <= high) {
+                    marks[(int) (low - from)]++;
+                    marks[(int) (high - from) + 1]--;
+                }
+            }
+        }
+        for (int i = 1; i < span; i++)
+            marks[i] += marks[i - 1];
+    }
+
+    public int getFactorCount() {
+        return factors.length;
+    }
+}
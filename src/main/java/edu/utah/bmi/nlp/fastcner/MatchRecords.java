@@ -0,0 +1,113 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.core.SourceSpan;
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The matches of one concept while they are being resolved, stored as parallel primitive arrays. Spans are only
+ * created (@see #toSpans) for the matches that survive the overlap resolution.
+ *
+ * @author Jianlin Shi
+ */
+public class MatchRecords {
+    protected int[] begins = new int[16];
+    protected int[] ends = new int[16];
+    protected int[] ruleIds = new int[16];
+    protected double[] scores = new double[16];
+    protected boolean[] pseudo = new boolean[16];
+    protected int size = 0;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int add(int begin, int end, int ruleId, double score, boolean isPseudo) {
+        if (size == begins.length) {
+            int capacity = size * 2;
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            ruleIds = Arrays.copyOf(ruleIds, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+            pseudo = Arrays.copyOf(pseudo, capacity);
+        }
+        set(size, begin, end, ruleId, score, isPseudo);
+        return size++;
+    }
+
+    public void set(int i, int begin, int end, int ruleId, double score, boolean isPseudo) {
+        begins[i] = begin;
+        ends[i] = end;
+        ruleIds[i] = ruleId;
+        scores[i] = score;
+        pseudo[i] = isPseudo;
+    }
+
+    public int getBegin(int i) {
+        return begins[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    public int getRuleId(int i) {
+        return ruleIds[i];
+    }
+
+    public double getScore(int i) {
+        return scores[i];
+    }
+
+    public boolean isPseudo(int i) {
+        return pseudo[i];
+    }
+
+    /**
+     * @param text       the text that was matched
+     * @param offset     the offset of the text (added to the begins and ends of the records)
+     * @param lazyText   if true, create SourceSpans that copy their text only when asked for, otherwise copy it now
+     * @param skipPseudo if true, the records of PSEUDO rules are left out. They only take part in the overlap
+     *                   resolution (where they can suppress the other matches).
+     * @return the spans of the records
+     */
+    public ArrayList<Span> toSpans(String text, int offset, boolean lazyText, boolean skipPseudo) {
+        ArrayList<Span> spans = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (skipPseudo && pseudo[i])
+                continue;
+            Span span;
+            if (lazyText) {
+                span = new SourceSpan(begins[i], ends[i], ruleIds[i], scores[i], text, offset);
+            } else {
+                span = new Span(begins[i], ends[i], text.substring(begins[i] - offset, ends[i] - offset));
+                span.ruleId = ruleIds[i];
+                span.score = scores[i];
+            }
+            spans.add(span);
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import java.util.Arrays;
+
+/**
+ * The accepted matches of one concept, as [begin, end) intervals sorted by begin, used to find the match that a new
+ * candidate overlaps with.
+ * <p>
+ * The candidates arrive mostly from left to right, so a new interval is usually appended at the tail and a lookup
+ * usually stops at the first check. For the others, a running maximum of the ends allows a binary search. Only
+ * primitive arrays are used, and they are kept (cleared) between calls.
+ *
+ * @author Jianlin Shi
+ */
+public class OverlapIndex {
+    protected int[] begins = new int[16];
+    protected int[] ends = new int[16];
+    //    the index of the match in the output span list
+    protected int[] positions = new int[16];
+    //    maxEnds[i] = max(ends[0..i])
+    protected int[] maxEnds = new int[16];
+    protected int size = 0;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot of the leftmost interval that overlaps with [begin, end), -1 if there is none
+     */
+    public int find(int begin, int end) {
+        int slot = findEndingAfter(begin);
+        return slot != -1 && begins[slot] < end ? slot : -1;
+    }
+
+    /**
+     * @return the slot of the leftmost interval that ends after position, -1 if there is none. It is the interval
+     * that find(position, end) returns for any end beyond its begin.
+     */
+    public int findEndingAfter(int position) {
+        if (size == 0 || maxEnds[size - 1] <= position)
+            return -1;
+//        the first slot whose running max end goes beyond position
+        int low = 0, high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxEnds[mid] > position)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    public int getBegin(int slot) {
+        return begins[slot];
+    }
+
+    public int getPosition(int slot) {
+        return positions[slot];
+    }
+
+    public void add(int begin, int end, int position) {
+        if (size == begins.length) {
+            int capacity = size * 2;
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            maxEnds = Arrays.copyOf(maxEnds, capacity);
+        }
+        int slot = size;
+        while (slot > 0 && begins[slot - 1] > begin)
+            slot--;
+        if (slot < size) {
+            System.arraycopy(begins, slot, begins, slot + 1, size - slot);
+            System.arraycopy(ends, slot, ends, slot + 1, size - slot);
+            System.arraycopy(positions, slot, positions, slot + 1, size - slot);
+        }
+        begins[slot] = begin;
+        ends[slot] = end;
+        positions[slot] = position;
+        size++;
+        updateMaxEnds(slot);
+    }
+
+    /**
+     * Replace the interval in a slot (the one that a new candidate overlaps with and wins over)
+     */
+    public void replace(int slot, int begin, int end, int position) {
+        size--;
+        if (slot < size) {
+            System.arraycopy(begins, slot + 1, begins, slot, size - slot);
+            System.arraycopy(ends, slot + 1, ends, slot, size - slot);
+            System.arraycopy(positions, slot + 1, positions, slot, size - slot);
+        }
+        updateMaxEnds(slot);
+        add(begin, end, position);
+    }
+
+    protected void updateMaxEnds(int from) {
+        int max = from > 0 ? maxEnds[from - 1] : Integer.MIN_VALUE;
+        for (int i = from; i < size; i++) {
+            if (ends[i] > max)
+                max = ends[i];
+            maxEnds[i] = max;
+        }
+    }
+}
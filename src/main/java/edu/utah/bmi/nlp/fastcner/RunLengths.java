@@ -0,0 +1,99 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.fastner.FastRule;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * For each position of a segment, the length of the run of a wildcard class (or of the same char) that starts there,
+ * so that a replication ("+") can jump over the whole run at once instead of rescanning it from every branch that
+ * reaches it.
+ * <p>
+ * A table is computed in one backward pass over the segment, only when a replication of its class is first met, and
+ * its buffer is kept between calls. The parallel chunks of a segment share one RunLengths, so get is synchronized;
+ * a caller is expected to cache the returned arrays (@see FastCRule.MatchState#getRuns).
+ *
+ * @author Jianlin Shi
+ */
+public class RunLengths {
+    //    the wildcard classes that can be replicated, in the order of their slots
+    public static final String CLASSES = "sndCcpauw";
+    //    the slot of the runs of a same (literal) char
+    public static final int SAME = CLASSES.length();
+    public static final int SLOTS = SAME + 1;
+
+    protected final int[][] runs = new int[SLOTS][];
+    protected final boolean[] ready = new boolean[SLOTS];
+    protected char[] chars;
+    protected int begin, limit;
+
+    /**
+     * @return the slot of a wildcard class, -1 if the class cannot be replicated
+     */
+    public static int slotOf(char wildcard) {
+        return CLASSES.indexOf(wildcard);
+    }
+
+    /**
+     * Invalidate the tables for a new segment [begin, limit) of chars
+     */
+    public synchronized void reset(char[] chars, int begin, int limit) {
+        this.chars = chars;
+        this.begin = begin;
+        this.limit = limit;
+        Arrays.fill(ready, false);
+    }
+
+    /**
+     * @param slot    slot of the class
+     * @param inClass whether a char belongs to the class, not used for the SAME slot
+     * @return runs, where runs[i] (begin &lt;= i &lt; limit) is the number of consecutive chars from i on that are in
+     * the class (or equal to chars[i] for the SAME slot), without going beyond limit
+     */
+    public synchronized int[] get(int slot, IntPredicate inClass) {
+        if (ready[slot])
+            return runs[slot];
+        int[] run = runs[slot];
+        if (run == null || run.length <= limit)
+            run = runs[slot] = new int[Math.max(limit + 1, run == null ? 0 : run.length * 2)];
+        run[limit] = 0;
+        if (slot == SAME) {
+            for (int i = limit - 1; i >= begin; i--)
+                run[i] = i + 1 < limit && chars[i + 1] == chars[i] ? run[i + 1] + 1 : 1;
+        } else {
+            for (int i = limit - 1; i >= begin; i--)
+                run[i] = inClass.test(chars[i]) ? run[i + 1] + 1 : 0;
+        }
+        ready[slot] = true;
+        return run;
+    }
+
+    /**
+     * Drop the reference to the chars, and the tables that grew beyond FastRule#MAX_RETAINED_BUFFER, so that an idle
+     * thread does not hold them.
+     */
+    public synchronized void clear() {
+        chars = null;
+        Arrays.fill(ready, false);
+        for (int slot = 0; slot < SLOTS; slot++)
+            if (runs[slot] != null && runs[slot].length > FastRule.MAX_RETAINED_BUFFER)
+                runs[slot] = null;
+    }
+}
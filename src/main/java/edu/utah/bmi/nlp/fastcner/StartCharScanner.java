@@ -0,0 +1,57 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.utah.bmi.nlp.fastcner;
+
+/**
+ * Finds the next position of a text whose char is in a set of start chars (e.g. the first chars of the literals of
+ * LiteralPrefilter), so that the positions in between can be skipped at once.
+ * <p>
+ * This is the portable scan, one char at a time over a bitmap of all the chars. On JDK 17+ (multi-release jar, with
+ * the jdk.incubator.vector module added), StartCharScanners may return a subclass that compares several chars per
+ * step.
+ *
+ * @author Jianlin Shi
+ */
+public class StartCharScanner {
+    protected final char[] startChars;
+    protected final long[] bits = new long[(Character.MAX_VALUE + 1) >>> 6];
+
+    public StartCharScanner(char[] startChars) {
+        this.startChars = startChars.clone();
+        for (char ch : startChars)
+            bits[ch >>> 6] |= 1L << ch;
+    }
+
+    public boolean isStartChar(char ch) {
+        return (bits[ch >>> 6] & (1L << ch)) != 0;
+    }
+
+    /**
+     * @return the first position in [from, to) whose char is a start char, to if there is none
+     */
+    public int next(char[] chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char ch = chars[i];
+            if ((bits[ch >>> 6] & (1L << ch)) != 0)
+                return i;
+        }
+        return to;
+    }
+
+    public char[] getStartChars() {
+        return startChars.clone();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.utah.bmi.nlp.fastcner;
+
+/**
+ * Creates the StartCharScanner for the running JVM. This is the Java 8 version, which always uses the portable scan;
+ * the multi-release jar has a JDK 17 version of this class under META-INF/versions/17 (src/main/java17).
+ *
+ * @author Jianlin Shi
+ */
+public class StartCharScanners {
+
+    public static StartCharScanner create(char[] startChars) {
+        return new StartCharScanner(startChars);
+    }
+
+    /**
+     * @return whether create can return a vectorized scanner in this JVM
+     */
+    public static boolean isVectorized() {
+        return false;
+    }
+}
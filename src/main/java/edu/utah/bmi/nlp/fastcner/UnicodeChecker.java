@@ -92,42 +92,42 @@ public class UnicodeChecker {
                 != 0;
     }
 
-//  revised from org.apache.commons.lang3.math.NumberUtils to allow "093" type of numbers
-    public static boolean isNumber(final String str) {
+//  revised from org.apache.commons.lang3.math.NumberUtils to allow "093" type of numbers, and to accept any CharSequence
+//  (e.g. a TextWindow) without copying it into a char array
+    public static boolean isNumber(final CharSequence str) {
         if (StringUtils.isEmpty(str)) {
             return false;
         }
-        final char[] chars = str.toCharArray();
-        int sz = chars.length;
+        int sz = str.length();
         boolean hasExp = false;
         boolean hasDecPoint = false;
         boolean allowSigns = false;
         boolean foundDigit = false;
         // deal with any possible sign up front
-        final int start = (chars[0] == '-') ? 1 : 0;
-        if (sz > start + 1 && chars[start] == '0') { // leading 0
+        final int start = (str.charAt(0) == '-') ? 1 : 0;
+        if (sz > start + 1 && str.charAt(start) == '0') { // leading 0
             if (
-                    (chars[start + 1] == 'x') ||
-                            (chars[start + 1] == 'X')
+                    (str.charAt(start + 1) == 'x') ||
+                            (str.charAt(start + 1) == 'X')
                     ) { // leading 0x/0X
                 int i = start + 2;
                 if (i == sz) {
                     return false; // str == "0x"
                 }
                 // checking hex (it can't be anything else)
-                for (; i < chars.length; i++) {
-                    if ((chars[i] < '0' || chars[i] > '9')
-                            && (chars[i] < 'a' || chars[i] > 'f')
-                            && (chars[i] < 'A' || chars[i] > 'F')) {
+                for (; i < str.length(); i++) {
+                    if ((str.charAt(i) < '0' || str.charAt(i) > '9')
+                            && (str.charAt(i) < 'a' || str.charAt(i) > 'f')
+                            && (str.charAt(i) < 'A' || str.charAt(i) > 'F')) {
                         return false;
                     }
                 }
                 return true;
-            } else if (Character.isDigit(chars[start + 1])) {
+            } else if (Character.isDigit(str.charAt(start + 1))) {
                 // leading 0, but not hex, must be octal
                 int i = start + 1;
-                for (; i < chars.length; i++) {
-                    if (chars[i] < '0' || chars[i] > '9') {
+                for (; i < str.length(); i++) {
+                    if (str.charAt(i) < '0' || str.charAt(i) > '9') {
                         return false;
                     }
                 }
@@ -138,19 +138,19 @@ public class UnicodeChecker {
         // for type qualifiers
         int i = start;
         // loop to the next to last char or to the last char if we need another digit to
-        // make a valid number (e.g. chars[0..5] = "1234E")
+        // make a valid number (e.g. str.charAt(0..5) = "1234E")
         while (i < sz || (i < sz + 1 && allowSigns && !foundDigit)) {
-            if (chars[i] >= '0' && chars[i] <= '9') {
+            if (str.charAt(i) >= '0' && str.charAt(i) <= '9') {
                 foundDigit = true;
                 allowSigns = false;
 
-            } else if (chars[i] == '.') {
+            } else if (str.charAt(i) == '.') {
                 if (hasDecPoint || hasExp) {
                     // two decimal points or dec in exponent
                     return false;
                 }
                 hasDecPoint = true;
-            } else if (chars[i] == 'e' || chars[i] == 'E') {
+            } else if (str.charAt(i) == 'e' || str.charAt(i) == 'E') {
                 // we've already taken care of hex.
                 if (hasExp) {
                     // two E's
@@ -161,7 +161,7 @@ public class UnicodeChecker {
                 }
                 hasExp = true;
                 allowSigns = true;
-            } else if (chars[i] == '+' || chars[i] == '-') {
+            } else if (str.charAt(i) == '+' || str.charAt(i) == '-') {
                 if (!allowSigns) {
                     return false;
                 }
@@ -172,16 +172,16 @@ public class UnicodeChecker {
             }
             i++;
         }
-        if (i < chars.length) {
-            if (chars[i] >= '0' && chars[i] <= '9') {
+        if (i < str.length()) {
+            if (str.charAt(i) >= '0' && str.charAt(i) <= '9') {
                 // no type qualifier, OK
                 return true;
             }
-            if (chars[i] == 'e' || chars[i] == 'E') {
+            if (str.charAt(i) == 'e' || str.charAt(i) == 'E') {
                 // can't have an E at the last byte
                 return false;
             }
-            if (chars[i] == '.') {
+            if (str.charAt(i) == '.') {
                 if (hasDecPoint || hasExp) {
                     // two decimal points or dec in exponent
                     return false;
@@ -190,14 +190,14 @@ public class UnicodeChecker {
                 return foundDigit;
             }
             if (!allowSigns
-                    && (chars[i] == 'd'
-                    || chars[i] == 'D'
-                    || chars[i] == 'f'
-                    || chars[i] == 'F')) {
+                    && (str.charAt(i) == 'd'
+                    || str.charAt(i) == 'D'
+                    || str.charAt(i) == 'f'
+                    || str.charAt(i) == 'F')) {
                 return foundDigit;
             }
-            if (chars[i] == 'l'
-                    || chars[i] == 'L') {
+            if (str.charAt(i) == 'l'
+                    || str.charAt(i) == 'L') {
                 // not allowing L with an exponent or decimal point
                 return foundDigit && !hasExp && !hasDecPoint;
             }
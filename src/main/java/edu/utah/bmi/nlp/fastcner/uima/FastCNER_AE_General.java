@@ -17,24 +17,29 @@ package edu.utah.bmi.nlp.fastcner.uima;
 
 import edu.utah.bmi.nlp.core.*;
 import edu.utah.bmi.nlp.fastcner.FastCNER;
+import edu.utah.bmi.nlp.fastner.uima.DocumentSegments;
 import edu.utah.bmi.nlp.fastner.uima.FastNER_AE_General;
 import edu.utah.bmi.nlp.uima.ae.RuleBasedAEInf;
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.FSIndex;
 import org.apache.uima.examples.SourceDocumentInformation;
+import org.apache.uima.fit.descriptor.OperationalProperties;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.Annotation;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
  * This is a demo to use FastCNER.java in UIMA AE. The type system is implemented through reflection.
+ * Like FastNER_AE_General, it can be deployed as multiple instances sharing one engine.
  *
  * @author Jianlin Shi
  */
+@OperationalProperties(multipleDeploymentAllowed = true)
 public class FastCNER_AE_General extends FastNER_AE_General {
 
     public static final String PARAM_REPLICATION_SUPPORT = "ReplicationSupport";
@@ -64,19 +69,43 @@ public class FastCNER_AE_General extends FastNER_AE_General {
             maxRepeatLength = 50;
         else
             maxRepeatLength = (int) obj;
-        fastNER = new FastCNER(ruleStr);
-        ((FastCNER) fastNER).setReplicationSupport(replicationSupport);
-        ((FastCNER) fastNER).setMaxRepeatLength(maxRepeatLength);
-        if (markPseudo)
-            fastNER.setRemovePseudo(false);
+        fastNER = acquireFastNER(() -> {
+            FastCNER fastCNER = new FastCNER(ruleStr);
+            fastCNER.setReplicationSupport(replicationSupport);
+            fastCNER.setMaxRepeatLength(maxRepeatLength);
+//            only the offsets are saved
+            fastCNER.setLazySpanText(true);
+            if (markPseudo)
+                fastCNER.setRemovePseudo(false);
+            fastCNER.setParallelism(ForkJoinPool.commonPool(), parallelChunkSize);
+            fastCNER.setConflictResolver(getConflictResolver());
+            return fastCNER;
+        }, FastCNER.class, ruleStr, replicationSupport, maxRepeatLength, markPseudo, parallelChunkSize,
+                conflictResolution, spanCompareMethod, widthCompareMethod);
         return fastNER.getTypeDefinitions();
     }
 
+    /**
+     * Match the document text once, with the sentences as the boundaries, instead of copying the text of each sentence.
+     */
+    protected void processDocument(JCas jcas, DocumentSegments segments) {
+        HashMap<String, ArrayList<Span>> concepts = ((FastCNER) fastNER).processSegments(jcas.getDocumentText(),
+                segments.begins, segments.ends, segments.size);
+        saveSegmentConcepts(jcas, concepts, segments);
+    }
+
     public void process(JCas jcas) throws AnalysisEngineProcessException {
         IntervalST<String> sectionTree = new IntervalST<>();
         int totalSections = 0;
         if (assignSection || forceAssignSections)
             totalSections = indexSections(jcas, sectionTree);
+        if (documentSinglePass) {
+            DocumentSegments segments = collectSegments(jcas, sectionTree, totalSections);
+            if (segments != null) {
+                processDocument(jcas, segments);
+                return;
+            }
+        }
 
         LinkedHashMap<String, ArrayList<Annotation>> sentences = new LinkedHashMap<>();
         FSIndex annoIndex = jcas.getAnnotationIndex(SentenceType);
@@ -100,12 +129,9 @@ public class FastCNER_AE_General extends FastNER_AE_General {
         }
         if (totalSentences > 0) {
             for (String sectionName : sentences.keySet()) {
-                boolean outsiders = true;
-                if ((includeSections.size() == 0 && excludeSections.size() > 0 && !excludeSections.contains(sectionName))
-                        || (includeSections.size() > 0 && includeSections.contains(sectionName))
-                        || (includeSections.size() == 0 && excludeSections.size() == 0)) {
-                    outsiders = false;
-                }
+                boolean outsiders = isOutsider(sectionName);
+                if (outsiders && skipOutsideSections)
+                    continue;
 
                 for (Annotation sentence : sentences.get(sectionName)) {
                     HashMap<String, ArrayList<Span>> concepts = ((FastCNER) fastNER).processAnnotation(sentence);
@@ -0,0 +1,230 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.NERSpan;
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.*;
+
+/**
+ * Counts the matches of some concepts without creating their spans, e.g. to screen documents for a cohort.
+ * <p>
+ * A count is the number of spans that the process methods would return for the concept without a ConflictResolver:
+ * the overlaps within a concept are resolved as usual (an overlapped match only counts once, for the one that wins),
+ * and the PSEUDO matches are counted only if they are not removed (@see FastRule#setRemovePseudo). The concepts do not
+ * affect each other's counts. If a ConflictResolver is set, the engines count the resolved spans instead.
+ * <p>
+ * In presence mode, the matching stops as soon as enough concepts are found--all of them for
+ * FastNER#containsConcepts, one for FastNER#containsAny--so the counts are only reliable as "found or not".
+ * <p>
+ * The token engines count their matches into it through a MatchSink (@see FastRuleWOG.CountSink).
+ *
+ * @author Jianlin Shi
+ */
+public class ConceptCounter {
+    protected final String[] concepts;
+    protected final HashMap<String, Integer> slotsByName = new HashMap<>();
+    protected final int[] counts;
+    //    the number of concepts found to stop at, Integer.MAX_VALUE to count all the matches
+    protected final int target;
+    protected final boolean presenceMode;
+    protected int found = 0;
+    //    concept id of the bound rule table -> slot of the concept, -1 if not counted
+    protected RuleTable ruleTable;
+    protected int[] slots = new int[0];
+    //    the last match of each slot, which can still be replaced by an overlapping one, reused among the matches
+    protected final NERSpan[] tails;
+    protected final boolean[] hasTail;
+    protected final boolean[] tailRemovePseudo;
+
+    /**
+     * @param concepts the concepts to count
+     * @param target   the number of found concepts to stop at, Integer.MAX_VALUE to count all the matches
+     */
+    public ConceptCounter(Collection<String> concepts, int target) {
+        this.concepts = concepts.toArray(new String[0]);
+        for (int i = 0; i < this.concepts.length; i++)
+            slotsByName.putIfAbsent(this.concepts[i], i);
+        counts = new int[this.concepts.length];
+        tails = new NERSpan[this.concepts.length];
+        hasTail = new boolean[this.concepts.length];
+        tailRemovePseudo = new boolean[this.concepts.length];
+        presenceMode = target != Integer.MAX_VALUE;
+        this.target = Math.min(target, slotsByName.size());
+    }
+
+    /**
+     * @return a counter of all the matches
+     */
+    public static ConceptCounter counting(Collection<String> concepts) {
+        return new ConceptCounter(concepts, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return a counter that stops once every concept is found
+     */
+    public static ConceptCounter presence(Collection<String> concepts) {
+        return new ConceptCounter(concepts, concepts.size());
+    }
+
+    /**
+     * Map the concept ids of an engine to the counter slots. An engine binds its rule table before counting.
+     *
+     * @param ruleTable the rule table of the engine
+     */
+    public void bind(RuleTable ruleTable) {
+        if (this.ruleTable == ruleTable)
+            return;
+        this.ruleTable = ruleTable;
+        int conceptCount = ruleTable.getConceptCount();
+        if (slots.length < conceptCount)
+            slots = new int[conceptCount];
+        for (int conceptId = 0; conceptId < conceptCount; conceptId++)
+            slots[conceptId] = slotsByName.getOrDefault(ruleTable.getConceptName(conceptId), -1);
+    }
+
+    /**
+     * @param conceptId concept id of the bound rule table
+     * @return the slot of the concept, -1 if it is not counted
+     */
+    public int getSlot(int conceptId) {
+        return conceptId < slots.length ? slots[conceptId] : -1;
+    }
+
+    public void count(int slot) {
+        if (counts[slot]++ == 0)
+            found++;
+    }
+
+    /**
+     * Add the spans of materialized matches, for the engines that cannot count in place
+     */
+    public void addAll(HashMap<String, ArrayList<Span>> matches) {
+        if (matches == null)
+            return;
+        for (Map.Entry<String, ArrayList<Span>> entry : matches.entrySet()) {
+            Integer slot = slotsByName.get(entry.getKey());
+            if (slot != null && !entry.getValue().isEmpty()) {
+                if (counts[slot] == 0)
+                    found++;
+                counts[slot] += entry.getValue().size();
+            }
+        }
+    }
+
+    /**
+     * @return true if enough concepts are found in presence mode, so that the rest of the input can be skipped
+     */
+    public boolean isComplete() {
+        return presenceMode && found >= target;
+    }
+
+    /**
+     * @return whether the matching stops once enough concepts are found
+     */
+    public boolean isPresenceMode() {
+        return presenceMode;
+    }
+
+    /**
+     * In presence mode, count the last matches that end before a position--the matching goes from left to right, so
+     * nothing can overlap them any more--then check whether enough concepts are found.
+     *
+     * @param position the begin of the next match to be tried
+     * @return true if the rest of the input can be skipped
+     */
+    public boolean isComplete(int position) {
+        if (!presenceMode)
+            return false;
+        for (int slot = 0; slot < hasTail.length; slot++)
+            if (hasTail[slot] && tails[slot].end <= position)
+                commitTail(slot);
+        return isComplete();
+    }
+
+    /**
+     * @return the last match of a slot that is not counted yet, null if there is none
+     */
+    public NERSpan getTail(int slot) {
+        return hasTail[slot] ? tails[slot] : null;
+    }
+
+    /**
+     * Replace the last match of a slot. The previous one must have been counted (@see #commitTail) or dropped.
+     *
+     * @param removePseudo whether the match is dropped instead of counted if it is a PSEUDO one
+     */
+    public void setTail(int slot, int begin, int end, int ruleId, int ruleLength, double score, boolean pseudo,
+                        boolean removePseudo) {
+        NERSpan tail = tails[slot];
+        if (tail == null)
+            tail = tails[slot] = new NERSpan(begin, end, ruleId, ruleLength, score, "");
+        tail.begin = begin;
+        tail.end = end;
+        tail.ruleId = ruleId;
+        tail.ruleLength = ruleLength;
+        tail.score = score;
+        tail.pseudo = pseudo;
+        tailRemovePseudo[slot] = removePseudo;
+        hasTail[slot] = true;
+    }
+
+    /**
+     * Count the last match of a slot once nothing can overlap it any more
+     */
+    public void commitTail(int slot) {
+        if (!hasTail[slot])
+            return;
+        hasTail[slot] = false;
+        if (!tailRemovePseudo[slot] || !tails[slot].pseudo)
+            count(slot);
+    }
+
+    /**
+     * Count the last matches of all the slots, at the end of an engine's call
+     */
+    public void commitTails() {
+        for (int slot = 0; slot < hasTail.length; slot++)
+            commitTail(slot);
+    }
+
+    public String[] getConcepts() {
+        return concepts;
+    }
+
+    /**
+     * @return the counts, in the order of the concepts
+     */
+    public int[] getCounts() {
+        int[] conceptCounts = new int[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            conceptCounts[i] = counts[slotsByName.get(concepts[i])];
+        return conceptCounts;
+    }
+
+    /**
+     * @return whether each concept is found, in the order of the concepts
+     */
+    public boolean[] getPresence() {
+        int[] conceptCounts = getCounts();
+        boolean[] presence = new boolean[conceptCounts.length];
+        for (int i = 0; i < conceptCounts.length; i++)
+            presence[i] = conceptCounts[i] > 0;
+        return presence;
+    }
+}
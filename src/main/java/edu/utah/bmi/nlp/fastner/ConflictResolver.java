@@ -0,0 +1,37 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A stage that resolves the overlaps between the matches of different concepts, after the engine has resolved the
+ * overlaps within each concept. @see FastRule#setConflictResolver
+ *
+ * @author Jianlin Shi
+ */
+public interface ConflictResolver {
+
+    /**
+     * @param matches concept name -&gt; matches of the concept, sorted by begin and free of overlaps among themselves
+     * @return the matches that survive, in the same structure. A concept keeps its (possibly empty) list.
+     */
+    HashMap<String, ArrayList<Span>> resolve(HashMap<String, ArrayList<Span>> matches);
+}
@@ -21,9 +21,8 @@ import edu.utah.bmi.nlp.core.Span;
 import edu.utah.bmi.nlp.core.TypeDefinition;
 import org.apache.uima.jcas.tcas.Annotation;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static edu.utah.bmi.nlp.core.NERSpan.byRuleLength;
 import static edu.utah.bmi.nlp.core.NERSpan.scorewidth;
@@ -39,6 +38,8 @@ public class FastNER {
     public FastRule fastRule;
     protected boolean caseSenstive = false;
     protected LinkedHashMap<String, TypeDefinition> typeDefinition = new LinkedHashMap<>();
+    //    per-thread token offset buffers ({begins, ends}) used by processAnnotationList
+    protected final ThreadLocal<int[][]> offsetBuffers = ThreadLocal.withInitial(() -> new int[2][0]);
 
     protected FastNER() {
     }
@@ -59,16 +60,86 @@ public class FastNER {
     }
 
 
-    public void setCompareMethod(String method) {
-        if (this.fastRule instanceof FastRuleWOG) {
-            ((FastRuleWOG) fastRule).setCompareMethod(method);
+    /**
+     * Layer a (small) rule set on a shared base engine, e.g. the rules of one tenant on the common rules of all
+     * tenants. The compiled base is shared, not copied, so this engine only costs the memory of its own rules, and the
+     * results are the same as an engine of a merged rule file (the base rules followed by these).
+     *
+     * @param base    a FastNER engine of token rules, which must not be reconfigured afterwards
+     * @param ruleStr rule file path or rule string of the overlay
+     */
+    public FastNER(FastNER base, String ruleStr) {
+        if (!(base.fastRule instanceof FastRuleWOG))
+            throw new IllegalArgumentException("Only a token rule engine can be shared as a base.");
+        this.caseSenstive = base.caseSenstive;
+        typeDefinition = new LinkedHashMap<>(base.typeDefinition);
+        fastRule = FastRuleFactory.createOverlayRule((FastRuleWOG) base.fastRule, ruleStr, typeDefinition, caseSenstive);
+    }
+
+    /**
+     * Compile each concept with the cheapest engine that supports its rules, instead of one engine for the whole rule
+     * file, @see FastRuleFactory#createPartitionedRule
+     *
+     * @param ruleStr       rule file path or rule string
+     * @param caseSensitive whether process text in a case-sensitive way
+     * @return the FastNER
+     */
+    public static FastNER createPartitioned(String ruleStr, boolean caseSensitive) {
+        FastNER fastNER = new FastNER();
+        fastNER.caseSenstive = caseSensitive;
+        fastNER.fastRule = FastRuleFactory.createPartitionedRule(ruleStr, fastNER.typeDefinition, caseSensitive);
+        return fastNER;
+    }
+
+    /**
+     * A view that only outputs some of the concepts, and shares the compiled rules with this engine, @see
+     * FastRuleWOG#withConcepts
+     *
+     * @param concepts the concept names to output
+     * @return the FastNER view, whose type definitions are those of the concepts
+     */
+    public FastNER withConcepts(Set<String> concepts) {
+        if (!(fastRule instanceof FastRuleWOG))
+            throw new IllegalArgumentException("Concept views are only supported on a token rule engine.");
+        FastNER view = new FastNER();
+        view.caseSenstive = caseSenstive;
+        view.fastRule = ((FastRuleWOG) fastRule).withConcepts(concepts);
+        for (Map.Entry<String, TypeDefinition> entry : typeDefinition.entrySet()) {
+            if (concepts.contains(entry.getKey()))
+                view.typeDefinition.put(entry.getKey(), entry.getValue());
         }
+        return view;
     }
 
-    public void setWidthCompareMethod(String widthCompareMethod) {
-        if (this.fastRule instanceof FastRuleWOG) {
-            ((FastRuleWOG) fastRule).setWidthCompareMethod(widthCompareMethod);
+    /**
+     * @param engineClass an engine class
+     * @return the engine, or the engines of its partitions (@see PartitionedFastRule) or section views (@see
+     * SectionScopedFastRule), that are of the class
+     */
+    protected <T> List<T> getEngines(Class<T> engineClass) {
+        List<FastRule> engines;
+        if (fastRule instanceof PartitionedFastRule)
+            engines = ((PartitionedFastRule) fastRule).getPartitions();
+        else if (fastRule instanceof SectionScopedFastRule)
+            engines = ((SectionScopedFastRule) fastRule).getEngines();
+        else
+            engines = Collections.singletonList(fastRule);
+        ArrayList<T> matched = new ArrayList<>();
+        for (FastRule engine : engines) {
+            if (engineClass.isInstance(engine))
+                matched.add(engineClass.cast(engine));
         }
+        return matched;
+    }
+
+    public void setCompareMethod(String method) {
+        for (FastRuleWOG engine : getEngines(FastRuleWOG.class))
+            engine.setCompareMethod(method);
+    }
+
+    public void setWidthCompareMethod(String widthCompareMethod) {
+        for (FastRuleWOG engine : getEngines(FastRuleWOG.class))
+            engine.setWidthCompareMethod(widthCompareMethod);
     }
 
     /**
@@ -94,19 +165,169 @@ public class FastNER {
         return fastRule.processSpans(tokens);
     }
 
+    /**
+     * @param tokens      tokens of one sentence
+     * @param sectionName section short name, null to use all the rules
+     * @return the matches of the rules that are active in the section, @see SectionScopedFastRule
+     */
+    public HashMap<String, ArrayList<Span>> processSpanList(ArrayList<Span> tokens, String sectionName) {
+        FastRule fastRule = getSectionRule(sectionName);
+        return fastRule == null ? new HashMap<>() : fastRule.processSpans(tokens);
+    }
+
+    /**
+     * Process the token annotations against the document text directly: the token texts are looked up in place,
+     * without calling getCoveredText (and lower-casing it) for each token.
+     *
+     * @param tokens token annotations of one sentence (or any other processing window)
+     * @return matches, in which the begins and ends of Spans are the document offsets
+     */
     public HashMap<String, ArrayList<Span>> processAnnotationList(ArrayList<Annotation> tokens) {
-        ArrayList<Span> spans = new ArrayList<Span>();
-        for (Annotation token : tokens) {
-            if (caseSenstive)
-                spans.add(new Span(token.getBegin(), token.getEnd(), token.getCoveredText()));
-            else
-                spans.add(new Span(token.getBegin(), token.getEnd(), token.getCoveredText().toLowerCase()));
+        return processAnnotationList(tokens, null);
+    }
+
+    /**
+     * Process the token annotations with only the rules that are active in a section, @see SectionScopedFastRule
+     *
+     * @param tokens      token annotations of one sentence (or any other processing window)
+     * @param sectionName section short name, null to use all the rules
+     * @return matches, in which the begins and ends of Spans are the document offsets
+     */
+    public HashMap<String, ArrayList<Span>> processAnnotationList(ArrayList<Annotation> tokens, String sectionName) {
+        FastRule fastRule = getSectionRule(sectionName);
+        if (fastRule == null)
+            return new HashMap<>();
+        int size = tokens.size();
+        if (size == 0)
+            return fastRule.processSpans(new ArrayList<Span>());
+        int[][] buffers = offsetBuffers.get();
+        if (buffers[0].length < size) {
+            buffers[0] = new int[Math.max(size, buffers[0].length * 2)];
+            buffers[1] = new int[buffers[0].length];
+        }
+        int[] begins = buffers[0];
+        int[] ends = buffers[1];
+        for (int i = 0; i < size; i++) {
+            Annotation token = tokens.get(i);
+            begins[i] = token.getBegin();
+            ends[i] = token.getEnd();
         }
-        return processSpanList(spans);
+        HashMap<String, ArrayList<Span>> matches = fastRule.processTokenOffsets(tokens.get(0).getView().getDocumentText(),
+                begins, ends, size, caseSenstive);
+//        do not keep the buffers of a very large window on this thread
+        if (begins.length > FastRule.MAX_RETAINED_BUFFER) {
+            buffers[0] = new int[0];
+            buffers[1] = new int[0];
+        }
+        return matches;
+    }
+
+    /**
+     * Process all the sentences (or other segments) of a document in one pass, @see FastRule#processTokenSegments
+     *
+     * @param text          document text
+     * @param begins        token begins of the document
+     * @param ends          token ends of the document
+     * @param segmentStarts the index of the first token of each segment
+     * @param segmentEnds   the index after the last token of each segment
+     * @param segmentCount  number of segments
+     * @return matches, in which the begins and ends of Spans are the document offsets
+     */
+    public HashMap<String, ArrayList<Span>> processTokenSegments(String text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount) {
+        return fastRule.processTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSenstive);
+    }
+
+    /**
+     * Like processTokenSegments, but each segment is matched with only the rules that are active in its section
+     *
+     * @param segmentSections the section short name of each segment, null for no section
+     */
+    public HashMap<String, ArrayList<Span>> processTokenSegments(String text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 String[] segmentSections) {
+        if (!(fastRule instanceof SectionScopedFastRule))
+            return processTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount);
+        return ((SectionScopedFastRule) fastRule).processTokenSegments(text, begins, ends, segmentStarts, segmentEnds,
+                segmentCount, segmentSections, caseSenstive);
+    }
+
+    /**
+     * Count the matches of each concept without creating their spans, @see ConceptCounter for how the overlaps are
+     * counted
+     *
+     * @param tokens   tokens of one sentence
+     * @param concepts the concepts to count
+     * @return the counts, in the order of the concepts
+     */
+    public int[] countConcepts(ArrayList<Span> tokens, Collection<String> concepts) {
+        return count(tokens, ConceptCounter.counting(concepts)).getCounts();
+    }
+
+    /**
+     * Find which concepts are matched, the matching stops once all of them are found
+     *
+     * @param tokens   tokens of one sentence
+     * @param concepts the concepts to look for
+     * @return whether each concept is found, in the order of the concepts
+     */
+    public boolean[] containsConcepts(ArrayList<Span> tokens, Collection<String> concepts) {
+        return count(tokens, ConceptCounter.presence(concepts)).getPresence();
+    }
+
+    /**
+     * @param tokens   tokens of one sentence
+     * @param concepts the concepts to look for
+     * @return true if any of the concepts is matched, the matching stops at the first one found
+     */
+    public boolean containsAny(ArrayList<Span> tokens, Collection<String> concepts) {
+        return isAnyFound(count(tokens, new ConceptCounter(concepts, 1)));
+    }
+
+    /**
+     * @param tokens  tokens of one sentence
+     * @param counter the counts are added to, so that one counter can be used for several sentences
+     * @return the counter
+     */
+    public ConceptCounter count(ArrayList<Span> tokens, ConceptCounter counter) {
+        if (!counter.isComplete())
+            fastRule.countSpans(tokens, counter);
+        return counter;
+    }
+
+    /**
+     * Count the matches in all the token segments of a document, @see #processTokenSegments
+     *
+     * @param counter the counts are added to
+     * @return the counter
+     */
+    public ConceptCounter countTokenSegments(String text, int[] begins, int[] ends, int[] segmentStarts,
+                                             int[] segmentEnds, int segmentCount, ConceptCounter counter) {
+        if (!counter.isComplete())
+            fastRule.countTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSenstive,
+                    counter);
+        return counter;
+    }
+
+    protected boolean isAnyFound(ConceptCounter counter) {
+        for (boolean found : counter.getPresence())
+            if (found)
+                return true;
+        return false;
+    }
+
+    /**
+     * @param sectionName section short name, null for no section
+     * @return the engine of the rules that are active in the section, null if there is none
+     */
+    protected FastRule getSectionRule(String sectionName) {
+        if (sectionName != null && fastRule instanceof SectionScopedFastRule)
+            return ((SectionScopedFastRule) fastRule).getSectionRule(sectionName);
+        return fastRule;
     }
 
     public String getMatchedNEName(int ruleId) {
-        return fastRule.ruleStore.get(ruleId).ruleName;
+        return getRule(ruleId).ruleName;
     }
 
     public String getMatchedNEName(Span matchedSpan) {
@@ -118,7 +339,7 @@ public class FastNER {
     }
 
     public Determinants getMatchedNEType(int ruleId) {
-        return fastRule.ruleStore.get(ruleId).type;
+        return getRule(ruleId).type;
     }
 
     public LinkedHashMap<String, TypeDefinition> getTypeDefinitions() {
@@ -126,11 +347,11 @@ public class FastNER {
     }
 
     public String getRuleString(int ruleId) {
-        return fastRule.ruleStore.get(ruleId).rule;
+        return getRule(ruleId).rule;
     }
 
     public String getRuleName(int ruleId) {
-        return fastRule.getRule(ruleId).ruleName;
+        return getRule(ruleId).ruleName;
     }
 
 
@@ -143,15 +364,70 @@ public class FastNER {
     }
 
     public Rule getMatchedRuleString(Span matchedSpan) {
-        return fastRule.ruleStore.get(matchedSpan.ruleId);
+        return getRule(matchedSpan.ruleId);
     }
 
     public void setRemovePseudo(boolean removePseudo) {
         fastRule.setRemovePseudo(removePseudo);
     }
 
+    /**
+     * Match very long inputs in parallel chunks, @see FastRule#setParallelism
+     *
+     * @param pool      the pool to run the chunks on, null to disable
+     * @param chunkSize number of start positions (chars or tokens) per chunk
+     */
+    public void setParallelism(ForkJoinPool pool, int chunkSize) {
+        fastRule.setParallelism(pool, chunkSize);
+    }
+
+    /**
+     * @param conflictResolver resolves the overlaps across concepts, null to keep them (default).
+     *                         @see SweepConflictResolver
+     */
+    public void setConflictResolver(ConflictResolver conflictResolver) {
+        fastRule.setConflictResolver(conflictResolver);
+    }
+
+    /**
+     * @param branchPruning skip the rule branches that cannot produce a kept match, @see FastRule#setBranchPruning
+     */
+    public void setBranchPruning(boolean branchPruning) {
+        fastRule.setBranchPruning(branchPruning);
+    }
+
+    /**
+     * @param startTokenFiltering start matching only from the tokens that a rule can start with, @see
+     *                            FastRuleWOG#setStartTokenFiltering
+     */
+    public void setStartTokenFiltering(boolean startTokenFiltering) {
+        for (FastRuleWOG engine : getEngines(FastRuleWOG.class))
+            engine.setStartTokenFiltering(startTokenFiltering);
+    }
+
+    /**
+     * Freeze the configuration, so that the engine can be shared: the configuration setters throw an
+     * IllegalStateException afterwards, @see FastRule#seal
+     */
+    public void seal() {
+        fastRule.seal();
+    }
+
+    public boolean isSealed() {
+        return fastRule.isSealed();
+    }
+
+    /**
+     * Merge the equivalent subtrees of the compiled rules into a DAWG, @see FastRule#minimize
+     *
+     * @return whether the rules are minimized
+     */
+    public boolean minimize() {
+        return fastRule.minimize();
+    }
+
     public double getRuleScore(int ruleId) {
-        return fastRule.getRule(ruleId).score;
+        return getRule(ruleId).score;
     }
 
     public HashMap<Integer, Rule> getRuleStore() {
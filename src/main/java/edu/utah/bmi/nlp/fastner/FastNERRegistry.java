@@ -0,0 +1,185 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A JVM-wide registry of compiled FastNER/FastCNER engines, so that the AE instances (pipeline threads or aggregate
+ * descriptors) that use the same rules with the same options compile them only once and share the engine.
+ * <p>
+ * An engine is identified by a key built from the engine class, a SHA-256 digest of the rule source (the content of
+ * the rule file/directory, or the rule string itself) and the options that change the compiled engine
+ * (@see #getKey(Class, String, Object...)). Engines are reference-counted: each acquire must be paired with a release,
+ * and the engine is dropped from the registry when the last user releases it.
+ * <p>
+ * The engines handed out are shared, so they must be fully configured inside the builder: the registry seals an
+ * engine once it is built, so that its configuration setters (setCompareMethod, setRemovePseudo, ...) throw an
+ * IllegalStateException afterwards (@see FastNER#seal).
+ *
+ * @author Jianlin Shi
+ */
+public class FastNERRegistry {
+    public static Logger logger = edu.utah.bmi.nlp.core.IOUtil.getLogger(FastNERRegistry.class);
+
+    private static final HashMap<String, Entry> engines = new HashMap<>();
+
+    private static class Entry {
+        int references = 0;
+        FastNER engine;
+    }
+
+    private FastNERRegistry() {
+    }
+
+    /**
+     * Get the shared engine of the key, build it if it hasn't been built.
+     *
+     * @param key     registry key, @see #getKey(Class, String, Object...)
+     * @param builder build and configure a new engine
+     * @param <T>     engine class
+     * @return the shared engine, sealed
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends FastNER> T acquire(String key, Supplier<T> builder) {
+        Entry entry;
+        synchronized (engines) {
+            entry = engines.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                engines.put(key, entry);
+            }
+            entry.references++;
+        }
+//        build outside of the registry lock, so that different rule sets can be compiled at the same time
+        synchronized (entry) {
+            if (entry.engine == null) {
+                try {
+                    FastNER engine = builder.get();
+                    engine.seal();
+                    entry.engine = engine;
+                    logger.fine("Compiled shared engine: " + key);
+                } catch (RuntimeException e) {
+                    release(key);
+                    throw e;
+                }
+            }
+            return (T) entry.engine;
+        }
+    }
+
+    /**
+     * Release one reference of the key
+     *
+     * @param key registry key
+     * @return true if this is the last reference, and the engine has been removed from the registry
+     */
+    public static boolean release(String key) {
+        synchronized (engines) {
+            Entry entry = engines.get(key);
+            if (entry == null)
+                return false;
+            entry.references--;
+            if (entry.references <= 0) {
+                engines.remove(key);
+                logger.fine("Released shared engine: " + key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public static int getReferenceCount(String key) {
+        synchronized (engines) {
+            Entry entry = engines.get(key);
+            return entry == null ? 0 : entry.references;
+        }
+    }
+
+    public static int size() {
+        synchronized (engines) {
+            return engines.size();
+        }
+    }
+
+    /**
+     * Build a registry key
+     *
+     * @param engineClass the class of FastNER engine
+     * @param ruleStr     rule file path, rule directory or rule string
+     * @param options     all the options that change how the engine is compiled or how it processes the text
+     *                    (e.g. case sensitivity, compare methods, whether to remove pseudo matches)
+     * @return the key
+     */
+    public static String getKey(Class<?> engineClass, String ruleStr, Object... options) {
+        return engineClass.getCanonicalName() + "|" + hashRuleSource(ruleStr) + "|" + Arrays.toString(options);
+    }
+
+    /**
+     * @param ruleStr rule file path, rule directory or rule string
+     * @return the SHA-256 hex digest of the rule file content, all the files under the rule directory (ordered by
+     * relative path), or the rule string if it is not a path
+     */
+    public static String hashRuleSource(String ruleStr) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        File source = new File(ruleStr.trim());
+        try {
+            if (ruleStr.trim().length() > 0 && source.exists())
+                digestFile(digest, source, "");
+            else
+                digest.update(ruleStr.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warning("Cannot read rule source " + ruleStr + ", hash its path instead.");
+            digest.reset();
+            digest.update(ruleStr.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void digestFile(MessageDigest digest, File file, String relativePath) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null)
+                return;
+            Arrays.sort(children);
+            for (File child : children) {
+                digestFile(digest, child, relativePath + "/" + child.getName());
+            }
+        } else {
+            digest.update(relativePath.getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(file.toPath()));
+        }
+    }
+}
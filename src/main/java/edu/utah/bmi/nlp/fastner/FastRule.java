@@ -22,6 +22,7 @@ import edu.utah.bmi.nlp.core.SimpleParser;
 import edu.utah.bmi.nlp.core.Span;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,6 +47,26 @@ public abstract class FastRule {
     protected HashMap rulesMap = new HashMap();
     protected final Determinants END = Determinants.END;
     public HashMap<Integer, Rule> ruleStore = new HashMap<>();
+    //    primitive tables of the rule metadata, built after all the rules are added to rulesMap
+    protected RuleTable ruleTable;
+    //    bounds of the rule nodes, only built if the branch pruning is enabled. @see #setBranchPruning
+    protected NodeBounds nodeBounds = null;
+    protected boolean branchPruning = false;
+    //    the path weights and terminals of the rules map after minimize(), null if it is not minimized
+    protected MinimizedRules minimizedRules;
+
+    //    if set, a long input is split into chunks of parallelChunkSize start positions (chars or tokens), which are
+//    matched on this pool. @see #setParallelism
+    protected ForkJoinPool parallelPool = null;
+    protected int parallelChunkSize = 0;
+    //    resolves the overlaps across concepts at the end of each call, null to keep the overlaps. @see ConflictResolver
+    protected ConflictResolver conflictResolver = null;
+    //    set once the engine is shared, after which it cannot be reconfigured. @see #seal
+    protected boolean sealed = false;
+
+    //    the per-thread scratch buffers that grew beyond this (in entries) are dropped after a call, so that one very
+//    large input does not stay pinned on every thread that has used the engine
+    public static final int MAX_RETAINED_BUFFER = 1 << 20;
 
     protected BiFunction<ArrayList, Integer, Integer> getSpanBegin, getSpanEnd, getBeginId, getEndId;
     protected BiFunction<ArrayList, Integer, String> getSpanText, getStringText;
@@ -71,9 +92,112 @@ public abstract class FastRule {
         for (Map.Entry<Integer, Rule> ent : ruleStore.entrySet()) {
             addRule(ent.getValue());
         }
+        compileRuleTable();
         initiateFunctions();
     }
 
+    /**
+     * Build the rule table and replace the END nodes of rulesMap with the dense rule indices (@see RuleTable#freeze).
+     * Must be called after all the rules have been added.
+     */
+    protected void compileRuleTable() {
+        minimizedRules = null;
+        ruleTable = new RuleTable(ruleStore, this::getRuleLength);
+        ruleTable.freeze(rulesMap, END);
+        if (branchPruning)
+            compileNodeBounds();
+    }
+
+    protected void compileNodeBounds() {
+        nodeBounds = ruleTable == null || minimizedRules != null ? null :
+                new NodeBounds(rulesMap, END, ruleTable, this::getEdgeLength);
+    }
+
+    /**
+     * Merge the equivalent subtrees of the compiled rules map into a DAWG (@see MinimizedRules), which cuts the memory
+     * of dictionary-style rule sets. The results do not change. It is meant to be called once, after the rules are
+     * loaded; the branch pruning does not apply to a minimized map (its bounds depend on the path), so it is turned
+     * off.
+     *
+     * @return whether the rules map is minimized
+     */
+    public boolean minimize() {
+        checkNotSealed();
+        if (minimizedRules != null)
+            return true;
+        if (ruleTable == null)
+            return false;
+        MinimizedRules minimized = MinimizedRules.minimize(rulesMap, END);
+        if (minimized == null)
+            return false;
+        minimizedRules = minimized;
+        nodeBounds = null;
+        compileMinimized();
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("Minimized the rule nodes from " + minimized.getNodesBefore() + " to "
+                    + minimized.getNodesAfter());
+        return true;
+    }
+
+    /**
+     * Rebuild what refers to the nodes of the rules map, after it is minimized in place
+     */
+    protected void compileMinimized() {
+    }
+
+    public boolean isMinimized() {
+        return minimizedRules != null;
+    }
+
+    /**
+     * @return the weight of the edge from node through key to add to the path number, 0 if the map is not minimized
+     */
+    protected int weight(HashMap node, Object key) {
+        return minimizedRules == null ? 0 : minimizedRules.weight(node, key);
+    }
+
+    /**
+     * @param node an END node
+     * @param path the path number of the walk that reaches it (@see #weight)
+     * @return the dense indices of the rules that end there
+     */
+    protected int[] getTerminals(HashMap node, int path) {
+        return minimizedRules == null ? (int[]) node.get(END) : minimizedRules.getTerminals(path);
+    }
+
+    /**
+     * @param parentKey the key that leads to the node
+     * @param key       a key of the node
+     * @return the number of tokens the key consumes. @see NodeBounds.EdgeLength
+     */
+    protected int getEdgeLength(Object parentKey, Object key) {
+        return "\\(".equals(key) || "\\)".equals(key) ? NodeBounds.CAPTURE : 1;
+    }
+
+    /**
+     * Skip the subtrees of rules whose matches cannot win over the matches that have been kept, by the best score and
+     * length reachable below each rule node (@see NodeBounds). It only applies to the compare methods where skipping
+     * does not change the output: "score" and "width" (by rule length for the token engines), otherwise it is ignored.
+     *
+     * @param branchPruning whether to enable it (default is false)
+     */
+    public void setBranchPruning(boolean branchPruning) {
+        checkNotSealed();
+        this.branchPruning = branchPruning;
+        if (branchPruning)
+            compileNodeBounds();
+        else
+            nodeBounds = null;
+    }
+
+    protected int getRuleLength(Rule rule) {
+        return rule.rule.split("\\s+").length;
+    }
+
+    public RuleTable getRuleTable() {
+        return ruleTable;
+    }
+
 
     protected void initiateFunctions() {
         getSpanEnd = (list, id) -> ((Span) list.get(id)).getEnd();
@@ -142,23 +266,141 @@ public abstract class FastRule {
 
     protected abstract HashMap<String, ArrayList<Span>> processSpans(ArrayList<Span> tokens);
 
-    protected void removePseudoMatches(HashMap<String, ArrayList<Span>> matches) {
-        for (Map.Entry<String, ArrayList<Span>> entry : matches.entrySet()) {
-            Iterator<Span> spanIterator = entry.getValue().iterator();
-            while (spanIterator.hasNext()) {
-                Span thisSpan = spanIterator.next();
-                if (ruleStore.get(thisSpan.ruleId).type == Determinants.PSEUDO)
-                    spanIterator.remove();
+    /**
+     * Process the tokens given by their offsets in the text. The token strings do not need to be materialized by the
+     * caller. This default implementation still builds a Span for each token, subclasses can look up the tokens in place.
+     *
+     * @param text          the text that the offsets refer to
+     * @param begins        token begin offsets
+     * @param ends          token end offsets
+     * @param size          number of tokens to read from begins and ends
+     * @param caseSensitive if false, the tokens will be lower-cased before matching
+     * @return matches, in which the begins and ends of Spans are the text offsets
+     */
+    public HashMap<String, ArrayList<Span>> processTokenOffsets(CharSequence text, int[] begins, int[] ends, int size,
+                                                                boolean caseSensitive) {
+        ArrayList<Span> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String token = text.subSequence(begins[i], ends[i]).toString();
+            tokens.add(new Span(begins[i], ends[i], caseSensitive ? token : token.toLowerCase()));
+        }
+        return processSpans(tokens);
+    }
+
+    /**
+     * Process the token segments (e.g. sentences) of a text in one call. Matches cannot cross segment boundaries, so
+     * the results are the same as calling processTokenOffsets for each segment.
+     *
+     * @param text          the text that the offsets refer to
+     * @param begins        token begin offsets of the whole text
+     * @param ends          token end offsets of the whole text
+     * @param segmentStarts the index of the first token of each segment
+     * @param segmentEnds   the index after the last token of each segment
+     * @param segmentCount  number of segments
+     * @param caseSensitive if false, the tokens will be lower-cased before matching
+     * @return matches, in which the begins and ends of Spans are the text offsets
+     */
+    public HashMap<String, ArrayList<Span>> processTokenSegments(CharSequence text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 boolean caseSensitive) {
+        HashMap<String, ArrayList<Span>> matches = new HashMap<>();
+        for (int i = 0; i < segmentCount; i++) {
+            int start = segmentStarts[i], end = segmentEnds[i];
+            HashMap<String, ArrayList<Span>> segmentMatches = processTokenOffsets(text,
+                    Arrays.copyOfRange(begins, start, end), Arrays.copyOfRange(ends, start, end), end - start, caseSensitive);
+            if (segmentMatches == null)
+                return null;
+            for (Map.Entry<String, ArrayList<Span>> entry : segmentMatches.entrySet()) {
+                if (!matches.containsKey(entry.getKey()))
+                    matches.put(entry.getKey(), new ArrayList<>());
+                matches.get(entry.getKey()).addAll(entry.getValue());
             }
         }
+        return matches;
+    }
+
+    /**
+     * Count the matches of the counter's concepts in the tokens, @see ConceptCounter. This default implementation
+     * counts the spans of processSpans; the engines that can count without creating the spans override it.
+     *
+     * @param tokens  tokens of one sentence
+     * @param counter the counts are added to
+     */
+    public void countSpans(ArrayList<Span> tokens, ConceptCounter counter) {
+        counter.addAll(processSpans(tokens));
+    }
+
+    /**
+     * Count the matches of the counter's concepts in the token segments, @see #processTokenSegments and
+     * ConceptCounter
+     */
+    public void countTokenSegments(CharSequence text, int[] begins, int[] ends, int[] segmentStarts, int[] segmentEnds,
+                                   int segmentCount, boolean caseSensitive, ConceptCounter counter) {
+        counter.addAll(processTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive));
     }
 
     public void setRemovePseudo(boolean removePseudo) {
+        checkNotSealed();
         this.removePseudo = removePseudo;
     }
 
+    public void setConflictResolver(ConflictResolver conflictResolver) {
+        checkNotSealed();
+        this.conflictResolver = conflictResolver;
+    }
+
+    /**
+     * Freeze the configuration of the engine, so that it can be shared (@see FastNERRegistry): the configuration
+     * setters (and minimize) throw an IllegalStateException afterwards.
+     */
+    public void seal() {
+        sealed = true;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    protected void checkNotSealed() {
+        if (sealed)
+            throw new IllegalStateException("The engine is sealed (shared through FastNERRegistry), configure it in "
+                    + "the builder instead.");
+    }
+
+    /**
+     * @param matches the matches of a call, after the overlap resolution within each concept
+     * @return the matches after the cross-concept resolution, if a ConflictResolver is set
+     */
+    protected HashMap<String, ArrayList<Span>> resolveConflicts(HashMap<String, ArrayList<Span>> matches) {
+        return conflictResolver == null ? matches : conflictResolver.resolve(matches);
+    }
+
+    /**
+     * Match a long input (a text or a token segment that has at least two chunks) in parallel chunks. A chunk only
+     * decides where the matches start; a match can still extend into the following chunks, as all chunks read the
+     * same input. The matches are resolved in the same order as a sequential run, so the results are identical.
+     *
+     * @param pool      the pool to run the chunks on, null to disable
+     * @param chunkSize number of start positions (chars for the char engines, tokens for the token engines) per chunk
+     */
+    public void setParallelism(ForkJoinPool pool, int chunkSize) {
+        checkNotSealed();
+        this.parallelPool = chunkSize > 0 ? pool : null;
+        this.parallelChunkSize = chunkSize;
+    }
+
+    /**
+     * @param length input length (chars or tokens)
+     * @return the number of chunks to split the input into, 1 if it should be processed sequentially
+     */
+    protected int countChunks(int length) {
+        if (parallelPool == null || length < 2 * parallelChunkSize)
+            return 1;
+        return length / parallelChunkSize;
+    }
+
     public String getRuleString(int ruleId) {
-        return ruleStore.get(ruleId).rule;
+        return getRule(ruleId).rule;
     }
 
 
@@ -23,9 +23,7 @@ import edu.utah.bmi.nlp.fastcner.*;
 import org.apache.commons.lang3.math.NumberUtils;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.*;
 
 import static edu.utah.bmi.nlp.core.DeterminantValueSet.getShortName;
 
@@ -45,8 +43,9 @@ public class FastRuleFactory {
 
     public static Object[] buildRuleStore(String ruleStr, LinkedHashMap<String, TypeDefinition> typeDefinition,
                                           boolean caseSensitive, boolean constructRuleMap) {
-        Object[] output = new Object[3];
+        Object[] output = new Object[4];
         HashMap<Integer, Rule> rules = new HashMap<>();
+        HashMap<Integer, Set<String>> ruleSections = new HashMap<>();
         int strLength = ruleStr.trim().length();
         String testFileStr = ruleStr.trim().substring(strLength - 4).toLowerCase();
         File agnosticFile = new File(ruleStr);
@@ -94,16 +93,28 @@ public class FastRuleFactory {
             double score = 0;
             DeterminantValueSet.Determinants determinant = DeterminantValueSet.Determinants.ACTUAL;
             boolean scoreSet = false;
+            int sectionsColumn;
             if (UnicodeChecker.isNumber(cells.get(2))) {
                 conceptName = cells.get(3).trim();
                 score = Double.parseDouble(cells.get(2));
                 scoreSet = true;
                 if (cells.size() > 4)
                     determinant = DeterminantValueSet.Determinants.valueOf(cells.get(4));
+                sectionsColumn = 5;
             } else {
                 conceptName = cells.get(2).trim();
                 if (cells.size() > 3)
                     determinant = DeterminantValueSet.Determinants.valueOf(cells.get(3));
+                sectionsColumn = 4;
+            }
+//            optional section scope after the determinant: the rule is only active in these sections
+            if (cells.size() > sectionsColumn && cells.get(sectionsColumn).trim().length() > 0) {
+                TreeSet<String> sections = new TreeSet<>();
+                for (String sectionName : cells.get(sectionsColumn).split("[\\|,;]")) {
+                    if (sectionName.trim().length() > 0)
+                        sections.add(sectionName.trim());
+                }
+                ruleSections.put(id, sections);
             }
             String conceptShortName = getShortName(conceptName);
             if (typeDefinition != null && !typeDefinition.containsKey(conceptName)) {
@@ -117,6 +128,7 @@ public class FastRuleFactory {
         output[0] = rules;
         output[1] = ruleType;
         output[2] = concatenated;
+        output[3] = ruleSections;
         return output;
     }
 
@@ -129,33 +141,144 @@ public class FastRuleFactory {
         boolean supportReplication = concatenated.indexOf("+") != -1 ? true : false;
         if (constructRuleMap) {
             HashMap<Integer, Rule> rules = (HashMap<Integer, Rule>) output[0];
-            switch (ruleType) {
-                case "FastCRuleCN":
-                    fastRule = new FastCRuleCN(rules);
-                    ((FastCRule) fastRule).setReplicationSupport(supportReplication);
-                    break;
-                case "FastCRuleSB":
-                    fastRule = new FastCRuleSB(rules);
-                    ((FastCRule) fastRule).setReplicationSupport(supportReplication);
-                    break;
-                case "FastCRule":
-                    fastRule = new FastCRule(rules);
-                    ((FastCRule) fastRule).setReplicationSupport(supportReplication);
-                    break;
-                case "FastRuleWGN":
-                    fastRule = new FastRuleWGN(rules);
-                    break;
-                case "FastRuleWG":
-                    fastRule = new FastRuleWG(rules);
-                    break;
-                default:
-                    fastRule = new FastRuleWOG(rules);
-                    break;
+            HashMap<Integer, Set<String>> ruleSections = (HashMap<Integer, Set<String>>) output[3];
+            if (ruleSections.size() > 0 && !ruleType.startsWith("FastCRule")) {
+                fastRule = new SectionScopedFastRule(rules, ruleSections,
+                        subset -> createFastRule(ruleType, subset, supportReplication));
+            } else {
+                if (ruleSections.size() > 0)
+                    FastRule.logger.warning("Section scopes are only supported by the token rules. The section " +
+                            "column of " + ruleSections.size() + " char rule(s) is ignored, they apply to all sections.");
+                fastRule = createFastRule(ruleType, rules, supportReplication);
             }
         }
         return fastRule;
     }
 
+    /**
+     * @param ruleType           the engine type, @see #getRuleType(edu.utah.bmi.nlp.core.IOUtil)
+     * @param rules              rule id -&gt; rule
+     * @param supportReplication whether the char rules use replications ("+")
+     * @return the engine of the rules
+     */
+    protected static FastRule createFastRule(String ruleType, HashMap<Integer, Rule> rules, boolean supportReplication) {
+        FastRule fastRule;
+        switch (ruleType) {
+            case "FastCRuleCN":
+                fastRule = new FastCRuleCN(rules);
+                ((FastCRule) fastRule).setReplicationSupport(supportReplication);
+                break;
+            case "FastCRuleSB":
+                fastRule = new FastCRuleSB(rules);
+                ((FastCRule) fastRule).setReplicationSupport(supportReplication);
+                break;
+            case "FastCRule":
+//                    short fixed-length patterns are matched bit-parallel, the others by the rules map walk
+                if (FastCRuleBitap.qualifies(rules)) {
+                    FastCRuleBitap bitapRule = new FastCRuleBitap(rules);
+                    fastRule = bitapRule.isCompiled() ? bitapRule : new FastCRule(rules);
+                } else {
+                    fastRule = new FastCRule(rules);
+                }
+                ((FastCRule) fastRule).setReplicationSupport(supportReplication);
+                break;
+            case "FastRuleWGN":
+                fastRule = new FastRuleWGN(rules);
+                break;
+            case "FastRuleWG":
+                fastRule = new FastRuleWG(rules);
+                break;
+            default:
+                fastRule = new FastRuleWOG(rules);
+                break;
+        }
+        return fastRule;
+    }
+
+    /**
+     * Like createFastRule, but the engine is chosen for each concept instead of the whole rule file: the rules of a
+     * concept go to the cheapest engine that supports all of them (plain literals, groups or numerics for the token
+     * rules; bit-parallel, rules map walk or square brackets for the char rules). If that gives more than one
+     * partition, they are run together by a PartitionedFastRule. A concept is never split, so the overlaps within a
+     * concept are resolved by one engine as before, and the results are the same as the single engine.
+     *
+     * @param ruleStr        rule file path or rule string
+     * @param typeDefinition the type definitions to add the concepts to
+     * @param caseSensitive  whether the rules are case-sensitive
+     * @return the engine of the rules
+     */
+    public static FastRule createPartitionedRule(String ruleStr, LinkedHashMap<String, TypeDefinition> typeDefinition,
+                                                 boolean caseSensitive) {
+        Object[] output = buildRuleStore(ruleStr, typeDefinition, caseSensitive, true);
+        HashMap<Integer, Rule> rules = (HashMap<Integer, Rule>) output[0];
+        String ruleType = (String) output[1];
+        String concatenated = (String) output[2];
+        boolean supportReplication = concatenated.indexOf("+") != -1;
+        if (ruleType.equals("FastCRuleCN"))
+            return createFastRule(ruleType, rules, supportReplication);
+        boolean charRules = ruleType.startsWith("FastCRule");
+        boolean brackets = ruleType.equals("FastCRuleSB");
+        String[] partitionTypes = charRules ? new String[]{"FastCRule", "FastCRule", "FastCRuleSB"} :
+                new String[]{"FastRuleWOG", "FastRuleWG", "FastRuleWGN"};
+//        the engine rank of each concept: the highest that one of its rules needs
+        HashMap<String, Integer> conceptRanks = new HashMap<>();
+        for (Rule rule : rules.values())
+            conceptRanks.merge(rule.ruleName, getPartitionRank(rule, charRules, brackets), Math::max);
+        TreeMap<Integer, HashMap<Integer, Rule>> partitions = new TreeMap<>();
+        for (Map.Entry<Integer, Rule> entry : rules.entrySet())
+            partitions.computeIfAbsent(conceptRanks.get(entry.getValue().ruleName), rank -> new HashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        if (partitions.size() < 2)
+            return createFastRule(ruleType, rules, supportReplication);
+        ArrayList<FastRule> engines = new ArrayList<>();
+        for (Map.Entry<Integer, HashMap<Integer, Rule>> partition : partitions.entrySet())
+            engines.add(createFastRule(partitionTypes[partition.getKey()], partition.getValue(), supportReplication));
+        return new PartitionedFastRule(rules, engines);
+    }
+
+    /**
+     * @return 0 for the rules that the cheapest engine can run (plain token rules, or fixed-length char rules that can
+     * be matched bit-parallel), 1 for groups/the char rules map walk, 2 for numerics/square brackets
+     */
+    protected static int getPartitionRank(Rule rule, boolean charRules, boolean brackets) {
+        if (charRules) {
+            if (brackets && (rule.rule.indexOf('[') != -1 || rule.rule.indexOf(']') != -1))
+                return 2;
+            return FastCRuleBitap.qualifies(Collections.singletonMap(rule.id, rule)) ? 0 : 1;
+        }
+        if (rule.rule.contains("\\>") || rule.rule.contains("\\<"))
+            return 2;
+        return rule.rule.indexOf('(') != -1 || rule.rule.indexOf(')') != -1 ? 1 : 0;
+    }
+
+    /**
+     * Compile a rule set as an overlay of a shared base engine, @see FastRuleWOG#initiate(FastRuleWOG, HashMap)
+     *
+     * @param baseRule       the compiled base engine (a token rule engine)
+     * @param ruleStr        rule file path or rule string of the overlay (token rules)
+     * @param typeDefinition the type definitions to add the overlay concepts to
+     * @param caseSensitive  whether the rules are case-sensitive, which must be the same as the base
+     * @return the layered engine, which supports the rule features of both the base and the overlay
+     */
+    public static FastRuleWOG createOverlayRule(FastRuleWOG baseRule, String ruleStr,
+                                                LinkedHashMap<String, TypeDefinition> typeDefinition, boolean caseSensitive) {
+        if (baseRule instanceof FastCRule)
+            throw new IllegalArgumentException("Only a token rule engine can be shared as a base.");
+        Object[] output = buildRuleStore(ruleStr, typeDefinition, caseSensitive, true);
+        String ruleType = (String) output[1];
+        if (ruleType.startsWith("FastCRule"))
+            throw new IllegalArgumentException("Only token rules can be layered on a token rule engine, got " + ruleType);
+        FastRuleWOG fastRule;
+        if (ruleType.equals("FastRuleWGN") || baseRule instanceof FastRuleWGN)
+            fastRule = new FastRuleWGN();
+        else if (ruleType.equals("FastRuleWG") || baseRule instanceof FastRuleWG)
+            fastRule = new FastRuleWG();
+        else
+            fastRule = new FastRuleWOG();
+        fastRule.initiate(baseRule, (HashMap<Integer, Rule>) output[0]);
+        return fastRule;
+    }
+
     @Deprecated
     public static FastRule createFastRule(Class fastNER, String ruleStr, LinkedHashMap<String, TypeDefinition> typeDefinition, String splitter, boolean caseSensitive, boolean constructRuleMap) {
         FastRule fastRule = null;
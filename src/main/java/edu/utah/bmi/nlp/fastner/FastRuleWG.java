@@ -16,7 +16,6 @@
 package edu.utah.bmi.nlp.fastner;
 
 import edu.utah.bmi.nlp.core.Rule;
-import edu.utah.bmi.nlp.core.Span;
 import edu.utah.bmi.nlp.fastcner.UnicodeChecker;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -70,38 +69,41 @@ public class FastRuleWG extends FastRuleWOG {
                            BiFunction<ArrayList, Integer, String> getText,
                            BiFunction<ArrayList, Integer, Integer> getBegin,
                            BiFunction<ArrayList, Integer, Integer> getEnd,
-                           HashMap rule, int matchBegin, int matchEnd, int currentPosition,
-                           HashMap<String, ArrayList<Span>> matches) {
+                           HashMap rule, int path, int matchBegin, int matchEnd, int currentPosition,
+                           MatchSink sink) {
+        if (reachableNodes != null && !reachableNodes.contains(rule)
+                || nodeBounds != null && cannotWin(rule, sink.getMatches(), contextTokens, getBegin, matchBegin))
+            return;
         // when reach the end of the tunedcontext, end the iteration
         if (currentPosition < contextTokens.size()) {
             // start processing the tunedcontext tokens
             String thisToken = getText.apply(contextTokens, currentPosition);
 //			System.out.println("thisToken-"+thisToken);
             if (rule.containsKey("\\w+")) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\w+"), matchBegin, matchEnd, currentPosition + 1, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\w+"), path + weight(rule, "\\w+"), matchBegin, matchEnd, currentPosition + 1, sink);
             }
             // if the end of a rule is met
             if (rule.containsKey(END)) {
                 // if no () is used in this definition, use the whole rule string
-                addDeterminants(rule, matches, getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, (matchEnd == 0 ? currentPosition - 1 : matchEnd)));
+                sink.add(getTerminals(rule, path), getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, (matchEnd == 0 ? currentPosition - 1 : matchEnd)));
             }
             // if the current token match the element of a rule
             if (rule.containsKey(thisToken)) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get(thisToken), matchBegin, matchEnd, currentPosition + 1, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get(thisToken), path + weight(rule, thisToken), matchBegin, matchEnd, currentPosition + 1, sink);
             }
             if (rule.containsKey("\\d+") && UnicodeChecker.isNumber(thisToken)) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\d+"), matchBegin, matchEnd, currentPosition + 1, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\d+"), path + weight(rule, "\\d+"), matchBegin, matchEnd, currentPosition + 1, sink);
             }
             if (rule.containsKey("\\(")) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\("), currentPosition, matchEnd, currentPosition, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\("), path + weight(rule, "\\("), currentPosition, matchEnd, currentPosition, sink);
             }
             if (rule.containsKey("\\)")) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\)"), matchBegin, currentPosition - 1, currentPosition, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\)"), path + weight(rule, "\\)"), matchBegin, currentPosition - 1, currentPosition, sink);
             }
         } else if (currentPosition == contextTokens.size() && rule.containsKey(END)) {
             // if no () is used in this definition, use the whole rule string
             matchEnd = matchEnd == 0 ? currentPosition - 1 : matchEnd;
-            addDeterminants(rule, matches, getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, matchEnd));
+            sink.add(getTerminals(rule, path), getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, matchEnd));
         }
     }
 
@@ -20,12 +20,12 @@ import edu.utah.bmi.nlp.core.Rule;
 import edu.utah.bmi.nlp.core.Span;
 import edu.utah.bmi.nlp.fastcner.UnicodeChecker;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
+import java.util.logging.Level;
 
-import static edu.utah.bmi.nlp.core.NERSpan.byRuleLength;
-import static edu.utah.bmi.nlp.core.NERSpan.scorewidth;
+import static edu.utah.bmi.nlp.core.NERSpan.*;
 
 /**
  * This is a class extended from FastRule, which apply the full rule as a match (does not consider group capturing)
@@ -33,11 +33,41 @@ import static edu.utah.bmi.nlp.core.NERSpan.scorewidth;
  * @author Jianlin Shi
  */
 @SuppressWarnings("rawtypes")
-public class FastRuleWOG extends FastRule {
+public class FastRuleWOG extends FastRule implements Cloneable {
     //    fields are defined in abstract class
     protected HashMap<Integer, Integer> ruleLengths = new HashMap<Integer, Integer>();
     private String spanCompareMethod = scorewidth;
     private String widthCompareMethod = byRuleLength;
+    //    the two compare methods in the compact form used by NERSpan
+    protected byte compareMode = NERSpan.getCompareMode(spanCompareMethod, widthCompareMethod);
+    //    the compare modes where the branch pruning applies (@see #cannotWin)
+    protected static final byte SCORE_MODE = NERSpan.getCompareMode(scoreOnly, byRuleLength),
+            SCORE_STR_WIDTH_MODE = NERSpan.getCompareMode(scoreOnly, byStrWidth),
+            RULE_LENGTH_MODE = NERSpan.getCompareMode(widthOnly, byRuleLength);
+    //    all the literal tokens used in rules, mapped to themselves, so that a TextWindow can be resolved to the rule token
+    protected HashMap<String, String> tokenVocabulary = new HashMap<>();
+    //    whether any rule uses a numeric wildcard, in which case unknown numeric tokens still need to be materialized
+    protected boolean numericWildcards = false;
+    //    per-thread buffers of processTokenOffsets, so that a shared engine does not allocate them for each call
+    protected final ThreadLocal<TokenScratch> tokenScratches = ThreadLocal.withInitial(TokenScratch::new);
+    //    the literal tokens that a match can start with (@see #compileStartTokens), and the root without them, which is
+//    all that can match from any other token. No initializers: they are built while the constructor compiles the rules.
+    protected HashSet<String> startTokens;
+    protected HashMap wildcardRoot;
+    //    whether wildcardRoot only has the numeric wildcards, so that it can only match from a number
+    protected boolean numericWildcardRoot;
+    protected boolean startTokenFiltering = true;
+    //    the shared engine that this one is layered on (@see #initiate(FastRuleWOG, HashMap)), and the rules map of
+//    its own rules before the layering. Null if it is not layered. No initializers, as above.
+    protected FastRuleWOG baseRule;
+    protected HashMap overlayMap;
+    //    whether another engine is layered on this one (or a concept view shares it), in which case its rules map
+//    cannot be changed any more
+    protected boolean layeredOn;
+    //    for a concept view (@see #withConcepts): the concept ids to output, and the rule nodes that can reach one of
+//    them (null if the subtrees are not pruned). Both are null for a full engine.
+    protected boolean[] conceptMask;
+    protected Set<HashMap> reachableNodes;
 
     public FastRuleWOG() {
     }
@@ -55,11 +85,319 @@ public class FastRuleWOG extends FastRule {
     }
 
     public void setCompareMethod(String method) {
+        checkNotSealed();
         this.spanCompareMethod = method;
+        this.compareMode = NERSpan.getCompareMode(spanCompareMethod, widthCompareMethod);
     }
 
     public void setWidthCompareMethod(String widthCompareMethod) {
+        checkNotSealed();
         this.widthCompareMethod = widthCompareMethod;
+        this.compareMode = NERSpan.getCompareMode(spanCompareMethod, widthCompareMethod);
+    }
+
+    public void initiate(HashMap<Integer, Rule> ruleStore) {
+        tokenVocabulary.clear();
+        numericWildcards = false;
+        super.initiate(ruleStore);
+    }
+
+    /**
+     * Layer a small rule set on a shared, compiled base engine: only the overlay rules are compiled (into OverlayNodes
+     * that read through to the base nodes, @see OverlayNode), and both are matched in the same walk. The results are
+     * the same as an engine of the base rules followed by the overlay rules (as one merged rule file), including an
+     * overlay rule that overrides a base rule of the same concept and pattern. The base engine is not changed, so it
+     * can be shared by many overlays (and threads); minimize it, if needed, before layering on it.
+     *
+     * @param baseRule  the compiled base engine
+     * @param ruleStore the overlay rules. Rule ids that are not greater than those of the base are shifted after them.
+     */
+    public void initiate(FastRuleWOG baseRule, HashMap<Integer, Rule> ruleStore) {
+        RuleTable baseTable = baseRule.ruleTable;
+        int maxBaseId = baseTable.size() == 0 ? -1 : baseTable.getId(baseTable.size() - 1);
+        int minId = ruleStore.isEmpty() ? 0 : Collections.min(ruleStore.keySet());
+        if (minId <= maxBaseId) {
+            int shift = maxBaseId + 1 - minId;
+            HashMap<Integer, Rule> shifted = new HashMap<>();
+            for (Rule rule : ruleStore.values())
+                shifted.put(rule.id + shift, new Rule(rule.id + shift, rule.rule, rule.ruleName, rule.score, rule.type));
+            ruleStore = shifted;
+        }
+        this.baseRule = baseRule;
+        baseRule.layeredOn = true;
+        rulesMap = new HashMap();
+        initiate(ruleStore);
+        numericWildcards |= baseRule.numericWildcards;
+    }
+
+    @Override
+    protected void compileRuleTable() {
+        if (baseRule != null) {
+            compileOverlay();
+            return;
+        }
+        super.compileRuleTable();
+        compileStartTokens();
+    }
+
+    /**
+     * Build the rule table on top of the base table, and layer the compiled overlay rules on the base rules map
+     */
+    protected void compileOverlay() {
+        minimizedRules = null;
+        nodeBounds = null;
+        ruleTable = new RuleTable(baseRule.ruleTable, ruleStore, this::getRuleLength);
+        ruleTable.freeze(rulesMap, END);
+        overlayMap = rulesMap;
+        rulesMap = layer(baseRule.rulesMap, overlayMap, 0);
+        compileStartTokens();
+    }
+
+    /**
+     * @param base     the base node at the same path, null if the base has no such path
+     * @param overlay  the overlay node
+     * @param basePath the path number of the base node (@see MinimizedRules)
+     * @return the layered node
+     */
+    @SuppressWarnings("unchecked")
+    protected OverlayNode layer(HashMap base, HashMap overlay, int basePath) {
+        OverlayNode node = new OverlayNode(base, basePath);
+        for (Object entry : overlay.entrySet()) {
+            Object key = ((Map.Entry) entry).getKey();
+            Object value = ((Map.Entry) entry).getValue();
+            if (END.equals(key))
+                continue;
+            if (value instanceof HashMap) {
+                Object baseChild = base == null ? null : base.get(key);
+                value = baseChild instanceof HashMap ?
+                        layer((HashMap) baseChild, (HashMap) value, basePath + baseRule.weight(base, key)) :
+                        layer(null, (HashMap) value, 0);
+            }
+            node.put(key, value);
+        }
+//        the END always belongs to the layered node, so that its terminals do not depend on the path
+        boolean baseEnd = base != null && base.containsKey(END);
+        if (baseEnd || overlay.containsKey(END))
+            node.put(END, mergeTerminals(baseEnd ? baseRule.getTerminals(base, basePath) : null,
+                    (int[]) overlay.get(END)));
+        return node;
+    }
+
+    /**
+     * @return the base terminals, except those of the concepts that the overlay terminals override, followed by the
+     * overlay terminals
+     */
+    protected int[] mergeTerminals(int[] baseTerminals, int[] ownTerminals) {
+        if (baseTerminals == null || ownTerminals == null)
+            return baseTerminals == null ? ownTerminals : baseTerminals;
+        int[] merged = new int[baseTerminals.length + ownTerminals.length];
+        int size = 0;
+        for (int index : baseTerminals) {
+            boolean overridden = false;
+            for (int own : ownTerminals)
+                overridden |= ruleTable.getRuleConceptId(own) == ruleTable.getRuleConceptId(index);
+            if (!overridden)
+                merged[size++] = index;
+        }
+        System.arraycopy(ownTerminals, 0, merged, size, ownTerminals.length);
+        return Arrays.copyOf(merged, size + ownTerminals.length);
+    }
+
+    @Override
+    protected int weight(HashMap node, Object key) {
+        if (baseRule == null)
+            return super.weight(node, key);
+        if (node instanceof OverlayNode) {
+            OverlayNode overlayNode = (OverlayNode) node;
+//            the overlay nodes do not depend on the path, so a walk restarts from 0 when it enters one
+            return overlayNode.hasOwn(key) || overlayNode.base == null ? 0 :
+                    overlayNode.basePath + baseRule.weight(overlayNode.base, key);
+        }
+        return baseRule.weight(node, key);
+    }
+
+    @Override
+    protected int[] getTerminals(HashMap node, int path) {
+        if (baseRule == null)
+            return super.getTerminals(node, path);
+        Object terminals = node.get(END);
+        return terminals == MinimizedRules.PATH_TERMINALS ? baseRule.getTerminals(node, path) : (int[]) terminals;
+    }
+
+    @Override
+    protected void compileNodeBounds() {
+        if (baseRule == null)
+            super.compileNodeBounds();
+        else
+            nodeBounds = null;
+    }
+
+    /**
+     * A layered engine cannot be minimized, nor can a base engine once an overlay is layered on it (unless it was
+     * minimized before).
+     */
+    @Override
+    public boolean minimize() {
+        if (baseRule != null || conceptMask != null || layeredOn && minimizedRules == null)
+            return false;
+        return super.minimize();
+    }
+
+    /**
+     * A view of this engine that only outputs the matches of some concepts. The compiled rules are shared, not copied:
+     * the view precomputes which rule nodes can still reach one of the concepts, and skips the other subtrees while
+     * matching. The results are the same as this engine's with the other concepts dropped, as the concepts do not
+     * compete (unless a ConflictResolver is set, which the view then only applies among these concepts).
+     * <p>
+     * The view copies the current settings, which can then be changed on each of them separately. Minimize this engine,
+     * if needed, before creating views; the subtrees of a minimized or layered engine are not pruned (only the outputs
+     * are filtered), as the concepts below a shared node depend on the path.
+     *
+     * @param concepts the concept names to output
+     * @return the view
+     */
+    public FastRuleWOG withConcepts(Set<String> concepts) {
+        FastRuleWOG view;
+        try {
+            view = (FastRuleWOG) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        layeredOn = true;
+        view.conceptMask = new boolean[ruleTable.getConceptCount()];
+        for (int conceptId = 0; conceptId < view.conceptMask.length; conceptId++) {
+            if (concepts.contains(ruleTable.getConceptName(conceptId)) && (conceptMask == null || conceptMask[conceptId]))
+                view.conceptMask[conceptId] = true;
+        }
+        view.reachableNodes = null;
+        if (minimizedRules == null && baseRule == null) {
+            view.reachableNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+            view.collectReachable(rulesMap);
+            if (wildcardRoot != null)
+                view.collectReachable(wildcardRoot);
+        }
+        return view;
+    }
+
+    /**
+     * @return whether the node can reach one of the concepts of the view, and add the nodes that can to reachableNodes
+     */
+    protected boolean collectReachable(HashMap node) {
+        if (reachableNodes.contains(node))
+            return true;
+        boolean reachable = false;
+        for (Object entry : node.entrySet()) {
+            Object value = ((Map.Entry) entry).getValue();
+            if (END.equals(((Map.Entry) entry).getKey()) && value instanceof int[]) {
+                for (int index : (int[]) value)
+                    reachable |= conceptMask[ruleTable.getRuleConceptId(index)];
+            } else if (value instanceof HashMap) {
+                reachable |= collectReachable((HashMap) value);
+            }
+        }
+        if (reachable)
+            reachableNodes.add(node);
+        return reachable;
+    }
+
+    /**
+     * @return the concept names that a concept view outputs, null if this is not a view
+     */
+    public Set<String> getViewConcepts() {
+        if (conceptMask == null)
+            return null;
+        LinkedHashSet<String> concepts = new LinkedHashSet<>();
+        for (int conceptId = 0; conceptId < conceptMask.length; conceptId++) {
+            if (conceptMask[conceptId])
+                concepts.add(ruleTable.getConceptName(conceptId));
+        }
+        return concepts;
+    }
+
+    public FastRuleWOG getBaseRule() {
+        return baseRule;
+    }
+
+    @Override
+    public Rule getRule(int pos) {
+        Rule rule = ruleStore.get(pos);
+        return rule == null && baseRule != null ? baseRule.getRule(pos) : rule;
+    }
+
+    /**
+     * Split the root of the rules map into the literal tokens that a match can start with (including those right after
+     * a leading capture marker), and the rest (wildcards, markers and the END), which are the only ones that can match
+     * from a token that is not a start token.
+     */
+    protected void compileStartTokens() {
+        startTokens = new HashSet<>();
+        wildcardRoot = new HashMap();
+        numericWildcardRoot = true;
+        if (baseRule != null) {
+            collectStartTokens(overlayMap, true);
+            OverlayNode layeredRoot = new OverlayNode(baseRule.wildcardRoot, 0);
+            for (Object key : wildcardRoot.keySet())
+                layeredRoot.put(key, ((OverlayNode) rulesMap).getOwn(key));
+            wildcardRoot = layeredRoot;
+            numericWildcardRoot &= baseRule.wildcardRoot == null || baseRule.numericWildcardRoot;
+        } else {
+            collectStartTokens(rulesMap, true);
+        }
+        if (wildcardRoot.isEmpty())
+            wildcardRoot = null;
+        else if (minimizedRules != null)
+            minimizedRules.alias(wildcardRoot, rulesMap);
+    }
+
+    @Override
+    protected void compileMinimized() {
+        compileStartTokens();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectStartTokens(HashMap node, boolean root) {
+        for (Object entry : node.entrySet()) {
+            Object key = ((Map.Entry) entry).getKey();
+            Object value = ((Map.Entry) entry).getValue();
+            boolean marker = key.equals("\\(") || key.equals("\\)");
+            boolean numeric = key.equals("\\d+") || key.equals("\\>") || key.equals("\\<");
+            if (key instanceof String && !marker && !numeric && !key.equals("\\w+")) {
+                startTokens.add((String) key);
+                continue;
+            }
+            if (root) {
+                wildcardRoot.put(key, value);
+                if (!numeric)
+                    numericWildcardRoot = false;
+            }
+//            a marker consumes no token, so the tokens after it can also start a match
+            if (marker && value instanceof HashMap)
+                collectStartTokens((HashMap) value, false);
+        }
+    }
+
+    /**
+     * @param token the token at a start position (as it is matched against the rules)
+     * @return the rule node to start matching from: the root, the root without the literals (if the token cannot
+     * start any literal rule), or null if no match can start from the token
+     */
+    protected HashMap getStartNode(String token) {
+        if (!startTokenFiltering || startTokens == null || token != null && (startTokens.contains(token)
+                || baseRule != null && baseRule.startTokens.contains(token)))
+            return rulesMap;
+        if (wildcardRoot == null || numericWildcardRoot && (token == null || !UnicodeChecker.isNumber(token)))
+            return null;
+        return wildcardRoot;
+    }
+
+    /**
+     * @param startTokenFiltering if true (default), a token that no rule can start with is only matched against the
+     *                            rules that start with a wildcard, and skipped if there is none. The output does not
+     *                            change.
+     */
+    public void setStartTokenFiltering(boolean startTokenFiltering) {
+        checkNotSealed();
+        this.startTokenFiltering = startTokenFiltering;
     }
 
     protected boolean addRule(Rule rule) {
@@ -71,6 +409,11 @@ public class FastRuleWOG extends FastRule {
         HashMap rule_t;
         String[] ruleContent = rule.rule.split("\\s+");
         ruleLengths.put(rule.id, ruleContent.length);
+        for (String token : ruleContent) {
+            if (token.equals("\\d+") || token.equals("\\>") || token.equals("\\<"))
+                numericWildcards = true;
+            tokenVocabulary.put(token, token);
+        }
         int length = ruleContent.length;
         int i = 0;
         rules_tmp.add(rulesMap);
@@ -111,20 +454,23 @@ public class FastRuleWOG extends FastRule {
         // position.
         // use the 2nd one to remember the start position in which recursion.
         HashMap<String, ArrayList<Span>> matches = new HashMap<String, ArrayList<Span>>();
+        SpanSink sink = new SpanSink(matches);
         for (int i = 0; i < contextTokens.size(); i++) {
             // System.out.println(contextTokens.get(i));
-            processTokens(contextTokens, rulesMap, i, 0, i, matches);
+            HashMap startNode = getStartNode(contextTokens.get(i));
+            if (startNode != null)
+                processTokens(contextTokens, startNode, i, 0, i, sink);
         }
         if (removePseudo)
-            removePseudoMatches(matches);
-        return matches;
+            removePseudoTails(matches);
+        return resolveConflicts(matches);
     }
 
 
     protected void processTokens(ArrayList<String> contextTokens, HashMap rule, int matchBegin, int matchEnd, int currentPosition,
-                                 HashMap<String, ArrayList<Span>> matches) {
+                                 MatchSink sink) {
         process(contextTokens, getStringText, getBeginId, getEndId,
-                rule, matchBegin, matchEnd, currentPosition, matches);
+                rule, 0, matchBegin, matchEnd, currentPosition, sink);
     }
 
     public HashMap<String, ArrayList<Span>> processSpans(ArrayList<Span> contextTokens) {
@@ -132,21 +478,172 @@ public class FastRuleWOG extends FastRule {
         // position.
         // use the 2nd one to remember the start position in which recursion.
         HashMap<String, ArrayList<Span>> matches = new HashMap<String, ArrayList<Span>>();
+        SpanSink sink = new SpanSink(matches);
         for (int i = 0; i < contextTokens.size(); i++) {
 //            System.out.println(contextTokens.get(i));
-            processSpans(contextTokens, rulesMap, i, 0, i, matches);
+            HashMap startNode = getStartNode(getSpanText.apply(contextTokens, i));
+            if (startNode != null)
+                processSpans(contextTokens, startNode, i, 0, i, sink);
         }
         if (removePseudo)
-            removePseudoMatches(matches);
-        return matches;
+            removePseudoTails(matches);
+        return resolveConflicts(matches);
     }
 
 
     protected void processSpans(ArrayList<Span> contextTokens,
                                 HashMap rule, int matchBegin, int matchEnd, int currentPosition,
-                                HashMap<String, ArrayList<Span>> matches) {
+                                MatchSink sink) {
         process(contextTokens, getSpanText, getSpanBegin, getSpanEnd,
-                rule, matchBegin, matchEnd, currentPosition, matches);
+                rule, 0, matchBegin, matchEnd, currentPosition, sink);
+    }
+
+    /**
+     * Process the tokens in place: each token is probed in the rule token vocabulary through a (case-folding)
+     * TextWindow, so that neither a substring nor a lower-cased copy is created for the token.
+     * Tokens that are not used by any rule are replaced by null (they can only be matched by wildcards), except numeric
+     * tokens when numeric wildcards are used in the rules.
+     *
+     * @param text          the text that the offsets refer to
+     * @param begins        token begin offsets
+     * @param ends          token end offsets
+     * @param size          number of tokens to read from begins and ends
+     * @param caseSensitive if false, the tokens will be lower-cased before matching
+     * @return matches, in which the begins and ends of Spans are the text offsets
+     */
+    public HashMap<String, ArrayList<Span>> processTokenOffsets(CharSequence text, int[] begins, int[] ends, int size,
+                                                                boolean caseSensitive) {
+        return processTokenSegments(text, begins, ends, new int[]{0}, new int[]{size}, 1, caseSensitive);
+    }
+
+    /**
+     * Process all the token segments in one pass: each token is looked up once, and the buffers are reused among
+     * segments. Inside a segment, the tokens are indexed from 0, so that a match cannot cross the segment boundaries.
+     */
+    public HashMap<String, ArrayList<Span>> processTokenSegments(CharSequence text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 boolean caseSensitive) {
+        HashMap<String, ArrayList<Span>> matches = new HashMap<String, ArrayList<Span>>();
+        matchTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive,
+                new SpanSink(matches));
+        if (removePseudo)
+            removePseudoTails(matches);
+        return resolveConflicts(matches);
+    }
+
+    protected void matchTokenSegments(CharSequence text, int[] begins, int[] ends, int[] segmentStarts,
+                                      int[] segmentEnds, int segmentCount, boolean caseSensitive, MatchSink sink) {
+        TokenScratch scratch = tokenScratches.get();
+        ArrayList<String> tokens = scratch.tokens;
+        TextWindow window = scratch.window.setLowerCase(!caseSensitive);
+        window.set(text, 0, 0);
+        scratch.begins = begins;
+        scratch.ends = ends;
+        try {
+            for (int s = 0; s < segmentCount; s++) {
+                tokens.clear();
+                scratch.base = segmentStarts[s];
+                for (int i = segmentStarts[s]; i < segmentEnds[s]; i++) {
+                    tokens.add(lookupToken(window.set(begins[i], ends[i])));
+                }
+                scratch.peak = Math.max(scratch.peak, tokens.size());
+                matchTokens(tokens, scratch.getBegin, scratch.getEnd, sink);
+            }
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    /**
+     * Count the matches without creating their spans (@see ConceptCounter). The overlaps within each concept are
+     * resolved as in processSpans, but only the last match of each concept is kept while matching.
+     */
+    @Override
+    public void countSpans(ArrayList<Span> contextTokens, ConceptCounter counter) {
+        if (conflictResolver != null) {
+            super.countSpans(contextTokens, counter);
+            return;
+        }
+        counter.bind(ruleTable);
+        CountSink sink = new CountSink(counter);
+        for (int i = 0; i < contextTokens.size(); i++) {
+            if (counter.isComplete(getSpanBegin.apply(contextTokens, i)))
+                break;
+            HashMap startNode = getStartNode(getSpanText.apply(contextTokens, i));
+            if (startNode != null)
+                processSpans(contextTokens, startNode, i, 0, i, sink);
+        }
+        counter.commitTails();
+    }
+
+    @Override
+    public void countTokenSegments(CharSequence text, int[] begins, int[] ends, int[] segmentStarts, int[] segmentEnds,
+                                   int segmentCount, boolean caseSensitive, ConceptCounter counter) {
+        if (conflictResolver != null) {
+            super.countTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive, counter);
+            return;
+        }
+        counter.bind(ruleTable);
+        matchTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive,
+                new CountSink(counter));
+        counter.commitTails();
+    }
+
+    /**
+     * Match the rules from every token of a segment. A long segment is matched in parallel chunks (@see
+     * FastRule#setParallelism): each chunk records its candidates, which are then added to the sink in chunk order.
+     */
+    protected void matchTokens(ArrayList<String> tokens, BiFunction<ArrayList, Integer, Integer> getBegin,
+                               BiFunction<ArrayList, Integer, Integer> getEnd, MatchSink sink) {
+        int size = tokens.size();
+        int chunks = countChunks(size);
+        if (chunks == 1) {
+            for (int i = 0; i < size; i++) {
+//                in presence mode, stop once the concepts are found
+                if (sink.isComplete(getBegin.apply(tokens, i)))
+                    return;
+                HashMap startNode = getStartNode(tokens.get(i));
+                if (startNode != null)
+                    process(tokens, getStringText, getBegin, getEnd, startNode, 0, i, 0, i, sink);
+            }
+            return;
+        }
+        ArrayList<ForkJoinTask<MatchCandidates>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = c * parallelChunkSize;
+            int to = c == chunks - 1 ? size : from + parallelChunkSize;
+            tasks.add(parallelPool.submit(() -> {
+                MatchCandidates candidates = new MatchCandidates();
+                for (int i = from; i < to; i++) {
+                    HashMap startNode = getStartNode(tokens.get(i));
+                    if (startNode != null)
+                        process(tokens, getStringText, getBegin, getEnd, startNode, 0, i, 0, i, candidates);
+                }
+                return candidates;
+            }));
+        }
+        for (ForkJoinTask<MatchCandidates> task : tasks) {
+            MatchCandidates candidates = task.join();
+            for (int i = 0; i < candidates.getSize(); i++) {
+                sink.add(candidates.getTerminals(i), candidates.getBegin(i), candidates.getEnd(i));
+            }
+        }
+    }
+
+    /**
+     * Resolve a token to the String used in the rules
+     *
+     * @param window the token view
+     * @return the rule token that equals to the window, a new String if the token is not in the rules but is a number
+     * (and numeric wildcards are used), otherwise null
+     */
+    protected String lookupToken(TextWindow window) {
+        String token = tokenVocabulary.get(window);
+        if (token == null && baseRule != null)
+            token = baseRule.tokenVocabulary.get(window);
+        if (token == null && numericWildcards && UnicodeChecker.isNumber(window))
+            token = window.toString();
+        return token;
     }
 
 
@@ -154,76 +651,248 @@ public class FastRuleWOG extends FastRule {
                            BiFunction<ArrayList, Integer, String> getText,
                            BiFunction<ArrayList, Integer, Integer> getBegin,
                            BiFunction<ArrayList, Integer, Integer> getEnd,
-                           HashMap rule, int matchBegin, int matchEnd, int currentPosition,
-                           HashMap<String, ArrayList<Span>> matches) {
+                           HashMap rule, int path, int matchBegin, int matchEnd, int currentPosition,
+                           MatchSink sink) {
+        if (reachableNodes != null && !reachableNodes.contains(rule)
+                || nodeBounds != null && cannotWin(rule, sink.getMatches(), contextTokens, getBegin, matchBegin))
+            return;
         // when reach the end of the tunedcontext, end the iteration
         if (currentPosition < contextTokens.size()) {
             // start processing the tunedcontext tokens
             String thisToken = getText.apply(contextTokens, currentPosition);
 //			System.out.println("thisToken-"+thisToken);
             if (rule.containsKey("\\w+")) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\w+"), matchBegin, matchEnd, currentPosition + 1, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\w+"), path + weight(rule, "\\w+"), matchBegin, matchEnd, currentPosition + 1, sink);
             }
             // if the end of a rule is met
             if (rule.containsKey(END)) {
                 // if no () is used in this definition, use the whole rule string
-                addDeterminants(rule, matches, getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, (matchEnd == 0 ? currentPosition - 1 : matchEnd)));
+                sink.add(getTerminals(rule, path), getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, (matchEnd == 0 ? currentPosition - 1 : matchEnd)));
             }
             // if the current token match the element of a rule
             if (rule.containsKey(thisToken)) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get(thisToken), matchBegin, matchEnd, currentPosition + 1, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get(thisToken), path + weight(rule, thisToken), matchBegin, matchEnd, currentPosition + 1, sink);
             }
             if (rule.containsKey("\\d+") && UnicodeChecker.isNumber(thisToken)) {
-                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\d+"), matchBegin, matchEnd, currentPosition + 1, matches);
+                process(contextTokens, getText, getBegin, getEnd, (HashMap) rule.get("\\d+"), path + weight(rule, "\\d+"), matchBegin, matchEnd, currentPosition + 1, sink);
             }
         } else if (currentPosition == contextTokens.size() && rule.containsKey(END)) {
             // if no () is used in this definition, use the whole rule string
             matchEnd = matchEnd == 0 ? currentPosition - 1 : matchEnd;
-            addDeterminants(rule, matches, getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, matchEnd));
+            sink.add(getTerminals(rule, path), getBegin.apply(contextTokens, matchBegin), getEnd.apply(contextTokens, matchEnd));
         }
     }
 
 
     @SuppressWarnings("unchecked")
-    protected void addDeterminants(HashMap rule, HashMap<String, ArrayList<Span>> matches, int matchBegin, int matchEnd) {
-        HashMap<String, Integer> deterRule = (HashMap<String, Integer>) rule.get(END);
-        Span currentSpan;
+    protected void addDeterminants(int[] terminals, HashMap<String, ArrayList<Span>> matches, int matchBegin, int matchEnd) {
         ArrayList<Span> currentSpanList;
-        for (Object key : deterRule.keySet()) {
-//          claim as Span instance, to be compatible with old methods
-            int ruleId = deterRule.get(key);
-            boolean contain = ruleLengths.containsKey(ruleId);
-            contain = ruleStore.containsKey(ruleId);
-            currentSpan = new NERSpan(matchBegin, matchEnd, ruleId, ruleLengths.get(ruleId), ruleStore.get(ruleId).score, "");
-            ((NERSpan) currentSpan).setCompareMethod(spanCompareMethod);
-            ((NERSpan) currentSpan).setWidthCompareMethod(widthCompareMethod);
-            logger.finest(getRule(currentSpan.ruleId).toString());
-            if (matches.containsKey((String) key)) {
+        for (int index : terminals) {
+            if (conceptMask != null && !conceptMask[ruleTable.getRuleConceptId(index)])
+                continue;
+            int ruleId = ruleTable.getId(index);
+            int ruleLength = ruleTable.getLength(index);
+            double score = ruleTable.getScore(index);
+            String key = ruleTable.getConceptName(ruleTable.getRuleConceptId(index));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(getRule(ruleId).toString());
+            currentSpanList = matches.get(key);
+            if (currentSpanList != null) {
 //              because the ruleStore are all processed at the same time from the input left to the input right,
 //                it becomes more efficient to compare the overlaps
-                currentSpanList = matches.get((String) key);
                 Span lastSpan = currentSpanList.get(currentSpanList.size() - 1);
 
 //                  Since there is no directional preference, assume the span is not exclusive within each determinant.
-                if (currentSpan.end < lastSpan.end) {
+                if (matchEnd < lastSpan.end) {
 //                      if currentSpan is within lastSpan
                     continue;
-                } else if (lastSpan.end > currentSpan.begin) {
+                } else if (lastSpan.end > matchBegin) {
 //                      if overlap and current span has priority than last span
-                    if (((NERSpan) currentSpan).compareTo((NERSpan) lastSpan) > 0) {
+//                      (the width is 0, as NERSpan(begin, end, ruleId, ruleLength, score, text) does not set it)
+                    if (NERSpan.compare(getCompareMode(index), score, 0, ruleLength, lastSpan) > 0) {
                         currentSpanList.remove(currentSpanList.size() - 1);
                     } else {
                         continue;
                     }
+                } else if (isRemovePseudo(index) && lastSpan instanceof NERSpan && ((NERSpan) lastSpan).pseudo) {
+//                      a pseudo match is only compared with the next match, so it can be dropped once that one
+//                      does not overlap with it. Only the last span of a list can still be a pseudo match.
+                    currentSpanList.remove(currentSpanList.size() - 1);
                 }
-                currentSpanList.add(currentSpan);
             } else {
                 currentSpanList = new ArrayList<Span>();
-                currentSpanList.add(currentSpan);
+                matches.put(key, currentSpanList);
+            }
+//          claim as Span instance, to be compatible with old methods. Only created for the matches that are kept.
+            NERSpan currentSpan = new NERSpan(matchBegin, matchEnd, ruleId, ruleLength, score, "");
+            currentSpan.setCompareMode(getCompareMode(index));
+            currentSpan.pseudo = ruleTable.isPseudo(index);
+            currentSpanList.add(currentSpan);
+        }
+    }
+
+
+    /**
+     * The counting counterpart of addDeterminants: the last match of each concept is kept in the counter (without
+     * creating a span), and it is counted once a match that does not overlap it comes.
+     */
+    protected void countDeterminants(int[] terminals, ConceptCounter counter, int matchBegin, int matchEnd) {
+        for (int index : terminals) {
+            int conceptId = ruleTable.getRuleConceptId(index);
+            int slot = counter.getSlot(conceptId);
+            if (slot == -1 || conceptMask != null && !conceptMask[conceptId])
+                continue;
+            int ruleLength = ruleTable.getLength(index);
+            double score = ruleTable.getScore(index);
+            NERSpan lastSpan = counter.getTail(slot);
+            if (lastSpan != null) {
+                if (matchEnd < lastSpan.end) {
+                    continue;
+                } else if (lastSpan.end > matchBegin) {
+                    if (NERSpan.compare(getCompareMode(index), score, 0, ruleLength, lastSpan) <= 0)
+                        continue;
+                } else {
+                    counter.commitTail(slot);
+                }
             }
-            matches.put((String) key, currentSpanList);
+            counter.setTail(slot, matchBegin, matchEnd, ruleTable.getId(index), ruleLength, score,
+                    ruleTable.isPseudo(index), isRemovePseudo(index));
         }
     }
 
+    /**
+     * @param index dense rule index
+     * @return the compare mode of the matches of the rule
+     */
+    protected byte getCompareMode(int index) {
+        return compareMode;
+    }
+
+    /**
+     * @param index dense rule index
+     * @return whether the pseudo matches of the rule's concept are removed
+     */
+    protected boolean isRemovePseudo(int index) {
+        return removePseudo;
+    }
+
+    /**
+     * Whether none of the matches below a rule node can be kept (@see FastRule#setBranchPruning): for each concept
+     * below, the last kept span already reaches the begin of the match (so a match from here is either within it or
+     * overlaps with it), and it is not beaten by the best score/rule length below.
+     *
+     * @param rule       the rule node
+     * @param matches    the matches kept so far, null if the matches are not resolved into spans
+     * @param tokens     the tokens
+     * @param getBegin   get the begin of a token
+     * @param matchBegin the index of the first token of the match
+     * @return true if the subtree can be skipped
+     */
+    protected boolean cannotWin(HashMap rule, HashMap<String, ArrayList<Span>> matches, ArrayList<?> tokens,
+                                BiFunction<ArrayList, Integer, Integer> getBegin, int matchBegin) {
+        boolean byScore = compareMode == SCORE_MODE || compareMode == SCORE_STR_WIDTH_MODE;
+        if (!byScore && compareMode != RULE_LENGTH_MODE || matches == null)
+            return false;
+        NodeBounds.Bound bound = nodeBounds.get(rule);
+        if (bound == null || bound.capture)
+            return false;
+        int begin = -1;
+        for (int conceptId : bound.conceptIds) {
+            ArrayList<Span> spans = matches.get(ruleTable.getConceptName(conceptId));
+            if (spans == null || spans.isEmpty())
+                return false;
+            Span lastSpan = spans.get(spans.size() - 1);
+            if (begin == -1)
+                begin = getBegin.apply(tokens, matchBegin);
+            if (lastSpan.end <= begin)
+                return false;
+            if (byScore ? bound.maxScore > lastSpan.score :
+                    !(lastSpan instanceof NERSpan) || bound.maxRuleLength > ((NERSpan) lastSpan).ruleLength)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drop the pseudo matches that are still at the end of the span lists. addDeterminants drops all the others while
+     * matching.
+     *
+     * @param matches the matches of a call
+     */
+    protected void removePseudoTails(HashMap<String, ArrayList<Span>> matches) {
+        for (ArrayList<Span> spans : matches.values()) {
+            int last = spans.size() - 1;
+            if (last >= 0 && spans.get(last) instanceof NERSpan && ((NERSpan) spans.get(last)).pseudo)
+                spans.remove(last);
+        }
+    }
+
+    /**
+     * Resolves the matches of a call into the spans of its result map, @see #addDeterminants
+     */
+    protected class SpanSink implements MatchSink {
+        protected final HashMap<String, ArrayList<Span>> matches;
+
+        public SpanSink(HashMap<String, ArrayList<Span>> matches) {
+            this.matches = matches;
+        }
+
+        @Override
+        public void add(int[] terminals, int begin, int end) {
+            addDeterminants(terminals, matches, begin, end);
+        }
+
+        @Override
+        public HashMap<String, ArrayList<Span>> getMatches() {
+            return matches;
+        }
+    }
+
+    /**
+     * Counts the matches of a call without creating their spans, @see #countDeterminants
+     */
+    protected class CountSink implements MatchSink {
+        protected final ConceptCounter counter;
+
+        public CountSink(ConceptCounter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void add(int[] terminals, int begin, int end) {
+            countDeterminants(terminals, counter, begin, end);
+        }
+
+        @Override
+        public boolean isComplete(int position) {
+            return counter.isComplete(position);
+        }
+    }
+
+    /**
+     * Reusable buffers of one thread for processTokenOffsets
+     */
+    protected static class TokenScratch {
+        public final ArrayList<String> tokens = new ArrayList<>();
+        public final TextWindow window = new TextWindow(null, false);
+        public int[] begins, ends;
+        //        the index of the first token of current segment in begins/ends
+        public int base;
+        //        the largest segment of the call, to release the token list if it grew too large
+        public int peak;
+        public final BiFunction<ArrayList, Integer, Integer> getBegin = (list, id) -> begins[base + id];
+        public final BiFunction<ArrayList, Integer, Integer> getEnd = (list, id) -> ends[base + id];
+
+        public void clear() {
+            tokens.clear();
+            if (peak > MAX_RETAINED_BUFFER)
+                tokens.trimToSize();
+            peak = 0;
+            window.set(null, 0, 0);
+            begins = null;
+            ends = null;
+            base = 0;
+        }
+    }
 
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.core.TypeDefinition;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import edu.utah.bmi.nlp.fastcner.FastCRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs token rules and char rules over a document together: the document text, the sentence boundaries (and the
+ * token range of each sentence) and the output are shared, so that a pipeline does not need a FastNER and a FastCNER
+ * that each extract, segment and resolve the same document.
+ * <p>
+ * The rules can come from one file that mixes both kinds: the rules after a "@fastner" line are token rules, and
+ * those after a "@fastcner" line are char rules (@see #splitRuleSource). The rule ids are the line numbers of the
+ * mixed file, so they are unique across the two kinds.
+ * <p>
+ * The char rules are matched against the original text (case-sensitive, as in FastCNER), the token rules fold the case
+ * of each token in place if they are not case-sensitive (@see FastRuleWOG#processTokenOffsets).
+ *
+ * @author Jianlin Shi
+ */
+public class HybridFastNER extends FastNER {
+    //    the char rule engine, null if there is no char rule
+    protected FastCRule charRule;
+    //    applied to the combined matches of both engines
+    protected ConflictResolver conflictResolver = null;
+
+    /**
+     * @param ruleStr      rule file path or rule string, which can mix token rules and char rules
+     * @param caseSenstive whether the token rules are case-sensitive
+     */
+    public HybridFastNER(String ruleStr, boolean caseSenstive) {
+        this.caseSenstive = caseSenstive;
+        String[] parts = splitRuleSource(ruleStr);
+        if (parts[0] != null)
+            fastRule = FastRuleFactory.createFastRule(FastNER.class, parts[0], typeDefinition, caseSenstive, true);
+        else
+            fastRule = new FastRuleWOG(new HashMap<>());
+        if (parts[1] != null) {
+            FastCNER fastCNER = new FastCNER(parts[1]);
+            charRule = (FastCRule) fastCNER.fastRule;
+            for (Map.Entry<String, TypeDefinition> entry : fastCNER.getTypeDefinitions().entrySet())
+                typeDefinition.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Split a mixed rule source into the token rules and the char rules. The lines that belong to the other kind are
+     * left blank, so that the rule ids (line numbers) do not change. The other setting lines ("@...") and the type
+     * definitions are kept in both.
+     *
+     * @param ruleStr rule file path or rule string
+     * @return {token rules, char rules}, an element is null if there is no rule of that kind
+     */
+    public static String[] splitRuleSource(String ruleStr) {
+        List<String> lines;
+        File file = new File(ruleStr.trim());
+        if (ruleStr.trim().length() > 0 && file.isFile()) {
+            try {
+                lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read rule file " + ruleStr, e);
+            }
+        } else {
+            lines = Arrays.asList(ruleStr.split("\\r?\\n", -1));
+        }
+        StringBuilder tokenRules = new StringBuilder(), charRules = new StringBuilder();
+        boolean charSection = false, hasTokenRules = false, hasCharRules = false;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (i > 0) {
+                tokenRules.append("\n");
+                charRules.append("\n");
+            }
+            String setting = line.trim().toLowerCase().split("\\t")[0];
+            boolean shared = line.trim().length() == 0 || line.startsWith("#") || line.startsWith("&");
+            if (setting.equals("@fastner") || setting.equals("@fastcner")) {
+                charSection = setting.equals("@fastcner");
+                (charSection ? charRules : tokenRules).append(line);
+            } else if (shared || line.startsWith("@")) {
+                tokenRules.append(line);
+                charRules.append(line);
+            } else if (charSection) {
+                charRules.append(line);
+                hasCharRules = true;
+            } else {
+                tokenRules.append(line);
+                hasTokenRules = true;
+            }
+        }
+        return new String[]{hasTokenRules ? tokenRules.toString() : null, hasCharRules ? charRules.toString() : null};
+    }
+
+    /**
+     * Process a document in one call: the token rules and the char rules are matched within each sentence, and their
+     * matches are combined by concept (and resolved, if a ConflictResolver is set).
+     *
+     * @param text           document text
+     * @param tokenBegins    token begins of the document, in ascending order
+     * @param tokenEnds      token ends of the document
+     * @param tokenCount     number of tokens
+     * @param sentenceBegins sentence begins, in ascending order
+     * @param sentenceEnds   sentence ends, sentences must not overlap
+     * @param sentenceCount  number of sentences
+     * @return matches, in which the begins and ends of Spans are the document offsets
+     */
+    public HashMap<String, ArrayList<Span>> processDocument(String text, int[] tokenBegins, int[] tokenEnds, int tokenCount,
+                                                            int[] sentenceBegins, int[] sentenceEnds, int sentenceCount) {
+//        the token range of each sentence, by merging the two sorted lists
+        int[] segmentStarts = new int[sentenceCount];
+        int[] segmentEnds = new int[sentenceCount];
+        int t = 0;
+        for (int s = 0; s < sentenceCount; s++) {
+            while (t < tokenCount && tokenBegins[t] < sentenceBegins[s])
+                t++;
+            segmentStarts[s] = t;
+            while (t < tokenCount && tokenEnds[t] <= sentenceEnds[s])
+                t++;
+            segmentEnds[s] = t;
+        }
+        HashMap<String, ArrayList<Span>> matches = fastRule.processTokenSegments(text, tokenBegins, tokenEnds,
+                segmentStarts, segmentEnds, sentenceCount, caseSenstive);
+        if (charRule != null) {
+            HashMap<String, ArrayList<Span>> charMatches = charRule.processSegments(text, sentenceBegins, sentenceEnds,
+                    sentenceCount);
+            for (Map.Entry<String, ArrayList<Span>> entry : charMatches.entrySet()) {
+                ArrayList<Span> spans = matches.get(entry.getKey());
+                if (spans == null) {
+                    matches.put(entry.getKey(), entry.getValue());
+                } else {
+                    spans.addAll(entry.getValue());
+                    spans.sort(Comparator.comparingInt((Span span) -> span.begin).thenComparingInt(span -> span.end));
+                }
+            }
+        }
+        return conflictResolver == null ? matches : conflictResolver.resolve(matches);
+    }
+
+    /**
+     * Tokenize and split the text into sentences (@see SimpleParser#tokenizeDecimalSmartWSentences), and process it
+     * as a document
+     *
+     * @param text the text
+     * @return matches
+     */
+    public HashMap<String, ArrayList<Span>> processText(String text) {
+        ArrayList<ArrayList<Span>> sentences = SimpleParser.tokenizeDecimalSmartWSentences(text, false);
+        int tokenCount = 0;
+        for (ArrayList<Span> sentence : sentences)
+            tokenCount += sentence.size();
+        int[] tokenBegins = new int[tokenCount], tokenEnds = new int[tokenCount];
+        int[] sentenceBegins = new int[sentences.size()], sentenceEnds = new int[sentences.size()];
+        int t = 0, s = 0;
+        for (ArrayList<Span> sentence : sentences) {
+            if (sentence.isEmpty())
+                continue;
+            sentenceBegins[s] = sentence.get(0).begin;
+            sentenceEnds[s++] = sentence.get(sentence.size() - 1).end;
+            for (Span token : sentence) {
+                tokenBegins[t] = token.begin;
+                tokenEnds[t++] = token.end;
+            }
+        }
+        return processDocument(text, tokenBegins, tokenEnds, t, sentenceBegins, sentenceEnds, s);
+    }
+
+    public FastCRule getCharRule() {
+        return charRule;
+    }
+
+    @Override
+    public Rule getRule(int ruleId) {
+        Rule rule = fastRule.getRule(ruleId);
+        return rule == null && charRule != null ? charRule.getRule(ruleId) : rule;
+    }
+
+    @Override
+    public void setCompareMethod(String method) {
+        super.setCompareMethod(method);
+        if (charRule != null)
+            charRule.setCompareMethod(method);
+    }
+
+    @Override
+    public void setRemovePseudo(boolean removePseudo) {
+        super.setRemovePseudo(removePseudo);
+        if (charRule != null)
+            charRule.setRemovePseudo(removePseudo);
+    }
+
+    @Override
+    public void setParallelism(ForkJoinPool pool, int chunkSize) {
+        super.setParallelism(pool, chunkSize);
+        if (charRule != null)
+            charRule.setParallelism(pool, chunkSize);
+    }
+
+    @Override
+    public void setBranchPruning(boolean branchPruning) {
+        super.setBranchPruning(branchPruning);
+        if (charRule != null)
+            charRule.setBranchPruning(branchPruning);
+    }
+
+    /**
+     * @param conflictResolver resolves the overlaps across the concepts of both kinds of rules, null to keep them
+     */
+    @Override
+    public void setConflictResolver(ConflictResolver conflictResolver) {
+        fastRule.checkNotSealed();
+        this.conflictResolver = conflictResolver;
+    }
+
+    @Override
+    public void seal() {
+        super.seal();
+        if (charRule != null)
+            charRule.seal();
+    }
+
+    @Override
+    public boolean minimize() {
+        boolean minimized = super.minimize();
+        return charRule == null ? minimized : charRule.minimize() && minimized;
+    }
+}
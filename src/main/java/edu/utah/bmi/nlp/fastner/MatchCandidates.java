@@ -0,0 +1,66 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import java.util.Arrays;
+
+/**
+ * The raw matches of one chunk of the input, in the order that they are found, before any overlap resolution.
+ * <p>
+ * When an input is processed in parallel chunks, each chunk records its matches here. Then the candidates of all the
+ * chunks are replayed (in chunk order) through the engine's own addDeterminants, so that the overlap resolution sees
+ * the matches in exactly the same order as a sequential run does.
+ *
+ * @author Jianlin Shi
+ */
+public class MatchCandidates implements MatchSink {
+    //    the dense indices of the rules that each candidate matches
+    protected int[][] terminals = new int[64][];
+    protected int[] begins = new int[64];
+    protected int[] ends = new int[64];
+    protected int size = 0;
+
+    @Override
+    public void add(int[] ruleTerminals, int begin, int end) {
+        if (size == terminals.length) {
+            int capacity = size * 2;
+            terminals = Arrays.copyOf(terminals, capacity);
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        terminals[size] = ruleTerminals;
+        begins[size] = begin;
+        ends[size] = end;
+        size++;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int[] getTerminals(int i) {
+        return terminals[i];
+    }
+
+    public int getBegin(int i) {
+        return begins[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Receives the raw matches of the token engines (@see FastRuleWOG#process) in the order that they are found: the dense
+ * indices of the rules that a match completes, with its begin and end. A sink decides what to do with them, e.g.
+ * resolve them into the spans of a result map (@see FastRuleWOG.SpanSink) or record them to be replayed later (@see
+ * MatchCandidates).
+ *
+ * @author Jianlin Shi
+ */
+public interface MatchSink {
+
+    /**
+     * @param terminals the dense rule indices of the rules that the match completes
+     * @param begin     begin of the match
+     * @param end       end of the match
+     */
+    void add(int[] terminals, int begin, int end);
+
+    /**
+     * @return the matches resolved into spans so far, null if the sink does not keep spans (then the branch pruning
+     * does not apply, @see FastRule#setBranchPruning)
+     */
+    default HashMap<String, ArrayList<Span>> getMatches() {
+        return null;
+    }
+
+    /**
+     * @param position the begin of the next match to be tried
+     * @return true if the rest of the input can be skipped, e.g. once a counter in presence mode has found its
+     * concepts (@see ConceptCounter#isComplete(int))
+     */
+    default boolean isComplete(int position) {
+        return false;
+    }
+}
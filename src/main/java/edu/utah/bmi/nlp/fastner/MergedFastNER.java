@@ -0,0 +1,142 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.core.TypeDefinition;
+import org.apache.uima.jcas.tcas.Annotation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Runs several token rule sets (e.g. the rule files of a chain of FastNER AEs) in one pass: the rule sets are compiled
+ * into one rules map (@see MergedFastRule), so each token is looked up (and lower-cased) once, and one walk gives the
+ * matches of every rule set. The results of rule set i are the same as a FastNER of its rules alone, with its own
+ * compare methods, pseudo handling and conflict resolver.
+ * <p>
+ * Use the *ByRuleSet methods to process: the inherited process methods return the merged matches, whose concept names
+ * are qualified by the rule set (@see MergedFastRule#qualify) and whose rule ids are shifted.
+ *
+ * @author Jianlin Shi
+ */
+public class MergedFastNER extends FastNER {
+    protected ArrayList<LinkedHashMap<String, TypeDefinition>> ruleSetTypeDefinitions = new ArrayList<>();
+    protected ConflictResolver[] conflictResolvers;
+
+    /**
+     * @param ruleStrs      rule file paths or rule strings of token rules, one for each rule set
+     * @param caseSensitive whether to process text in a case-sensitive way, the same for all rule sets
+     */
+    @SuppressWarnings("unchecked")
+    public MergedFastNER(List<String> ruleStrs, boolean caseSensitive) {
+        this.caseSenstive = caseSensitive;
+        ArrayList<HashMap<Integer, Rule>> ruleStores = new ArrayList<>();
+        for (String ruleStr : ruleStrs) {
+            LinkedHashMap<String, TypeDefinition> definitions = new LinkedHashMap<>();
+            Object[] output = FastRuleFactory.buildRuleStore(ruleStr, definitions, caseSensitive, true);
+            if (((String) output[1]).startsWith("FastCRule"))
+                throw new IllegalArgumentException("Only token rules can be merged, got " + output[1]);
+            ruleStores.add((HashMap<Integer, Rule>) output[0]);
+            ruleSetTypeDefinitions.add(definitions);
+            typeDefinition.putAll(definitions);
+        }
+        fastRule = new MergedFastRule(ruleStores);
+        conflictResolvers = new ConflictResolver[ruleStrs.size()];
+    }
+
+    public MergedFastRule getMergedRule() {
+        return (MergedFastRule) fastRule;
+    }
+
+    public int getRuleSetCount() {
+        return getMergedRule().getRuleSetCount();
+    }
+
+    public void setCompareMethod(int ruleSet, String method) {
+        getMergedRule().setCompareMethod(ruleSet, method);
+    }
+
+    public void setWidthCompareMethod(int ruleSet, String widthCompareMethod) {
+        getMergedRule().setWidthCompareMethod(ruleSet, widthCompareMethod);
+    }
+
+    public void setRemovePseudo(int ruleSet, boolean removePseudo) {
+        getMergedRule().setRemovePseudo(ruleSet, removePseudo);
+    }
+
+    /**
+     * @param conflictResolver resolves the overlaps across the concepts of one rule set, null to keep them (default)
+     */
+    public void setConflictResolver(int ruleSet, ConflictResolver conflictResolver) {
+        fastRule.checkNotSealed();
+        conflictResolvers[ruleSet] = conflictResolver;
+    }
+
+    /**
+     * Set the conflict resolver of every rule set: the concepts of different rule sets never conflict
+     */
+    @Override
+    public void setConflictResolver(ConflictResolver conflictResolver) {
+        fastRule.checkNotSealed();
+        for (int s = 0; s < conflictResolvers.length; s++)
+            conflictResolvers[s] = conflictResolver;
+    }
+
+    public LinkedHashMap<String, TypeDefinition> getTypeDefinitions(int ruleSet) {
+        return ruleSetTypeDefinitions.get(ruleSet);
+    }
+
+    /**
+     * @param ruleSet rule set index
+     * @param ruleId  rule id in the results of the rule set
+     * @return the rule
+     */
+    public Rule getRule(int ruleSet, int ruleId) {
+        return getMergedRule().getRule(ruleSet, ruleId);
+    }
+
+    public ArrayList<HashMap<String, ArrayList<Span>>> processStringListByRuleSet(ArrayList<String> tokens) {
+        return split(processStringList(tokens));
+    }
+
+    public ArrayList<HashMap<String, ArrayList<Span>>> processSpanListByRuleSet(ArrayList<Span> tokens) {
+        return split(processSpanList(tokens));
+    }
+
+    public ArrayList<HashMap<String, ArrayList<Span>>> processAnnotationListByRuleSet(ArrayList<Annotation> tokens) {
+        return split(processAnnotationList(tokens));
+    }
+
+    public ArrayList<HashMap<String, ArrayList<Span>>> processTokenSegmentsByRuleSet(String text, int[] begins, int[] ends,
+                                                                                     int[] segmentStarts, int[] segmentEnds,
+                                                                                     int segmentCount) {
+        return split(processTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount));
+    }
+
+    protected ArrayList<HashMap<String, ArrayList<Span>>> split(HashMap<String, ArrayList<Span>> matches) {
+        ArrayList<HashMap<String, ArrayList<Span>>> results = getMergedRule().split(matches);
+        for (int s = 0; s < conflictResolvers.length; s++) {
+            if (conflictResolvers[s] != null)
+                results.set(s, conflictResolvers[s].resolve(results.get(s)));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.NERSpan;
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.*;
+
+import static edu.utah.bmi.nlp.core.NERSpan.byRuleLength;
+import static edu.utah.bmi.nlp.core.NERSpan.scorewidth;
+
+/**
+ * Several token rule sets compiled into one rules map, so that one walk over the tokens finds the matches of all of
+ * them (@see MergedFastNER). Each rule is tagged with the rule set it comes from:
+ * <ul>
+ * <li>its concept is qualified by the rule set index (@see #qualify), so that the matches of different rule sets are
+ * never compared with each other, and a rule set cannot override the rules of another;</li>
+ * <li>its id is shifted by the id offset of the rule set, which is undone by split;</li>
+ * <li>the compare methods and the pseudo handling are looked up by its rule set.</li>
+ * </ul>
+ * The rules map supports the features of all the token engines (@see FastRuleWGN).
+ *
+ * @author Jianlin Shi
+ */
+public class MergedFastRule extends FastRuleWGN {
+    public static final char SEPARATOR = '\t';
+    //    the original rules of each rule set
+    protected ArrayList<HashMap<Integer, Rule>> ruleSetStores;
+    //    rule set -> the offset added to its rule ids
+    protected int[] idOffsets;
+    //    dense rule index -> rule set
+    protected int[] ruleSets;
+    protected String[] spanCompareMethods, widthCompareMethods;
+    protected byte[] compareModes;
+    protected boolean[] removePseudos;
+
+    /**
+     * @param ruleSetStores rule id -&gt; rule of each rule set
+     */
+    public MergedFastRule(List<HashMap<Integer, Rule>> ruleSetStores) {
+        int count = ruleSetStores.size();
+        this.ruleSetStores = new ArrayList<>(ruleSetStores);
+        idOffsets = new int[count];
+        spanCompareMethods = new String[count];
+        widthCompareMethods = new String[count];
+        compareModes = new byte[count];
+        removePseudos = new boolean[count];
+//        each rule set is inserted in the order of its own store, as in a FastNER of its rules alone: of two rules
+//        with the same pattern and concept, the one inserted last wins
+        LinkedHashMap<Integer, Rule> merged = new LinkedHashMap<>();
+        int offset = 0;
+        for (int s = 0; s < count; s++) {
+            idOffsets[s] = offset;
+            int maxId = -1;
+            for (Rule rule : ruleSetStores.get(s).values()) {
+                int id = rule.id + offset;
+                merged.put(id, new Rule(id, rule.rule, qualify(s, rule.ruleName), rule.score, rule.type));
+                maxId = Math.max(maxId, rule.id);
+            }
+            offset += maxId + 1;
+            spanCompareMethods[s] = scorewidth;
+            widthCompareMethods[s] = byRuleLength;
+            compareModes[s] = NERSpan.getCompareMode(scorewidth, byRuleLength);
+            removePseudos[s] = true;
+        }
+        initiate(merged);
+    }
+
+    /**
+     * @return the concept name of a rule set in the merged rules
+     */
+    public static String qualify(int ruleSet, String conceptName) {
+        return ruleSet + (SEPARATOR + conceptName);
+    }
+
+    @Override
+    protected void compileRuleTable() {
+        super.compileRuleTable();
+        ruleSets = new int[ruleTable.size()];
+        for (int i = 0; i < ruleSets.length; i++)
+            ruleSets[i] = getRuleSet(ruleTable.getId(i));
+    }
+
+    /**
+     * The bounds of the branch pruning do not tell the rule sets apart, so it is not supported.
+     */
+    @Override
+    protected void compileNodeBounds() {
+        nodeBounds = null;
+    }
+
+    /**
+     * @param ruleId a rule id in the merged rules
+     * @return the rule set of the rule
+     */
+    public int getRuleSet(int ruleId) {
+        int ruleSet = 0;
+        while (ruleSet + 1 < idOffsets.length && idOffsets[ruleSet + 1] <= ruleId)
+            ruleSet++;
+        return ruleSet;
+    }
+
+    public int getRuleSetCount() {
+        return idOffsets.length;
+    }
+
+    /**
+     * @param ruleSet rule set index
+     * @param ruleId  the rule id in the rule set (as in the results of split)
+     * @return the rule
+     */
+    public Rule getRule(int ruleSet, int ruleId) {
+        return ruleSetStores.get(ruleSet).get(ruleId);
+    }
+
+    public void setCompareMethod(int ruleSet, String method) {
+        checkNotSealed();
+        spanCompareMethods[ruleSet] = method;
+        compareModes[ruleSet] = NERSpan.getCompareMode(method, widthCompareMethods[ruleSet]);
+    }
+
+    public void setWidthCompareMethod(int ruleSet, String widthCompareMethod) {
+        checkNotSealed();
+        widthCompareMethods[ruleSet] = widthCompareMethod;
+        compareModes[ruleSet] = NERSpan.getCompareMode(spanCompareMethods[ruleSet], widthCompareMethod);
+    }
+
+    public void setRemovePseudo(int ruleSet, boolean removePseudo) {
+        checkNotSealed();
+        removePseudos[ruleSet] = removePseudo;
+    }
+
+    @Override
+    public void setCompareMethod(String method) {
+        for (int s = 0; s < idOffsets.length; s++)
+            setCompareMethod(s, method);
+    }
+
+    @Override
+    public void setWidthCompareMethod(String widthCompareMethod) {
+        for (int s = 0; s < idOffsets.length; s++)
+            setWidthCompareMethod(s, widthCompareMethod);
+    }
+
+    @Override
+    public void setRemovePseudo(boolean removePseudo) {
+        checkNotSealed();
+        Arrays.fill(removePseudos, removePseudo);
+    }
+
+    @Override
+    protected byte getCompareMode(int index) {
+        return compareModes[ruleSets[index]];
+    }
+
+    @Override
+    protected boolean isRemovePseudo(int index) {
+        return removePseudos[ruleSets[index]];
+    }
+
+    @Override
+    protected void removePseudoTails(HashMap<String, ArrayList<Span>> matches) {
+        for (Map.Entry<String, ArrayList<Span>> entry : matches.entrySet()) {
+            ArrayList<Span> spans = entry.getValue();
+            int last = spans.size() - 1;
+            if (last >= 0 && removePseudos[getConceptRuleSet(entry.getKey())] && spans.get(last) instanceof NERSpan
+                    && ((NERSpan) spans.get(last)).pseudo)
+                spans.remove(last);
+        }
+    }
+
+    protected int getConceptRuleSet(String qualifiedName) {
+        return Integer.parseInt(qualifiedName.substring(0, qualifiedName.indexOf(SEPARATOR)));
+    }
+
+    /**
+     * Split the matches of the merged rules by rule set, with the original concept names and rule ids
+     *
+     * @param matches the matches of a call (qualified concept name -&gt; spans)
+     * @return the matches of each rule set
+     */
+    public ArrayList<HashMap<String, ArrayList<Span>>> split(HashMap<String, ArrayList<Span>> matches) {
+        ArrayList<HashMap<String, ArrayList<Span>>> results = new ArrayList<>(idOffsets.length);
+        for (int s = 0; s < idOffsets.length; s++)
+            results.add(new HashMap<>());
+        for (Map.Entry<String, ArrayList<Span>> entry : matches.entrySet()) {
+            String key = entry.getKey();
+            int separator = key.indexOf(SEPARATOR);
+            int ruleSet = Integer.parseInt(key.substring(0, separator));
+            for (Span span : entry.getValue())
+                span.ruleId -= idOffsets[ruleSet];
+            results.get(ruleSet).put(key.substring(separator + 1), entry.getValue());
+        }
+        return results;
+    }
+}
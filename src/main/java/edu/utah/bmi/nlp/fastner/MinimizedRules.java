@@ -0,0 +1,214 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import java.util.*;
+
+/**
+ * Turns a compiled (frozen) rules map into a DAWG in place: equivalent subtrees--same keys, same END presence and
+ * equivalent children, whatever rules they end in--are merged into one, so that the shared tails of dictionary-style
+ * rules (e.g. "... of the left lung") are only stored once.
+ * <p>
+ * A merged END can be reached through the paths of different rules, so the rule indices cannot stay in the END node.
+ * Instead, the root-to-END paths are numbered: each edge has a weight, the number of a path is the sum of the weights
+ * along it, and the dense rule indices of each path are kept in a table by path number. The walk adds up the weights
+ * (@see FastRule#weight) and looks up the terminals at an END (@see FastRule#getTerminals), so the results are
+ * exactly the same as without the minimization.
+ * <p>
+ * The weights follow the usual perfect-hash numbering of a DAWG: with the keys of a node in a fixed order, the weight
+ * of an edge is 1 if the node has an END (which takes the first number) plus the number of END paths below the keys
+ * before it. A node that has only one child has a weight of 1 or 0 (depending on its END), which is not stored.
+ *
+ * @author Jianlin Shi
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class MinimizedRules {
+    //    the END value of every node after the minimization: the terminals depend on the path (@see #getTerminals)
+    public static final int[] PATH_TERMINALS = new int[0];
+    //    orders the keys of a node, so that equivalent nodes number their paths in the same way
+    protected static final Comparator<Object> KEY_ORDER = Comparator
+            .comparing((Object key) -> key.getClass().getName()).thenComparing(String::valueOf);
+
+    protected final Object end;
+    //    node -> key -> weight, only for the nodes that have more than one child
+    protected final IdentityHashMap<HashMap, HashMap<Object, Integer>> weights = new IdentityHashMap<>();
+    //    path number -> dense rule indices
+    protected int[][] terminals;
+    protected int nodesBefore, nodesAfter;
+
+    protected MinimizedRules(Object end) {
+        this.end = end;
+    }
+
+    /**
+     * @param rulesMap the root of a frozen rules map (@see RuleTable#freeze), which is changed in place
+     * @param end      the key of the END nodes
+     * @return the weights and terminals of the minimized map, or null (and the map is not changed) if there are too
+     * many paths to be numbered by an int
+     */
+    public static MinimizedRules minimize(HashMap rulesMap, Object end) {
+        MinimizedRules minimized = new MinimizedRules(end);
+        IdentityHashMap<HashMap, Long> counts = new IdentityHashMap<>();
+        long paths = minimized.count(rulesMap, counts);
+        if (paths >= Integer.MAX_VALUE)
+            return null;
+        minimized.nodesBefore = counts.size();
+        minimized.terminals = new int[(int) paths][];
+        minimized.collectTerminals(rulesMap, 0, counts);
+        IdentityHashMap<HashMap, HashMap> canonical = new IdentityHashMap<>();
+        minimized.merge(rulesMap, canonical, new HashMap<>(), new IdentityHashMap<>());
+        counts.clear();
+        minimized.count(rulesMap, counts);
+        minimized.nodesAfter = counts.size();
+        for (HashMap node : counts.keySet())
+            if (minimized.childKeys(node).size() > 1)
+                minimized.weights.put(node, minimized.computeWeights(node, counts));
+        return minimized;
+    }
+
+    /**
+     * @return the weight of the edge from node through key
+     */
+    public int weight(HashMap node, Object key) {
+        HashMap<Object, Integer> nodeWeights = weights.get(node);
+        if (nodeWeights == null)
+            return node.containsKey(end) ? 1 : 0;
+        return nodeWeights.get(key);
+    }
+
+    /**
+     * @param path the sum of the weights from the root to an END node
+     * @return the dense indices of the rules that end there
+     */
+    public int[] getTerminals(int path) {
+        return terminals[path];
+    }
+
+    /**
+     * Use the weights of node for a copy of it that has a subset of its keys (e.g. the root without the literal start
+     * tokens, @see FastRuleWOG#compileStartTokens), so that the paths from the copy keep their numbers.
+     */
+    public void alias(HashMap copy, HashMap node) {
+        HashMap<Object, Integer> nodeWeights = weights.get(node);
+        if (nodeWeights == null) {
+            nodeWeights = new HashMap<>();
+            int weight = node.containsKey(end) ? 1 : 0;
+            for (Object key : childKeys(node))
+                nodeWeights.put(key, weight);
+        }
+        weights.put(copy, nodeWeights);
+    }
+
+    public int getNodesBefore() {
+        return nodesBefore;
+    }
+
+    public int getNodesAfter() {
+        return nodesAfter;
+    }
+
+    public int getPathCount() {
+        return terminals.length;
+    }
+
+    /**
+     * @return the keys of the children of the node (all but the END), in KEY_ORDER
+     */
+    protected ArrayList<Object> childKeys(HashMap node) {
+        ArrayList<Object> keys = new ArrayList<>(node.size());
+        for (Object entry : node.entrySet()) {
+            Map.Entry child = (Map.Entry) entry;
+            if (!end.equals(child.getKey()) && child.getValue() instanceof HashMap)
+                keys.add(child.getKey());
+        }
+        keys.sort(KEY_ORDER);
+        return keys;
+    }
+
+    /**
+     * @return the number of END paths below (and including) the node, saturated at Integer.MAX_VALUE
+     */
+    protected long count(HashMap node, IdentityHashMap<HashMap, Long> counts) {
+        Long count = counts.get(node);
+        if (count != null)
+            return count;
+        long sum = node.containsKey(end) ? 1 : 0;
+        for (Object key : childKeys(node))
+            sum = Math.min(sum + count((HashMap) node.get(key), counts), Integer.MAX_VALUE);
+        counts.put(node, sum);
+        return sum;
+    }
+
+    protected HashMap<Object, Integer> computeWeights(HashMap node, IdentityHashMap<HashMap, Long> counts) {
+        HashMap<Object, Integer> nodeWeights = new HashMap<>();
+        long weight = node.containsKey(end) ? 1 : 0;
+        for (Object key : childKeys(node)) {
+            nodeWeights.put(key, (int) weight);
+            weight += counts.get((HashMap) node.get(key));
+        }
+        return nodeWeights;
+    }
+
+    /**
+     * Number the paths of the map before it is merged, and keep the terminals of each
+     */
+    protected void collectTerminals(HashMap node, int path, IdentityHashMap<HashMap, Long> counts) {
+        long weight = 0;
+        if (node.containsKey(end)) {
+            terminals[path] = (int[]) node.get(end);
+            weight = 1;
+        }
+        for (Object key : childKeys(node)) {
+            HashMap child = (HashMap) node.get(key);
+            collectTerminals(child, path + (int) weight, counts);
+            weight += counts.get(child);
+        }
+    }
+
+    /**
+     * Merge the subtrees bottom-up: a node whose signature (END presence, keys and merged children) has been seen is
+     * replaced by the first node with that signature.
+     *
+     * @return the node that replaces this one
+     */
+    protected HashMap merge(HashMap node, IdentityHashMap<HashMap, HashMap> canonical,
+                            HashMap<List<Object>, HashMap> signatures, IdentityHashMap<HashMap, Integer> ids) {
+        HashMap merged = canonical.get(node);
+        if (merged != null)
+            return merged;
+        ArrayList<Object> keys = childKeys(node);
+        ArrayList<Object> signature = new ArrayList<>(keys.size() * 2 + 1);
+        signature.add(node.containsKey(end));
+        for (Object key : keys) {
+            HashMap child = merge((HashMap) node.get(key), canonical, signatures, ids);
+            signature.add(key);
+            signature.add(ids.get(child));
+        }
+        merged = signatures.get(signature);
+        if (merged == null) {
+            merged = node;
+            signatures.put(signature, node);
+            ids.put(node, ids.size());
+            for (Object key : keys)
+                node.put(key, canonical.get((HashMap) node.get(key)));
+            if (node.containsKey(end))
+                node.put(end, PATH_TERMINALS);
+        }
+        canonical.put(node, merged);
+        return merged;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * For each node of a compiled rules map, the best that the rules below it (including the END of the node itself) can
+ * achieve: the max/min scores, the max rule length, the max number of chars/tokens still to be consumed, and the
+ * concepts that they lead to. The engines use it to skip a subtree whose matches would all lose to the matches that
+ * have been kept (@see FastRule#setBranchPruning).
+ * <p>
+ * The bounds are kept in a side table, so the rules map itself is not changed.
+ *
+ * @author Jianlin Shi
+ */
+public class NodeBounds {
+    //    the remaining length of a repetition, which is not bounded by the rules
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    //    the edge length of a capture marker, which changes the begin or end of a match
+    public static final int CAPTURE = -1;
+
+    public static class Bound {
+        public double maxScore = Double.NEGATIVE_INFINITY, minScore = Double.POSITIVE_INFINITY;
+        public int maxRuleLength = 0;
+        public int maxRemaining = 0;
+        //        whether there is a capture marker below, then the begin/end of a match cannot be bounded
+        public boolean capture = false;
+        public int[] conceptIds;
+    }
+
+    /**
+     * The number of chars/tokens that an edge of the rules map consumes
+     */
+    public interface EdgeLength {
+        /**
+         * @param parentKey the key of the edge that leads to the node, null for the root
+         * @param key       the key of the edge from the node
+         * @return the length, UNBOUNDED or CAPTURE
+         */
+        int apply(Object parentKey, Object key);
+    }
+
+    protected final IdentityHashMap<HashMap, Bound> bounds = new IdentityHashMap<>();
+    protected final Object end;
+    protected final RuleTable ruleTable;
+    protected final EdgeLength edgeLength;
+
+    /**
+     * @param rulesMap   the root of the rules map, whose END nodes have been frozen (@see RuleTable#freeze)
+     * @param end        the key of the END nodes
+     * @param ruleTable  the table of the rules
+     * @param edgeLength the length of each edge
+     */
+    public NodeBounds(HashMap rulesMap, Object end, RuleTable ruleTable, EdgeLength edgeLength) {
+        this.end = end;
+        this.ruleTable = ruleTable;
+        this.edgeLength = edgeLength;
+        compute(rulesMap, null);
+    }
+
+    /**
+     * @return the bound of the node, null if the node is not in the rules map
+     */
+    public Bound get(HashMap node) {
+        return bounds.get(node);
+    }
+
+    public int size() {
+        return bounds.size();
+    }
+
+    protected Bound compute(HashMap node, Object parentKey) {
+        Bound bound = bounds.get(node);
+        if (bound != null)
+            return bound;
+        bound = new Bound();
+        bounds.put(node, bound);
+        BitSet concepts = new BitSet();
+        for (Object entry : node.entrySet()) {
+            Map.Entry child = (Map.Entry) entry;
+            Object key = child.getKey();
+            if (end.equals(key) && child.getValue() instanceof int[]) {
+                for (int index : (int[]) child.getValue()) {
+                    bound.maxScore = Math.max(bound.maxScore, ruleTable.getScore(index));
+                    bound.minScore = Math.min(bound.minScore, ruleTable.getScore(index));
+                    bound.maxRuleLength = Math.max(bound.maxRuleLength, ruleTable.getLength(index));
+                    concepts.set(ruleTable.getRuleConceptId(index));
+                }
+            } else if (child.getValue() instanceof HashMap) {
+                Bound childBound = compute((HashMap) child.getValue(), key);
+                if (childBound.conceptIds.length == 0)
+                    continue;
+                int length = edgeLength.apply(parentKey, key);
+                if (length == CAPTURE) {
+                    bound.capture = true;
+                    length = 0;
+                }
+                bound.capture |= childBound.capture;
+                bound.maxScore = Math.max(bound.maxScore, childBound.maxScore);
+                bound.minScore = Math.min(bound.minScore, childBound.minScore);
+                bound.maxRuleLength = Math.max(bound.maxRuleLength, childBound.maxRuleLength);
+                int remaining = length == UNBOUNDED || childBound.maxRemaining == UNBOUNDED ?
+                        UNBOUNDED : length + childBound.maxRemaining;
+                bound.maxRemaining = Math.max(bound.maxRemaining, remaining);
+                for (int conceptId : childBound.conceptIds)
+                    concepts.set(conceptId);
+            }
+        }
+        bound.conceptIds = concepts.stream().toArray();
+        return bound;
+    }
+}
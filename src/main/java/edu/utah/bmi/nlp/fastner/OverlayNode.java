@@ -0,0 +1,87 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A read-only rule node of a layered rule set (@see FastRuleWOG#initiate(FastRuleWOG, HashMap)): it holds the keys
+ * of the overlay rules, and reads through to the node at the same path in the base rules map for all the others, so
+ * that the base nodes are shared instead of copied.
+ * <p>
+ * Only the lookups used by the matching (get, containsKey, keySet, isEmpty) see the base keys; the entries of the
+ * HashMap itself are the overlay keys only.
+ *
+ * @author Jianlin Shi
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class OverlayNode extends HashMap<Object, Object> {
+    //    the node at the same path in the base rules map, null if the base has no such path
+    protected final HashMap base;
+    //    the path number of the base node, if the base rules map is minimized (@see MinimizedRules)
+    protected final int basePath;
+
+    public OverlayNode(HashMap base, int basePath) {
+        this.base = base;
+        this.basePath = basePath;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = super.get(key);
+        return value != null || base == null ? value : base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return super.containsKey(key) || base != null && base.containsKey(key);
+    }
+
+    /**
+     * @return the keys of the base node, followed by the overlay keys that the base node does not have
+     */
+    @Override
+    public Set<Object> keySet() {
+        if (base == null)
+            return super.keySet();
+        LinkedHashSet<Object> keys = new LinkedHashSet<>(base.keySet());
+        keys.addAll(super.keySet());
+        return keys;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return super.isEmpty() && (base == null || base.isEmpty());
+    }
+
+    /**
+     * @return the value of an overlay key, null if the key is only in the base
+     */
+    public Object getOwn(Object key) {
+        return super.get(key);
+    }
+
+    public boolean hasOwn(Object key) {
+        return super.containsKey(key);
+    }
+
+    public HashMap getBase() {
+        return base;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCRule;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Runs the partitions of a rule set, each compiled by the cheapest engine that supports its rules (@see
+ * FastRuleFactory#createPartitionedRule), and combines their matches. The partitions do not share a concept, so the
+ * overlaps within a concept are resolved by its own partition; the ConflictResolver (across concepts) is applied once,
+ * to the combined matches.
+ *
+ * @author Jianlin Shi
+ */
+public class PartitionedFastRule extends FastRule {
+    protected final ArrayList<FastRule> partitions;
+
+    /**
+     * @param ruleStore  all the rules
+     * @param partitions the engines of the partitions, which must not share a concept
+     */
+    public PartitionedFastRule(HashMap<Integer, Rule> ruleStore, List<FastRule> partitions) {
+        this.ruleStore = ruleStore;
+        this.partitions = new ArrayList<>(partitions);
+        initiateFunctions();
+    }
+
+    public List<FastRule> getPartitions() {
+        return partitions;
+    }
+
+    protected HashMap<String, ArrayList<Span>> combine(Function<FastRule, HashMap<String, ArrayList<Span>>> process) {
+        HashMap<String, ArrayList<Span>> matches = new HashMap<>();
+        for (FastRule partition : partitions) {
+            HashMap<String, ArrayList<Span>> partitionMatches = process.apply(partition);
+            if (partitionMatches != null)
+                matches.putAll(partitionMatches);
+        }
+        return resolveConflicts(matches);
+    }
+
+    @Override
+    protected HashMap<String, ArrayList<Span>> processTokens(ArrayList<String> tokens) {
+        return combine(partition -> partition.processTokens(tokens));
+    }
+
+    @Override
+    protected HashMap<String, ArrayList<Span>> processSpans(ArrayList<Span> tokens) {
+        return combine(partition -> partition.processSpans(tokens));
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> processString(String text) {
+        return combine(partition -> partition.processString(text));
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> processTokenOffsets(CharSequence text, int[] begins, int[] ends, int size,
+                                                                boolean caseSensitive) {
+        return combine(partition -> partition.processTokenOffsets(text, begins, ends, size, caseSensitive));
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> processTokenSegments(CharSequence text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 boolean caseSensitive) {
+        return combine(partition -> partition.processTokenSegments(text, begins, ends, segmentStarts, segmentEnds,
+                segmentCount, caseSensitive));
+    }
+
+    /**
+     * Each partition counts its own concepts, and the partitions after the counter is complete are skipped
+     */
+    @Override
+    public void countSpans(ArrayList<Span> tokens, ConceptCounter counter) {
+        if (conflictResolver != null) {
+            super.countSpans(tokens, counter);
+            return;
+        }
+        for (FastRule partition : partitions) {
+            if (counter.isComplete())
+                break;
+            partition.countSpans(tokens, counter);
+        }
+    }
+
+    @Override
+    public void countTokenSegments(CharSequence text, int[] begins, int[] ends, int[] segmentStarts, int[] segmentEnds,
+                                   int segmentCount, boolean caseSensitive, ConceptCounter counter) {
+        if (conflictResolver != null) {
+            super.countTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive, counter);
+            return;
+        }
+        for (FastRule partition : partitions) {
+            if (counter.isComplete())
+                break;
+            partition.countTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive,
+                    counter);
+        }
+    }
+
+    /**
+     * @see FastCRule#countSegments(String, int[], int[], int, ConceptCounter), for the partitions of char rules
+     */
+    public void countSegments(String text, int[] begins, int[] ends, int count, ConceptCounter counter) {
+        if (conflictResolver != null) {
+            counter.addAll(processSegments(text, begins, ends, count));
+            return;
+        }
+        for (FastRule partition : partitions) {
+            if (counter.isComplete())
+                break;
+            ((FastCRule) partition).countSegments(text, begins, ends, count, counter);
+        }
+    }
+
+    /**
+     * @see FastCRule#processSpan(Span), for the partitions of char rules
+     */
+    public HashMap<String, ArrayList<Span>> processSpan(Span span) {
+        return combine(partition -> ((FastCRule) partition).processSpan(span));
+    }
+
+    /**
+     * @see FastCRule#processSegments(String, int[], int[], int), for the partitions of char rules
+     */
+    public HashMap<String, ArrayList<Span>> processSegments(String text, int[] begins, int[] ends, int count) {
+        return combine(partition -> ((FastCRule) partition).processSegments(text, begins, ends, count));
+    }
+
+    @Override
+    public void setRemovePseudo(boolean removePseudo) {
+        super.setRemovePseudo(removePseudo);
+        for (FastRule partition : partitions)
+            partition.setRemovePseudo(removePseudo);
+    }
+
+    @Override
+    public void setParallelism(ForkJoinPool pool, int chunkSize) {
+        super.setParallelism(pool, chunkSize);
+        for (FastRule partition : partitions)
+            partition.setParallelism(pool, chunkSize);
+    }
+
+    @Override
+    public void setBranchPruning(boolean branchPruning) {
+        checkNotSealed();
+        this.branchPruning = branchPruning;
+        for (FastRule partition : partitions)
+            partition.setBranchPruning(branchPruning);
+    }
+
+    @Override
+    public void seal() {
+        super.seal();
+        for (FastRule partition : partitions)
+            partition.seal();
+    }
+
+    @Override
+    public boolean minimize() {
+        checkNotSealed();
+        boolean minimized = false;
+        for (FastRule partition : partitions)
+            minimized |= partition.minimize();
+        return minimized;
+    }
+
+    @Override
+    public boolean isMinimized() {
+        for (FastRule partition : partitions)
+            if (partition.isMinimized())
+                return true;
+        return false;
+    }
+
+    @Override
+    public void printRulesMap() {
+        for (FastRule partition : partitions)
+            partition.printRulesMap();
+    }
+}
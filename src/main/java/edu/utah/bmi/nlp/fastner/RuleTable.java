@@ -0,0 +1,198 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants;
+import edu.utah.bmi.nlp.core.Rule;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * The metadata of the compiled rules in parallel primitive arrays, indexed by a dense rule index (0..size-1, in
+ * ascending order of the rule ids), so that the matching does not need to box a rule id and probe the ruleStore
+ * for every candidate. The concept names are interned to int ids (0..getConceptCount()-1) in the same way.
+ * <p>
+ * Once the table is built, the END node of each rule in the rules map holds an int[] of the dense rule indices that
+ * end there (@see #freeze), instead of a HashMap from concept names to rule ids.
+ * <p>
+ * A table can be layered on a base table (@see #RuleTable(RuleTable, Map, ToIntFunction)): its rules then take the
+ * dense indices after the base rules, and the arrays only hold its own rules, so read a layered table through the
+ * accessors (getId etc.).
+ *
+ * @author Jianlin Shi
+ */
+public class RuleTable {
+    //    dense index -> rule id
+    public final int[] ids;
+    public final double[] scores;
+    //    number of tokens (token rules) or chars (char rules) of the rule
+    public final int[] lengths;
+    public final Determinants[] types;
+    //    whether the rule is a PSEUDO rule, precomputed from types for the matching
+    public final boolean[] pseudo;
+    public final int[] conceptIds;
+    protected final String[] conceptNames;
+    protected final HashMap<Integer, Integer> indices = new HashMap<>();
+    protected final HashMap<String, Integer> conceptIdMap = new HashMap<>();
+    //    the table that this one is layered on (null if none), and the number of rules and concepts in it
+    protected final RuleTable base;
+    protected final int offset, conceptOffset;
+
+    /**
+     * @param ruleStore rule id -&gt; rule
+     * @param lengthOf  the length of a rule
+     */
+    public RuleTable(Map<Integer, Rule> ruleStore, ToIntFunction<Rule> lengthOf) {
+        this(null, ruleStore, lengthOf);
+    }
+
+    /**
+     * @param base      the table to layer on, null for none. All the rule ids of ruleStore must be greater than those
+     *                  of the base, so that the dense indices are the same as a table of all the rules.
+     * @param ruleStore rule id -&gt; rule, of this layer only
+     * @param lengthOf  the length of a rule
+     */
+    public RuleTable(RuleTable base, Map<Integer, Rule> ruleStore, ToIntFunction<Rule> lengthOf) {
+        this.base = base;
+        offset = base == null ? 0 : base.size();
+        conceptOffset = base == null ? 0 : base.getConceptCount();
+        ArrayList<Integer> sortedIds = new ArrayList<>(ruleStore.keySet());
+        Collections.sort(sortedIds);
+        int size = sortedIds.size();
+        ids = new int[size];
+        scores = new double[size];
+        lengths = new int[size];
+        types = new Determinants[size];
+        pseudo = new boolean[size];
+        conceptIds = new int[size];
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Rule rule = ruleStore.get(sortedIds.get(i));
+            ids[i] = sortedIds.get(i);
+            scores[i] = rule.score;
+            lengths[i] = lengthOf.applyAsInt(rule);
+            types[i] = rule.type;
+            pseudo[i] = rule.type == Determinants.PSEUDO;
+            int conceptId = base == null ? -1 : base.getConceptId(rule.ruleName);
+            if (conceptId == -1) {
+                Integer ownId = conceptIdMap.get(rule.ruleName);
+                if (ownId == null) {
+                    ownId = conceptOffset + names.size();
+                    conceptIdMap.put(rule.ruleName, ownId);
+                    names.add(rule.ruleName);
+                }
+                conceptId = ownId;
+            }
+            conceptIds[i] = conceptId;
+            indices.put(ids[i], offset + i);
+        }
+        conceptNames = names.toArray(new String[0]);
+    }
+
+    public int size() {
+        return offset + ids.length;
+    }
+
+    /**
+     * @param ruleId rule id
+     * @return dense index of the rule, -1 if it is not in the table
+     */
+    public int indexOf(int ruleId) {
+        Integer index = indices.get(ruleId);
+        if (index == null)
+            return base == null ? -1 : base.indexOf(ruleId);
+        return index;
+    }
+
+    public int getId(int index) {
+        return index < offset ? base.getId(index) : ids[index - offset];
+    }
+
+    public double getScore(int index) {
+        return index < offset ? base.getScore(index) : scores[index - offset];
+    }
+
+    public int getLength(int index) {
+        return index < offset ? base.getLength(index) : lengths[index - offset];
+    }
+
+    public Determinants getType(int index) {
+        return index < offset ? base.getType(index) : types[index - offset];
+    }
+
+    public boolean isPseudo(int index) {
+        return index < offset ? base.isPseudo(index) : pseudo[index - offset];
+    }
+
+    /**
+     * @return the concept id of the rule at a dense index
+     */
+    public int getRuleConceptId(int index) {
+        return index < offset ? base.getRuleConceptId(index) : conceptIds[index - offset];
+    }
+
+    public int getConceptCount() {
+        return conceptOffset + conceptNames.length;
+    }
+
+    public String getConceptName(int conceptId) {
+        return conceptId < conceptOffset ? base.getConceptName(conceptId) : conceptNames[conceptId - conceptOffset];
+    }
+
+    /**
+     * @return concept id, -1 if no rule has this concept name
+     */
+    public int getConceptId(String conceptName) {
+        Integer conceptId = conceptIdMap.get(conceptName);
+        if (conceptId == null)
+            return base == null ? -1 : base.getConceptId(conceptName);
+        return conceptId;
+    }
+
+    /**
+     * Replace the END values of the rules map (concept name -&gt; rule id) with the dense indices of the rules, in the
+     * same iteration order.
+     *
+     * @param rulesMap the root of the rules map
+     * @param end      the key of the END nodes
+     */
+    @SuppressWarnings("unchecked")
+    public void freeze(HashMap rulesMap, Object end) {
+        ArrayDeque<HashMap> nodes = new ArrayDeque<>();
+        Set<HashMap> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        nodes.push(rulesMap);
+        while (!nodes.isEmpty()) {
+            HashMap node = nodes.pop();
+            if (!visited.add(node))
+                continue;
+            for (Object entry : node.entrySet()) {
+                Map.Entry child = (Map.Entry) entry;
+                if (end.equals(child.getKey()) && child.getValue() instanceof HashMap) {
+                    Collection<Integer> ruleIds = ((HashMap<Object, Integer>) child.getValue()).values();
+                    int[] terminals = new int[ruleIds.size()];
+                    int i = 0;
+                    for (int ruleId : ruleIds)
+                        terminals[i++] = indexOf(ruleId);
+                    child.setValue(terminals);
+                } else if (child.getValue() instanceof HashMap) {
+                    nodes.push((HashMap) child.getValue());
+                }
+            }
+        }
+    }
+}
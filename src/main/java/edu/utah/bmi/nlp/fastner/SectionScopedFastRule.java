@@ -0,0 +1,239 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * The token rules can be scoped to sections by an optional column after the determinant, e.g.
+ * "no fever\t1\tFever\tPSEUDO\tHistoryOfPresentIllness|ReviewOfSystems". A rule without a scope is active in all
+ * sections.
+ * <p>
+ * Besides the engine of all the rules, a view is compiled for each section that a rule is scoped to (and one for the
+ * other sections), which only contains the rules active in that section. Inactive rules are not matched at all, and
+ * cannot override (or be overridden by) the active ones in the overlap resolution. The sections that have the same
+ * active rules share a view.
+ *
+ * @author Jianlin Shi
+ */
+public class SectionScopedFastRule extends FastRule {
+    //    the engine of all the rules, used when no section is given
+    protected final FastRule allRules;
+    protected final HashMap<String, FastRule> sectionViews = new HashMap<>();
+    //    the view of the sections that no rule is scoped to, null if every rule is scoped
+    protected final FastRule unscopedView;
+    protected final HashMap<Integer, Set<String>> ruleSections;
+    //    the distinct engines, to forward the settings to
+    protected final ArrayList<FastRule> engines = new ArrayList<>();
+
+    /**
+     * @param ruleStore    all the rules
+     * @param ruleSections rule id -&gt; the sections that the rule is active in, for the scoped rules
+     * @param compiler     compiles a subset of the rules into an engine
+     */
+    public SectionScopedFastRule(HashMap<Integer, Rule> ruleStore, HashMap<Integer, Set<String>> ruleSections,
+                                 Function<HashMap<Integer, Rule>, FastRule> compiler) {
+        this.ruleStore = ruleStore;
+        this.ruleSections = ruleSections;
+        allRules = compiler.apply(ruleStore);
+        engines.add(allRules);
+        TreeSet<String> sectionNames = new TreeSet<>();
+        for (Set<String> sections : ruleSections.values())
+            sectionNames.addAll(sections);
+        HashMap<Set<Integer>, FastRule> compiled = new HashMap<>();
+        compiled.put(new HashSet<>(ruleStore.keySet()), allRules);
+        unscopedView = compileView(null, compiled, compiler);
+        for (String sectionName : sectionNames)
+            sectionViews.put(sectionName, compileView(sectionName, compiled, compiler));
+        initiateFunctions();
+    }
+
+    protected FastRule compileView(String sectionName, HashMap<Set<Integer>, FastRule> compiled,
+                                   Function<HashMap<Integer, Rule>, FastRule> compiler) {
+        HashMap<Integer, Rule> activeRules = new HashMap<>();
+        for (Map.Entry<Integer, Rule> entry : ruleStore.entrySet()) {
+            Set<String> sections = ruleSections.get(entry.getKey());
+            if (sections == null || sectionName != null && sections.contains(sectionName))
+                activeRules.put(entry.getKey(), entry.getValue());
+        }
+        if (activeRules.isEmpty())
+            return null;
+        FastRule view = compiled.get(activeRules.keySet());
+        if (view == null) {
+            view = compiler.apply(activeRules);
+            compiled.put(new HashSet<>(activeRules.keySet()), view);
+            engines.add(view);
+        }
+        return view;
+    }
+
+    /**
+     * @param sectionName section short name, null for no section (all the rules are active)
+     * @return the engine of the rules that are active in the section, null if there is none
+     */
+    public FastRule getSectionRule(String sectionName) {
+        if (sectionName == null)
+            return allRules;
+        return sectionViews.getOrDefault(sectionName, unscopedView);
+    }
+
+    /**
+     * @return the engine of all the rules and the distinct section views
+     */
+    public List<FastRule> getEngines() {
+        return engines;
+    }
+
+    public Set<String> getScopedSections() {
+        return sectionViews.keySet();
+    }
+
+    @Override
+    protected HashMap<String, ArrayList<Span>> processTokens(ArrayList<String> tokens) {
+        return allRules.processTokens(tokens);
+    }
+
+    @Override
+    protected HashMap<String, ArrayList<Span>> processSpans(ArrayList<Span> tokens) {
+        return allRules.processSpans(tokens);
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> processString(String text) {
+        return allRules.processString(text);
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> processTokenOffsets(CharSequence text, int[] begins, int[] ends, int size,
+                                                                boolean caseSensitive) {
+        return allRules.processTokenOffsets(text, begins, ends, size, caseSensitive);
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> processTokenSegments(CharSequence text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 boolean caseSensitive) {
+        return allRules.processTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive);
+    }
+
+    @Override
+    public void countSpans(ArrayList<Span> tokens, ConceptCounter counter) {
+        allRules.countSpans(tokens, counter);
+    }
+
+    @Override
+    public void countTokenSegments(CharSequence text, int[] begins, int[] ends, int[] segmentStarts, int[] segmentEnds,
+                                   int segmentCount, boolean caseSensitive, ConceptCounter counter) {
+        allRules.countTokenSegments(text, begins, ends, segmentStarts, segmentEnds, segmentCount, caseSensitive, counter);
+    }
+
+    /**
+     * Like processTokenSegments, but each segment is matched by the view of its section. The segments of a view are
+     * still processed in one call.
+     *
+     * @param segmentSections the section of each segment, null for no section
+     */
+    public HashMap<String, ArrayList<Span>> processTokenSegments(CharSequence text, int[] begins, int[] ends,
+                                                                 int[] segmentStarts, int[] segmentEnds, int segmentCount,
+                                                                 String[] segmentSections, boolean caseSensitive) {
+        LinkedHashMap<FastRule, int[][]> viewSegments = new LinkedHashMap<>();
+        LinkedHashMap<FastRule, Integer> viewCounts = new LinkedHashMap<>();
+        for (int i = 0; i < segmentCount; i++) {
+            FastRule view = getSectionRule(segmentSections[i]);
+            if (view == null)
+                continue;
+            int[][] segments = viewSegments.computeIfAbsent(view, v -> new int[2][segmentCount]);
+            int count = viewCounts.getOrDefault(view, 0);
+            segments[0][count] = segmentStarts[i];
+            segments[1][count] = segmentEnds[i];
+            viewCounts.put(view, count + 1);
+        }
+        HashMap<String, ArrayList<Span>> matches = new HashMap<>();
+        for (Map.Entry<FastRule, int[][]> entry : viewSegments.entrySet()) {
+            HashMap<String, ArrayList<Span>> viewMatches = entry.getKey().processTokenSegments(text, begins, ends,
+                    entry.getValue()[0], entry.getValue()[1], viewCounts.get(entry.getKey()), caseSensitive);
+            for (Map.Entry<String, ArrayList<Span>> concept : viewMatches.entrySet())
+                matches.computeIfAbsent(concept.getKey(), k -> new ArrayList<>()).addAll(concept.getValue());
+        }
+//        the matches of different views are in different segments, sort them back into document order
+        if (viewSegments.size() > 1) {
+            for (ArrayList<Span> spans : matches.values())
+                spans.sort(Comparator.comparingInt((Span span) -> span.begin).thenComparingInt(span -> span.end));
+        }
+        return matches;
+    }
+
+    @Override
+    public void setRemovePseudo(boolean removePseudo) {
+        super.setRemovePseudo(removePseudo);
+        for (FastRule engine : engines)
+            engine.setRemovePseudo(removePseudo);
+    }
+
+    @Override
+    public void setConflictResolver(ConflictResolver conflictResolver) {
+        super.setConflictResolver(conflictResolver);
+        for (FastRule engine : engines)
+            engine.setConflictResolver(conflictResolver);
+    }
+
+    @Override
+    public void setParallelism(ForkJoinPool pool, int chunkSize) {
+        super.setParallelism(pool, chunkSize);
+        for (FastRule engine : engines)
+            engine.setParallelism(pool, chunkSize);
+    }
+
+    @Override
+    public void setBranchPruning(boolean branchPruning) {
+        checkNotSealed();
+        this.branchPruning = branchPruning;
+        for (FastRule engine : engines)
+            engine.setBranchPruning(branchPruning);
+    }
+
+    @Override
+    public void seal() {
+        super.seal();
+        for (FastRule engine : engines)
+            engine.seal();
+    }
+
+    @Override
+    public boolean minimize() {
+        checkNotSealed();
+        boolean minimized = false;
+        for (FastRule engine : engines)
+            minimized |= engine.minimize();
+        return minimized;
+    }
+
+    @Override
+    public boolean isMinimized() {
+        return allRules.isMinimized();
+    }
+
+    @Override
+    public void printRulesMap() {
+        allRules.printRulesMap();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.NERSpan;
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.*;
+
+import static edu.utah.bmi.nlp.core.NERSpan.*;
+
+/**
+ * Resolve the overlaps across concepts:
+ * <p>
+ * - leftmost-longest: one sweep over all the matches sorted by begin (longer first), a match is kept if it does not
+ * overlap with the last kept one. As each concept's list is already sorted, the merge sort (TimSort) only merges these
+ * runs, and the sweep itself is linear.
+ * <p>
+ * - best score: the matches are taken from the best to the worst by the compare method (the same methods as the
+ * overlap resolution within a concept), and a match is kept if it does not overlap any kept one. So a match is only
+ * dropped for a better one that is kept: a match that loses to a dropped one can still be kept. Ties keep the
+ * leftmost-longest one.
+ * <p>
+ * The comparators are composed once, when the resolver is created.
+ *
+ * @author Jianlin Shi
+ */
+public class SweepConflictResolver implements ConflictResolver {
+    public static final String leftmostLongest = "leftmostlongest", bestScore = "bestscore";
+
+    protected static final Comparator<Span> byPosition = (a, b) -> a.begin != b.begin ?
+            Integer.compare(a.begin, b.begin) : Integer.compare(b.end, a.end);
+    //    null for leftmost-longest
+    protected final Comparator<Span> priority;
+    //    best first, ties in leftmost-longest order
+    protected final Comparator<Span> bestFirst;
+
+    /**
+     * A leftmost-longest resolver
+     */
+    public SweepConflictResolver() {
+        this.priority = null;
+        this.bestFirst = null;
+    }
+
+    /**
+     * A best score resolver
+     *
+     * @param compareMethod      scoreOnly, scorewidth, widthscore or widthOnly (@see NERSpan)
+     * @param widthCompareMethod byStrWidth or byRuleLength
+     */
+    public SweepConflictResolver(String compareMethod, String widthCompareMethod) {
+        Comparator<Span> byScore = (a, b) -> Double.compare(a.score, b.score);
+        Comparator<Span> byWidth = byStrWidth.equals(widthCompareMethod) ?
+                (a, b) -> Integer.compare(a.end - a.begin, b.end - b.begin) :
+                (a, b) -> Integer.compare(getRuleLength(a), getRuleLength(b));
+        switch (compareMethod) {
+            case scoreOnly:
+                priority = byScore;
+                break;
+            case scorewidth:
+                priority = byScore.thenComparing(byWidth);
+                break;
+            case widthscore:
+                priority = byWidth.thenComparing(byScore);
+                break;
+            default:
+                priority = byWidth;
+        }
+        bestFirst = priority.reversed().thenComparing(byPosition);
+    }
+
+    /**
+     * @param strategy           leftmostlongest, bestscore, or null/none for no cross-concept resolution
+     * @param compareMethod      compare method of bestscore
+     * @param widthCompareMethod width compare method of bestscore
+     * @return the resolver, null if the strategy is none
+     */
+    public static ConflictResolver getResolver(String strategy, String compareMethod, String widthCompareMethod) {
+        if (strategy == null || strategy.length() == 0 || strategy.equalsIgnoreCase("none"))
+            return null;
+        if (strategy.equalsIgnoreCase(bestScore))
+            return new SweepConflictResolver(compareMethod, widthCompareMethod);
+        if (!strategy.equalsIgnoreCase(leftmostLongest))
+            FastRule.logger.warning("Unknown conflict resolution strategy: " + strategy + ", use " + leftmostLongest);
+        return new SweepConflictResolver();
+    }
+
+    protected static int getRuleLength(Span span) {
+        return span instanceof NERSpan ? ((NERSpan) span).ruleLength : span.end - span.begin;
+    }
+
+    @Override
+    public HashMap<String, ArrayList<Span>> resolve(HashMap<String, ArrayList<Span>> matches) {
+        int total = 0;
+        for (ArrayList<Span> spans : matches.values())
+            total += spans.size();
+        HashMap<String, ArrayList<Span>> resolved = new HashMap<>();
+        if (total == 0) {
+            for (String concept : matches.keySet())
+                resolved.put(concept, new ArrayList<>());
+            return resolved;
+        }
+        Span[] all = new Span[total];
+        IdentityHashMap<Span, String> concepts = new IdentityHashMap<>(total);
+        int i = 0;
+        for (Map.Entry<String, ArrayList<Span>> entry : matches.entrySet()) {
+            resolved.put(entry.getKey(), new ArrayList<>());
+            for (Span span : entry.getValue()) {
+                all[i++] = span;
+                concepts.put(span, entry.getKey());
+            }
+        }
+        if (priority == null) {
+            Arrays.sort(all, byPosition);
+            Span[] kept = new Span[total];
+            int size = 0;
+            for (Span span : all) {
+                if (size == 0 || kept[size - 1].end <= span.begin)
+                    kept[size++] = span;
+            }
+            for (i = 0; i < size; i++)
+                resolved.get(concepts.get(kept[i])).add(kept[i]);
+        } else {
+            for (Span span : selectBest(all))
+                resolved.get(concepts.get(span)).add(span);
+        }
+        return resolved;
+    }
+
+    /**
+     * @param all all the matches
+     * @return the kept matches by begin, none of them overlaps another
+     */
+    protected Collection<Span> selectBest(Span[] all) {
+        Arrays.sort(all, bestFirst);
+        TreeMap<Integer, Span> kept = new TreeMap<>();
+        for (Span span : all) {
+            Map.Entry<Integer, Span> before = kept.floorEntry(span.begin);
+            if (before != null && (before.getKey() == span.begin || before.getValue().end > span.begin))
+                continue;
+            Map.Entry<Integer, Span> after = kept.higherEntry(span.begin);
+            if (after != null && after.getKey() < span.end)
+                continue;
+            kept.put(span.begin, span);
+        }
+        return kept.values();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+/**
+ * A reusable view of a region [begin, end) of a source text, which can optionally be lower-cased on the fly.
+ * <p>
+ * The hashCode is computed the same way as String#hashCode of the (folded) region, and equals compares char by char
+ * with any CharSequence. So a TextWindow can be used to probe a HashMap whose keys are Strings, without materializing
+ * a substring (or a lower-cased copy of it) for every token.
+ * <p>
+ * Notes:
+ * 1. The equality is not symmetric (String.equals(TextWindow) is always false), so never use a TextWindow as a key to
+ * put into a map--only as a probe.
+ * 2. Case folding is done per char (Character#toLowerCase(char)), which is the same as String#toLowerCase for all
+ * the chars that do not change length or depend on context when lower-cased (e.g. the Turkish dotted I).
+ * 3. A TextWindow is mutable and is not thread-safe; each thread should use its own instance.
+ *
+ * @author Jianlin Shi
+ */
+public class TextWindow implements CharSequence {
+    protected CharSequence source;
+    protected int begin, end;
+    protected boolean lowerCase;
+    private int hash;
+
+    public TextWindow(CharSequence source, boolean lowerCase) {
+        this.source = source;
+        this.lowerCase = lowerCase;
+    }
+
+    public TextWindow set(int begin, int end) {
+        this.begin = begin;
+        this.end = end;
+        this.hash = 0;
+        return this;
+    }
+
+    public TextWindow set(CharSequence source, int begin, int end) {
+        this.source = source;
+        return set(begin, end);
+    }
+
+    public TextWindow setLowerCase(boolean lowerCase) {
+        this.lowerCase = lowerCase;
+        this.hash = 0;
+        return this;
+    }
+
+    public int getBegin() {
+        return begin;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public int length() {
+        return end - begin;
+    }
+
+    @Override
+    public char charAt(int index) {
+        char c = source.charAt(begin + index);
+        return lowerCase ? Character.toLowerCase(c) : c;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i = begin; i < end; i++) {
+                char c = source.charAt(i);
+                h = 31 * h + (lowerCase ? Character.toLowerCase(c) : c);
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof CharSequence))
+            return false;
+        CharSequence other = (CharSequence) obj;
+        int length = end - begin;
+        if (other.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) != other.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (!lowerCase)
+            return source.subSequence(begin, end).toString();
+        char[] chars = new char[end - begin];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = charAt(i);
+        return new String(chars);
+    }
+}
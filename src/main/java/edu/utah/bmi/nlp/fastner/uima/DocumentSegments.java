@@ -0,0 +1,73 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner.uima;
+
+import java.util.Arrays;
+
+/**
+ * The sentences of a document in document order, with the section each sentence belongs to. It is used to process a
+ * document in a single pass, and then to find the sentence/section of each match.
+ *
+ * @author Jianlin Shi
+ */
+public class DocumentSegments {
+    public int[] begins = new int[16];
+    public int[] ends = new int[16];
+    public String[] sections = new String[16];
+    //    whether the sentence is outside of the included sections (or inside the excluded ones)
+    public boolean[] outsiders = new boolean[16];
+    public int size = 0;
+
+    /**
+     * Add a segment after the existing ones
+     *
+     * @return false if the segment overlaps with the last one (then the segments cannot be used as barriers)
+     */
+    public boolean add(int begin, int end, String section, boolean outsider) {
+        if (size > 0 && begin < ends[size - 1])
+            return false;
+        if (size == begins.length) {
+            int capacity = size * 2;
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            sections = Arrays.copyOf(sections, capacity);
+            outsiders = Arrays.copyOf(outsiders, capacity);
+        }
+        begins[size] = begin;
+        ends[size] = end;
+        sections[size] = section;
+        outsiders[size] = outsider;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param position a text offset
+     * @return the index of the last segment that begins at or before the position, -1 if there is none
+     */
+    public int find(int position) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] <= position)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+}
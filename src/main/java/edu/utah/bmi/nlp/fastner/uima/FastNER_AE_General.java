@@ -17,8 +17,11 @@ package edu.utah.bmi.nlp.fastner.uima;
 
 import edu.utah.bmi.nlp.core.*;
 import edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants;
+import edu.utah.bmi.nlp.fastner.ConflictResolver;
 import edu.utah.bmi.nlp.fastner.FastNER;
+import edu.utah.bmi.nlp.fastner.FastNERRegistry;
 import edu.utah.bmi.nlp.fastner.FastRuleWOG;
+import edu.utah.bmi.nlp.fastner.SweepConflictResolver;
 import edu.utah.bmi.nlp.type.system.*;
 import edu.utah.bmi.nlp.uima.ae.RuleBasedAEInf;
 import edu.utah.bmi.nlp.uima.common.AnnotationComparator;
@@ -28,6 +31,7 @@ import org.apache.uima.analysis_component.JCasAnnotator_ImplBase;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.FSIndex;
 import org.apache.uima.examples.SourceDocumentInformation;
+import org.apache.uima.fit.descriptor.OperationalProperties;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.Annotation;
@@ -35,6 +39,8 @@ import org.apache.uima.jcas.tcas.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import static edu.utah.bmi.nlp.core.NERSpan.byRuleLength;
@@ -43,9 +49,13 @@ import static edu.utah.bmi.nlp.core.NERSpan.scorewidth;
 
 /**
  * This is a demo to use FastNER.java in UIMA AE. The type system is implemented through reflection.
+ * <p>
+ * Multiple instances of this AE can be deployed in one JVM (e.g. a CAS pool with N pipeline threads): the instances
+ * share one compiled (and sealed) engine through FastNERRegistry, and the engine keeps all its match state per thread.
  *
  * @author Jianlin Shi
  */
+@OperationalProperties(multipleDeploymentAllowed = true)
 public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBasedAEInf {
     public static Logger logger = IOUtil.getLogger(FastNER_AE_General.class);
 
@@ -60,6 +70,10 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
 
     public static final String PARAM_ASSIGN_SECTIONS = "AssignSections";
 
+    //    whether to skip the sentences outside of the included sections (or inside the excluded ones) entirely, instead
+//    of matching them and saving the matches as OutsideScopeConcept (default is false)
+    public static final String PARAM_SKIP_OUTSIDE_SECTIONS = "SkipOutsideSections";
+
     public static final String PARAM_RULE_STR = DeterminantValueSet.PARAM_RULE_STR;
     //    @ConfigurationParameter(name = PARAM_RULE_STR)
 //    protected String ruleFileName;
@@ -80,6 +94,22 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
     public static final String ADV_PARAM_SPAN_COMPARE_METHOD = "SpanCompareMethod";
     public static final String ADV_PARAM_WIDTH_COMPARE_METHOD = "WidthCompareMethod";
 
+    //    whether to share the compiled rules with the other AE instances in the same JVM that use the same rules and
+//    options (default is true). The shared engine is sealed, its setters throw once it is built. @see FastNERRegistry
+    public static final String PARAM_SHARE_COMPILED_RULES = "ShareCompiledRules";
+
+    //    whether to process the whole document in one pass, with the sentences as the boundaries that matches cannot
+//    cross (default is false: process sentence by sentence). It falls back to sentence by sentence if sentences overlap.
+    public static final String PARAM_DOCUMENT_SINGLE_PASS = "DocumentSinglePass";
+
+    //    split the inputs that are longer than 2 chunks (chars for FastCNER, tokens for FastNER) into chunks, and match
+//    them on the common ForkJoinPool (default is 0: do not split). Mostly useful with DocumentSinglePass on huge documents.
+    public static final String PARAM_PARALLEL_CHUNK_SIZE = "ParallelChunkSize";
+
+    //    resolve the overlaps across concepts: "none" (default), "leftmostlongest" or "bestscore" (by SpanCompareMethod
+//    and WidthCompareMethod). @see SweepConflictResolver
+    public static final String PARAM_CONFLICT_RESOLUTION = "ConflictResolution";
+
     //    @ConfigurationParameter(name = TOKEN_TYPE_NAME)
 //    protected String tokenTypeName;
 //    public static final String PARAM_CONCEPT_TYPE_NAME = "conceptTypeName";
@@ -100,9 +130,14 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
     protected HashMap<String, Class<? extends Concept>> ConceptTypes = new HashMap<>();
     protected HashMap<String, Constructor<? extends Concept>> ConceptTypeConstructors = new HashMap<>();
     protected boolean markPseudo = false, logRuleInfo = false;
-    protected boolean caseSenstive = true, forceAssignSections = true, assignSection = true;
-    private String spanCompareMethod = scorewidth;
-    private String widthCompareMethod = byRuleLength;
+    protected boolean caseSenstive = true, forceAssignSections = true, assignSection = true, skipOutsideSections = false;
+    protected String spanCompareMethod = scorewidth;
+    protected String widthCompareMethod = byRuleLength;
+    protected boolean shareCompiledRules = true, documentSinglePass = false;
+    protected int parallelChunkSize = 0;
+    protected String conflictResolution = "none";
+    //    the key of the shared engine in FastNERRegistry, null if the engine is not shared
+    protected String registryKey = null;
     @Deprecated
     protected boolean debug = false;
 
@@ -160,6 +195,10 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
         if (obj != null && obj instanceof Boolean && (Boolean) obj != true)
             forceAssignSections = false;
 
+        obj = cont.getConfigParameterValue(PARAM_SKIP_OUTSIDE_SECTIONS);
+        if (obj != null && obj instanceof Boolean && (Boolean) obj != false)
+            skipOutsideSections = true;
+
         obj = cont.getConfigParameterValue(ADV_PARAM_SPAN_COMPARE_METHOD);
         if (obj != null && obj instanceof String)
             spanCompareMethod = (String) obj;
@@ -168,6 +207,22 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
         if (obj != null && obj instanceof String)
             widthCompareMethod = (String) obj;
 
+        obj = cont.getConfigParameterValue(PARAM_SHARE_COMPILED_RULES);
+        if (obj != null && obj instanceof Boolean && (Boolean) obj != true)
+            shareCompiledRules = false;
+
+        obj = cont.getConfigParameterValue(PARAM_DOCUMENT_SINGLE_PASS);
+        if (obj != null && obj instanceof Boolean && (Boolean) obj != false)
+            documentSinglePass = true;
+
+        obj = cont.getConfigParameterValue(PARAM_PARALLEL_CHUNK_SIZE);
+        if (obj != null && obj instanceof Integer)
+            parallelChunkSize = (Integer) obj;
+
+        obj = cont.getConfigParameterValue(PARAM_CONFLICT_RESOLUTION);
+        if (obj != null && obj instanceof String)
+            conflictResolution = (String) obj;
+
         if (includeSections.size() == 0 && excludeSections.size() == 0)
             assignSection = false;
 
@@ -202,20 +257,63 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
     }
 
     protected LinkedHashMap<String, TypeDefinition> initFastNER(UimaContext cont, String ruleStr) {
-        fastNER = new FastNER(ruleStr, caseSenstive);
-        if (markPseudo)
-            fastNER.setRemovePseudo(false);
-        fastNER.setCompareMethod(this.spanCompareMethod);
-        fastNER.setWidthCompareMethod(this.widthCompareMethod);
+        fastNER = acquireFastNER(() -> {
+            FastNER fastNER = new FastNER(ruleStr, caseSenstive);
+            if (markPseudo)
+                fastNER.setRemovePseudo(false);
+            fastNER.setCompareMethod(this.spanCompareMethod);
+            fastNER.setWidthCompareMethod(this.widthCompareMethod);
+            fastNER.setParallelism(ForkJoinPool.commonPool(), parallelChunkSize);
+            fastNER.setConflictResolver(getConflictResolver());
+            return fastNER;
+        }, FastNER.class, ruleStr, caseSenstive, markPseudo, spanCompareMethod, widthCompareMethod, parallelChunkSize,
+                conflictResolution);
         return fastNER.getTypeDefinitions();
     }
 
+    protected ConflictResolver getConflictResolver() {
+        return SweepConflictResolver.getResolver(conflictResolution, spanCompareMethod, widthCompareMethod);
+    }
+
+    /**
+     * Get the engine from FastNERRegistry if the compiled rules are shared, otherwise build a private one.
+     *
+     * @param builder     build and configure the engine
+     * @param engineClass engine class
+     * @param ruleStr     rule file path, rule directory or rule string
+     * @param options     all the options used in the builder
+     * @param <T>         engine class
+     * @return the engine
+     */
+    protected <T extends FastNER> T acquireFastNER(Supplier<T> builder, Class<T> engineClass, String ruleStr, Object... options) {
+        if (!shareCompiledRules)
+            return builder.get();
+        registryKey = FastNERRegistry.getKey(engineClass, ruleStr, options);
+        return FastNERRegistry.acquire(registryKey, builder);
+    }
+
+    @Override
+    public void destroy() {
+        if (registryKey != null) {
+            FastNERRegistry.release(registryKey);
+            registryKey = null;
+        }
+        super.destroy();
+    }
+
 
     public void process(JCas jcas) throws AnalysisEngineProcessException {
         IntervalST<String> sectionTree = new IntervalST<>();
         int totalSections = 0;
         if (assignSection || forceAssignSections)
             totalSections = indexSections(jcas, sectionTree);
+        if (documentSinglePass) {
+            DocumentSegments segments = collectSegments(jcas, sectionTree, totalSections);
+            if (segments != null) {
+                processDocument(jcas, segments);
+                return;
+            }
+        }
         LinkedHashMap<String, ArrayList<Annotation>> sentences = new LinkedHashMap<>();
         ArrayList<Annotation> tokens = new ArrayList<>();
         FSIndex annoIndex = jcas.getAnnotationIndex(SentenceType);
@@ -254,13 +352,11 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
 
 //     Construct annotation_id-annotation_id map, easier and faster to find related annotations.
                 TreeMap<Integer, TreeSet<Integer>> sentence2TokenMap = new TreeMap<Integer, TreeSet<Integer>>();
+                boolean outsiders = isOutsider(sectionName);
+                if (outsiders && skipOutsideSections)
+                    continue;
                 AnnotationOper.buildAnnoMap(sentences.get(sectionName), tokens, sentence2TokenMap);
-                boolean outsiders = true;
-                if ((includeSections.size() == 0 && excludeSections.size() > 0 && !excludeSections.contains(sectionName))
-                        || (includeSections.size() > 0 && includeSections.contains(sectionName))
-                        || (includeSections.size() == 0 && excludeSections.size() == 0)) {
-                    outsiders = false;
-                }
+                String ruleScope = getRuleScope(sectionName);
 
 //        process each sentence that has at least one concept inside
                 for (Map.Entry<Integer, TreeSet<Integer>> sentence : sentence2TokenMap.entrySet()) {
@@ -270,7 +366,7 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
                     for (int tokenId : sentenceTokenIds) {
                         tokensInThisSentence.add(tokens.get(tokenId));
                     }
-                    HashMap<String, ArrayList<Span>> concepts = fastNER.processAnnotationList(tokensInThisSentence);
+                    HashMap<String, ArrayList<Span>> concepts = fastNER.processAnnotationList(tokensInThisSentence, ruleScope);
 //              store found concepts in annotation
                     if (concepts.size() > 0) {
                         if (outsiders)
@@ -305,6 +401,118 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
     }
 
 
+    /**
+     * Whether the concepts in this section should be saved as OutsideScopeConcept
+     *
+     * @param sectionName section short name
+     * @return true if the section is not included or is excluded
+     */
+    protected boolean isOutsider(String sectionName) {
+        return !((includeSections.size() == 0 && excludeSections.size() > 0 && !excludeSections.contains(sectionName))
+                || (includeSections.size() > 0 && includeSections.contains(sectionName))
+                || (includeSections.size() == 0 && excludeSections.size() == 0));
+    }
+
+    /**
+     * @param sectionName section short name of a sentence
+     * @return the section to select the section-scoped rules by (@see edu.utah.bmi.nlp.fastner.SectionScopedFastRule),
+     * null if the document has no section, then all the rules are active
+     */
+    protected String getRuleScope(String sectionName) {
+        return SourceDocumentInformation.class.getSimpleName().equals(sectionName) ? null : sectionName;
+    }
+
+    /**
+     * Collect the sentences in document order with their sections, in the same way as the sentence-by-sentence
+     * processing selects them.
+     *
+     * @return the segments, or null if there is no sentence or sentences overlap
+     */
+    protected DocumentSegments collectSegments(JCas jcas, IntervalST<String> sectionTree, int totalSections) {
+        DocumentSegments segments = new DocumentSegments();
+        FSIndex annoIndex = jcas.getAnnotationIndex(SentenceType);
+        Iterator annoIter = annoIndex.iterator();
+        int totalSentences = 0;
+        while (annoIter.hasNext()) {
+            Annotation sentence = (Annotation) annoIter.next();
+            totalSentences++;
+            String sectionName = sectionTree.get(new Interval1D(sentence.getBegin(), sentence.getEnd()));
+            if (sectionName == null) {
+                if (totalSections == 0)
+                    sectionName = SourceDocumentInformation.class.getSimpleName();
+                else
+                    continue;
+            }
+            boolean outsider = isOutsider(sectionName);
+            if (outsider && skipOutsideSections)
+                continue;
+            if (!segments.add(sentence.getBegin(), sentence.getEnd(), sectionName, outsider)) {
+                logger.fine("Sentences overlap, process sentence by sentence instead.");
+                return null;
+            }
+        }
+        return totalSentences == 0 ? null : segments;
+    }
+
+    /**
+     * Process all the sentences of the document in one pass: the token offsets are collected once, and the sentences
+     * are passed to the engine as token ranges, which matches cannot cross.
+     *
+     * @param jcas     JCas
+     * @param segments sentences in document order
+     */
+    protected void processDocument(JCas jcas, DocumentSegments segments) {
+        ArrayList<Annotation> tokens = new ArrayList<>();
+        FSIndex annoIndex = jcas.getAnnotationIndex(TokenType);
+        Iterator annoIter = annoIndex.iterator();
+        while (annoIter.hasNext()) {
+            tokens.add((Annotation) annoIter.next());
+        }
+        int size = tokens.size();
+        int[] begins = new int[size];
+        int[] ends = new int[size];
+        for (int i = 0; i < size; i++) {
+            begins[i] = tokens.get(i).getBegin();
+            ends[i] = tokens.get(i).getEnd();
+        }
+//        find the token range of each sentence by merging the two sorted lists
+        int[] segmentStarts = new int[segments.size];
+        int[] segmentEnds = new int[segments.size];
+        int t = 0;
+        for (int s = 0; s < segments.size; s++) {
+            while (t < size && begins[t] < segments.begins[s])
+                t++;
+            segmentStarts[s] = t;
+            while (t < size && ends[t] <= segments.ends[s])
+                t++;
+            segmentEnds[s] = t;
+        }
+        String[] ruleScopes = new String[segments.size];
+        for (int s = 0; s < segments.size; s++)
+            ruleScopes[s] = getRuleScope(segments.sections[s]);
+        HashMap<String, ArrayList<Span>> concepts = fastNER.processTokenSegments(jcas.getDocumentText(), begins, ends,
+                segmentStarts, segmentEnds, segments.size, ruleScopes);
+        saveSegmentConcepts(jcas, concepts, segments);
+    }
+
+    /**
+     * Save the concepts found in a single pass, each one is tagged with the section of the sentence it is found in.
+     */
+    protected void saveSegmentConcepts(JCas jcas, HashMap<String, ArrayList<Span>> concepts, DocumentSegments segments) {
+        for (Map.Entry<String, ArrayList<Span>> entry : concepts.entrySet()) {
+            for (Span span : entry.getValue()) {
+                int segment = segments.find(span.begin);
+                String sectionName = segments.sections[segment];
+                if (!segments.outsiders[segment])
+                    saveConcept(jcas, entry.getKey(), span, sectionName);
+                else if (logRuleInfo)
+                    saveOutsideScopeConcept(jcas, span, sectionName, getRuleInfo(span));
+                else
+                    saveOutsideScopeConcept(jcas, span, sectionName);
+            }
+        }
+    }
+
     protected void saveOutsideScopeConcepts(JCas jcas, HashMap<String, ArrayList<Span>> concepts, String sectionName) {
         for (ArrayList<Span> spans : concepts.values()) {
             for (Span span : spans) {
@@ -357,22 +565,25 @@ public class FastNER_AE_General extends JCasAnnotator_ImplBase implements RuleBa
         for (Map.Entry<String, ArrayList<Span>> entry : concepts.entrySet()) {
             for (Span span : entry.getValue()) {
 //                System.out.println(getSpanType(span));
-                String conceptTypeName = entry.getKey();
-                if (logRuleInfo) {
-                    String ruleInfor = getRuleInfo(span);
-                    if (getSpanType(span) == Determinants.ACTUAL) {
-                        saveConcept(jcas, ConceptTypeConstructors.get(conceptTypeName), span.begin, span.end, sectionName, ruleInfor);
-                    } else if (markPseudo) {
-                        savePseudoConcept(jcas, span, ruleInfor);
-                    }
+                saveConcept(jcas, entry.getKey(), span, sectionName);
+            }
+        }
+    }
 
-                } else {
-                    if (getSpanType(span) == Determinants.ACTUAL) {
-                        saveConcept(jcas, ConceptTypeConstructors.get(conceptTypeName), span.begin, span.end, sectionName);
-                    } else if (markPseudo) {
-                        savePseudoConcept(jcas, span);
-                    }
-                }
+    protected void saveConcept(JCas jcas, String conceptTypeName, Span span, String sectionName) {
+        if (logRuleInfo) {
+            String ruleInfor = getRuleInfo(span);
+            if (getSpanType(span) == Determinants.ACTUAL) {
+                saveConcept(jcas, ConceptTypeConstructors.get(conceptTypeName), span.begin, span.end, sectionName, ruleInfor);
+            } else if (markPseudo) {
+                savePseudoConcept(jcas, span, ruleInfor);
+            }
+
+        } else {
+            if (getSpanType(span) == Determinants.ACTUAL) {
+                saveConcept(jcas, ConceptTypeConstructors.get(conceptTypeName), span.begin, span.end, sectionName);
+            } else if (markPseudo) {
+                savePseudoConcept(jcas, span);
             }
         }
     }
@@ -0,0 +1,37 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.utah.bmi.nlp.fastcner;
+
+/**
+ * Creates the StartCharScanner for the running JVM: a VectorStartCharScanner when the jdk.incubator.vector module is
+ * present (the JVM is started with --add-modules jdk.incubator.vector) and the set of start chars is small enough,
+ * otherwise the portable scanner.
+ *
+ * @author Jianlin Shi
+ */
+public class StartCharScanners {
+    private static final boolean VECTOR_MODULE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    public static StartCharScanner create(char[] startChars) {
+        if (VECTOR_MODULE && startChars.length > 0 && startChars.length <= VectorStartCharScanner.MAX_START_CHARS)
+            return new VectorStartCharScanner(startChars);
+        return new StartCharScanner(startChars);
+    }
+
+    public static boolean isVectorized() {
+        return VECTOR_MODULE;
+    }
+}
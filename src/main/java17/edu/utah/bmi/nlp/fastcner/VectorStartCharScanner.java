@@ -0,0 +1,55 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.utah.bmi.nlp.fastcner;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares a whole vector of chars (8 to 32, depending on the CPU) with each start char per step, and falls back to
+ * the portable scan for the tail.
+ *
+ * @author Jianlin Shi
+ */
+public class VectorStartCharScanner extends StartCharScanner {
+    //    beyond this, one compare per start char costs more than the bitmap lookups it saves
+    public static final int MAX_START_CHARS = 16;
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private final short[] targets;
+
+    public VectorStartCharScanner(char[] startChars) {
+        super(startChars);
+        targets = new short[startChars.length];
+        for (int i = 0; i < startChars.length; i++)
+            targets[i] = (short) startChars[i];
+    }
+
+    @Override
+    public int next(char[] chars, int from, int to) {
+        int i = from;
+        int bound = to - SPECIES.length();
+        for (; i <= bound; i += SPECIES.length()) {
+            ShortVector block = ShortVector.fromCharArray(SPECIES, chars, i);
+            VectorMask<Short> hits = block.eq(targets[0]);
+            for (int t = 1; t < targets.length; t++)
+                hits = hits.or(block.eq(targets[t]));
+            if (hits.anyTrue())
+                return i + hits.firstTrue();
+        }
+        return super.next(chars, i, to);
+    }
+}
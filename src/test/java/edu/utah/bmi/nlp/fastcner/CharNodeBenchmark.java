@@ -0,0 +1,118 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastner.FastRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.logging.Level;
+
+import static edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants.ACTUAL;
+
+/**
+ * Reports the size and the lookup speed of the compiled CharNodes against the HashMaps of the same char rules, and the
+ * speed of FastCRule with them. Not a unit test, run the main method.
+ *
+ * @author Jianlin Shi
+ */
+public class CharNodeBenchmark {
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        HashMap<Integer, Rule> rules = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder term = new StringBuilder();
+            int length = 4 + random.nextInt(10);
+            for (int k = 0; k < length; k++)
+                term.append(LETTERS.charAt(random.nextInt(i % 3 == 0 ? 26 : 8)));
+            rules.put(i, new Rule(i, term.toString(), "Term", 0, ACTUAL));
+        }
+        rules.put(20000, new Rule(20000, "\\d+\\s+mg", "Dose", 0, ACTUAL));
+        rules.put(20001, new Rule(20001, "temp\\s+(\\d+.\\d)", "Temperature", 0, ACTUAL));
+
+        long before = usedMemory();
+        FastCRule fastCRule = new FastCRule(rules);
+        long total = usedMemory() - before;
+        FastRule.logger.setLevel(Level.WARNING);
+        before = usedMemory();
+        CharNode nodes = CharNode.compile(fastCRule.root.map, fastCRule.END);
+        long compact = usedMemory() - before;
+        int[] counts = nodes.count();
+        System.out.printf("%d rules, %d nodes, %d children%n", rules.size(), counts[0], counts[1]);
+//        rough heap deltas: the rest of the engine is mostly the HashMaps of the rules map
+        System.out.printf("FastCRule without CharNodes ~%.1f MB, CharNodes ~%.1f MB%n", (total - compact) / 1e6,
+                compact / 1e6);
+
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1_000_000)
+            sb.append(LETTERS.charAt(random.nextInt(8))).append(random.nextInt(20) == 0 ? " 12 mg " : "");
+        char[] chars = sb.toString().toCharArray();
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long mapSteps = walkMaps(nodes.map, chars);
+            double mapTime = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            long nodeSteps = walkNodes(nodes, chars);
+            double nodeTime = (System.nanoTime() - start) / 1e9;
+            System.out.printf("round %d\tHashMap %.1f M lookups/s\tCharNode %.1f M lookups/s (%d lookups)%n", round,
+                    mapSteps / mapTime / 1e6, nodeSteps / nodeTime / 1e6, nodeSteps);
+        }
+        String text = sb.toString();
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            HashMap<String, ArrayList<Span>> matches = fastCRule.processString(text);
+            System.out.printf("round %d\tFastCRule %.1f ms\t%d terms%n", round, (System.nanoTime() - start) / 1e6,
+                    matches.get("Term").size());
+        }
+    }
+
+    //    follow the literal children from every position, as the rule walk does
+    private static long walkMaps(HashMap root, char[] chars) {
+        long steps = 0;
+        for (int i = 0; i < chars.length; i++) {
+            HashMap node = root;
+            for (int p = i; p < chars.length && node != null; p++) {
+                steps++;
+                node = (HashMap) node.get(chars[p]);
+            }
+        }
+        return steps;
+    }
+
+    private static long walkNodes(CharNode root, char[] chars) {
+        long steps = 0;
+        for (int i = 0; i < chars.length; i++) {
+            CharNode node = root;
+            for (int p = i; p < chars.length && node != null; p++) {
+                steps++;
+                node = node.step(chars[p]);
+            }
+        }
+        return steps;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
@@ -454,6 +455,220 @@ public class FastCNERTest extends TestCase {
         assertEquals(1, result.get("Fever_present").size());
     }
 
+    public void testProcessSegments() {
+        String rule = "@fastcner\n" +
+                "\\b(\\c+)\\e	0	Word\n" +
+                "(fever)\\p\\s+(emboli)	0	Cross\n" +
+                "\\d+\\s+days	0	Duration\n" +
+                "\\b(no)\\s+\\c+	0	Negated\n";
+        String text = "no fever. emboli 3 days ago.\nfever\nNo chest pain 10 days";
+        int[] begins = new int[]{0, 10, 29, 35};
+        int[] ends = new int[]{9, 28, 34, 56};
+        FastCNER fcrp = new FastCNER(rule);
+        fcrp.setReplicationSupport(true);
+        HashMap<String, ArrayList<Span>> expected = new HashMap<>();
+        for (int i = 0; i < begins.length; i++) {
+            HashMap<String, ArrayList<Span>> sentenceResult = fcrp.processSpan(new Span(begins[i], ends[i], text.substring(begins[i], ends[i])));
+            for (Map.Entry<String, ArrayList<Span>> ent : sentenceResult.entrySet()) {
+                if (!expected.containsKey(ent.getKey()))
+                    expected.put(ent.getKey(), new ArrayList<>());
+                expected.get(ent.getKey()).addAll(ent.getValue());
+            }
+        }
+        HashMap<String, ArrayList<Span>> result = fcrp.processSegments(text, begins, ends, begins.length);
+        printMatches(result, text);
+        assertFalse(result.containsKey("Cross"));
+        assertEquals(expected.keySet(), result.keySet());
+        for (String concept : expected.keySet()) {
+            assertTrue(evalMatch(result.get(concept), expected.get(concept).toArray(new Span[0])));
+            for (Span span : result.get(concept))
+                assertEquals(text.substring(span.begin, span.end), span.text);
+        }
+        assertTrue(evalMatch(result.get("Word"), new Span[]{new Span(29, 34)}));
+        assertTrue(evalMatch(result.get("Duration"), new Span[]{new Span(17, 23), new Span(49, 56)}));
+    }
+
+    public void testParallelChunks() {
+        String rule = "@fastcner\n" +
+                "\\b(\\c+)\\s	0	Word\n" +
+                "pulmonary\\s+emboli	0	Concept\n" +
+                "emboli\\s+protocol	0	Concept\n" +
+                "\\d+\\s+days	0	Duration\n" +
+                "\\b(no)\\s+\\c+	0	Negated\n";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            sb.append("No fever ").append(i).append(" days. Positive for pulmonary   emboli protocol.\n");
+        String text = sb.toString();
+        FastCNER fcrp = new FastCNER(rule);
+        fcrp.setReplicationSupport(true);
+        HashMap<String, ArrayList<Span>> expected = fcrp.processString(text);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+//            chunks much shorter than the matches
+            for (int chunkSize : new int[]{3, 17, 1000}) {
+                fcrp.setParallelism(pool, chunkSize);
+                HashMap<String, ArrayList<Span>> result = fcrp.processString(text);
+                assertEquals(expected.keySet(), result.keySet());
+                for (String concept : expected.keySet()) {
+                    assertEquals(expected.get(concept).size(), result.get(concept).size());
+                    for (int i = 0; i < expected.get(concept).size(); i++) {
+                        Span a = expected.get(concept).get(i), b = result.get(concept).get(i);
+                        assertEquals(a.begin + "-" + a.end + ":" + a.ruleId, b.begin + "-" + b.end + ":" + b.ruleId);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(200, expected.get("Duration").size());
+    }
+
+    public void testLazySpanText() {
+        String rule = "@fastcner\n" +
+                "\\d+\\s+days	0	Duration\n";
+        FastCNER fcrp = new FastCNER(rule);
+        fcrp.setReplicationSupport(true);
+        fcrp.setLazySpanText(true);
+        HashMap<String, ArrayList<Span>> result = fcrp.processSpan(new Span(10, 40, "Fever 3 days, cough 12 days"));
+        ArrayList<Span> spans = result.get("Duration");
+        assertEquals(2, spans.size());
+        assertNull(spans.get(1).text);
+        assertEquals(30, spans.get(1).begin);
+        assertEquals("12 days", spans.get(1).getText());
+        assertEquals("3 days", spans.get(0).getText());
+        assertEquals(spans.get(1).end - spans.get(1).begin + 1, spans.get(1).width);
+    }
+
+    public void testBranchPruning() {
+        String rule = "@fastcner\n" +
+                "pulmonary\\s+emboli\t2\tConcept\n" +
+                "pulmonary\\s+emboli\\s+protocol\t1\tConcept\n" +
+                "emboli\t1\tConcept\n" +
+                "emboli\\s+\\c+\t3\tConcept\n" +
+                "monary\t0\tConcept\n" +
+                "\\d+\\s+days\t0\tDuration\n" +
+                "\\d\\s+day\t1\tDuration\n" +
+                "\\b(no)\\s+\\c+\t0\tNegated\n";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            sb.append("No fever ").append(i).append(" days. Positive for pulmonary   emboli protocol, emboli.\n");
+        String text = sb.toString();
+        for (String method : new String[]{"score", "width"}) {
+            FastCNER fcrp = new FastCNER(rule);
+            fcrp.setReplicationSupport(true);
+            fcrp.setCompareMethod(method);
+            HashMap<String, ArrayList<Span>> expected = fcrp.processString(text);
+            fcrp.setBranchPruning(true);
+            HashMap<String, ArrayList<Span>> result = fcrp.processString(text);
+            assertEquals(expected.keySet(), result.keySet());
+            for (String concept : expected.keySet()) {
+                assertEquals(expected.get(concept).size(), result.get(concept).size());
+                for (int i = 0; i < expected.get(concept).size(); i++) {
+                    Span a = expected.get(concept).get(i), b = result.get(concept).get(i);
+                    assertEquals(a.begin + "-" + a.end + ":" + a.ruleId, b.begin + "-" + b.end + ":" + b.ruleId);
+                }
+            }
+        }
+    }
+
+    public void testRepeatClamp() {
+        String rule = "@fastcner\n" +
+                "a\\d+b\t0\tNumber\n" +
+                "x+y\t0\tRepeat\n";
+        FastCNER fcrp = new FastCNER(rule);
+        fcrp.setReplicationSupport(true);
+        fcrp.setMaxRepeatLength(3);
+        String text = "a123b a12345b xxxy xxxxxy";
+        HashMap<String, ArrayList<Span>> result = fcrp.processString(text);
+        assertTrue(evalMatch(result.get("Number"), new Span[]{new Span(0, 5)}));
+        assertTrue(evalMatch(result.get("Repeat"), new Span[]{new Span(14, 18), new Span(20, 25)}));
+//        a run stops at the segment limit
+        result = fcrp.processSegments(text, new int[]{0, 9}, new int[]{8, 25}, 2);
+        assertTrue(evalMatch(result.get("Number"), new Span[]{new Span(0, 5)}));
+        fcrp.setMaxRepeatLength(30);
+        result = fcrp.processSegments(text, new int[]{0, 9}, new int[]{8, 25}, 2);
+        assertTrue(evalMatch(result.get("Number"), new Span[]{new Span(0, 5)}));
+        result = fcrp.processString(text);
+        assertTrue(evalMatch(result.get("Number"), new Span[]{new Span(0, 5), new Span(6, 13)}));
+        assertTrue(evalMatch(result.get("Repeat"), new Span[]{new Span(14, 18), new Span(19, 25)}));
+    }
+
+    public void testLiteralPrefilter() {
+        String rule = "@fastcner\n" +
+                "pulmonary\\s+emboli\t2\tConcept\n" +
+                "(\\C\\c+)\\s+emboli\t1\tConcept\n" +
+                "T\\s+1\\d\\d.\\d\t0\tFever\n" +
+                "\\d+\\s+days\t0\tDuration\n" +
+                "\\b(no)\\s+\\c+\t0\tNegated\n" +
+                "\\(\\d+\\)mg\t0\tDose\n" +
+                "x+y\t0\tRepeat\n";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            sb.append("no fever ").append(i).append(" days, T 10").append(i % 10).append(".5, xxxxy (12)mg \\d")
+                    .append(" Pulmonary   emboli.\n");
+        String text = sb.toString();
+        FastCNER fcrp = new FastCNER(rule);
+        fcrp.setReplicationSupport(true);
+        fcrp.setMaxRepeatLength(3);
+        fcrp.setLiteralPrefiltering(false);
+        HashMap<String, ArrayList<Span>> expected = fcrp.processString(text);
+        fcrp.setLiteralPrefiltering(true);
+        HashMap<String, ArrayList<Span>> result = fcrp.processString(text);
+        assertEquals(expected.keySet(), result.keySet());
+        for (String concept : expected.keySet()) {
+            assertEquals(expected.get(concept).size(), result.get(concept).size());
+            for (int i = 0; i < expected.get(concept).size(); i++) {
+                Span a = expected.get(concept).get(i), b = result.get(concept).get(i);
+                assertEquals(a.begin + "-" + a.end + ":" + a.ruleId, b.begin + "-" + b.end + ":" + b.ruleId);
+            }
+        }
+        assertEquals(50, result.get("Fever").size());
+        assertEquals(50, result.get("Dose").size());
+    }
+
+    public void testLiteralPrefilterChunks() {
+//        the literal after a number run that crosses the chunk boundaries has to be found from the earlier chunks
+        String[][] cases = {{"@fastcner\n\\d+kg\t0\tWeight\n", "weight 12345kg today, 3kg"},
+                {"@fastcner\n\\pa\t0\tA\na\\C(\\s)\\d+\\s\t0\tB\n", ".a"}};
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String[] ruleText : cases) {
+                FastCNER fcrp = new FastCNER(ruleText[0]);
+                fcrp.setReplicationSupport(true);
+                fcrp.setLiteralPrefiltering(false);
+                HashMap<String, ArrayList<Span>> expected = fcrp.processString(ruleText[1]);
+                assertFalse(expected.isEmpty());
+                fcrp.setLiteralPrefiltering(true);
+                for (int chunkSize : new int[]{1, 2, 4}) {
+                    fcrp.setParallelism(pool, chunkSize);
+                    HashMap<String, ArrayList<Span>> result = fcrp.processString(ruleText[1]);
+                    assertEquals(expected.keySet(), result.keySet());
+                    for (String concept : expected.keySet()) {
+                        assertEquals(expected.get(concept).size(), result.get(concept).size());
+                        for (int i = 0; i < expected.get(concept).size(); i++) {
+                            Span a = expected.get(concept).get(i), b = result.get(concept).get(i);
+                            assertEquals(a.begin + "-" + a.end, b.begin + "-" + b.end);
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testReleaseLargeBuffers() {
+        FastCRule fastCRule = (FastCRule) new FastCNER("@fastcner\nfever\t0\tConcept\n").fastRule;
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= FastCRule.MAX_RETAINED_BUFFER)
+            sb.append("no fever today. ");
+        assertEquals(sb.length() / 16, fastCRule.processString(sb.toString()).get("Concept").size());
+//        the scratch buffers of a very large text are not kept on the thread
+        assertEquals(0, fastCRule.matchStates.get().chars.length);
+        fastCRule.processString("no fever today.");
+        assertEquals(15, fastCRule.matchStates.get().chars.length);
+    }
+
     private void printMatches(HashMap<String, ArrayList<Span>> result, String input) {
         logger.finest("Results for: " + input);
         for (Map.Entry<String, ArrayList<Span>> ent : result.entrySet()) {
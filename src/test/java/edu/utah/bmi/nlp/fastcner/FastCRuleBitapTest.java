@@ -0,0 +1,103 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants;
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.fastner.MatchStrings;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class FastCRuleBitapTest {
+
+    private HashMap<Integer, Rule> getRules(String... rules) {
+        HashMap<Integer, Rule> ruleStore = new HashMap<>();
+        for (int i = 0; i < rules.length; i++) {
+            String[] cells = rules[i].split("\t");
+            ruleStore.put(i, new Rule(i, cells[0], cells[2], Double.parseDouble(cells[1]),
+                    cells.length > 3 ? Determinants.valueOf(cells[3]) : Determinants.ACTUAL));
+        }
+        return ruleStore;
+    }
+
+    @Test
+    public void sameAsFastCRule() {
+        HashMap<Integer, Rule> rules = getRules(
+                "\\d\\d/\\d\\d/\\d\\d\\d\\d\t1\tDate",
+                "\\d/\\d\\d/\\d\\d\\d\\d\t1\tDate",
+                "\\d\\d/\\d\\d\t0\tDate",
+                "\\d\\d\\d/\\d\\d\t2\tBP",
+                "\\d\\d/\\d\\d\t1\tBP",
+                "bp\\s\\d\t0\tBP\tPSEUDO",
+                "MRN\\p\\s\\d\\d\\d\\d\\d\\d\t1\tMRN",
+                "\\C\\C\\C\\p\t0\tMRN",
+                "\\a\\a\\u\t0\tOther",
+                "\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\\c\t0\tLong",
+                "°\\w\\(\t0\tOther",
+                "\\+\\\\x\t0\tOther");
+        assertTrue(FastCRuleBitap.qualifies(rules));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            sb.append("Seen 03/12/2019 and 3/12/2019, bp 120/80 and 99/60. MRN: 123456 ABC; 37°C (°\t( +\\x ")
+                    .append("abcdefghijklmnopqrstuvwxyzabcdefghijklmnop ").append(i).append("\n");
+        String text = sb.toString();
+//        Seen 03/12/2019 and 3/12/2019, bp 120/80 and 99/60: the overlaps are only resolved within a concept
+        assertEquals("BP:5-10;BP:22-27;BP:34-40;BP:45-50;Date:5-15;Date:20-29;Date:35-40;Date:45-50;",
+                MatchStrings.toOffsets(new FastCRuleBitap(rules).processString(text.substring(0, 51))));
+        for (String method : new String[]{"width", "score", "scorewidth", "widthscore"}) {
+            FastCRule expected = new FastCRule(rules);
+            FastCRuleBitap bitap = new FastCRuleBitap(rules);
+            assertTrue(bitap.isCompiled());
+            expected.setCompareMethod(method);
+            bitap.setCompareMethod(method);
+            String expectedStr = MatchStrings.toString(expected.processString(text));
+            assertTrue(expectedStr.contains("Long:"));
+            assertEquals(expectedStr, MatchStrings.toString(bitap.processString(text)));
+            bitap.setParallelism(ForkJoinPool.commonPool(), 37);
+            assertEquals(expectedStr, MatchStrings.toString(bitap.processString(text)));
+            bitap.setParallelism(null, 0);
+            assertEquals(MatchStrings.toString(expected.processString(text.substring(0, 100), 7)),
+                    MatchStrings.toString(bitap.processString(text.substring(0, 100), 7)));
+            expected.setRemovePseudo(false);
+            bitap.setRemovePseudo(false);
+            assertEquals(MatchStrings.toString(expected.processSegments(text, new int[]{0, 40, 300}, new int[]{30, 250, 900}, 3)),
+                    MatchStrings.toString(bitap.processSegments(text, new int[]{0, 40, 300}, new int[]{30, 250, 900}, 3)));
+        }
+    }
+
+    @Test
+    public void fallback() {
+        assertFalse(FastCRuleBitap.qualifies(getRules("\\d+\\s+days\t0\tDuration")));
+        assertFalse(FastCRuleBitap.qualifies(getRules("\\b(no)\\s\\c\t0\tNegated")));
+        assertFalse(FastCRuleBitap.qualifies(getRules("\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d" +
+                "\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d" +
+                "\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\\d\t0\tLong")));
+        FastCRuleBitap bitap = new FastCRuleBitap(getRules("\\d+\\s+days\t0\tDuration"));
+        bitap.setReplicationSupport(true);
+        assertFalse(bitap.isCompiled());
+        assertEquals(1, bitap.processString("fever 3  days").get("Duration").size());
+        FastCNER fastCNER = new FastCNER("@fastcner\n\\d\\d/\\d\\d\t0\tDate\n");
+        assertEquals(1, fastCNER.processString("on 12/03").get("Date").size());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.core.Rule;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants.ACTUAL;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class LiteralPrefilterTest {
+
+    private FastCRule compile(String... rules) {
+        HashMap<Integer, Rule> ruleStore = new HashMap<>();
+        for (int i = 0; i < rules.length; i++)
+            ruleStore.put(i, new Rule(i, rules[i], "C", 0, ACTUAL));
+        return new FastCRule(ruleStore);
+    }
+
+    @Test
+    public void factors() {
+        FastCRule rule = compile("\\d+\\s+mg", "temp\\s+\\d", "(bp)\\s+\\d+");
+        LiteralPrefilter prefilter = rule.literalPrefilter;
+        assertNotNull(prefilter);
+        assertEquals(3, prefilter.getFactorCount());
+//        a rule without a literal disables the prefilter
+        assertNull(compile("\\d+\\s+mg", "\\C\\c+").literalPrefilter);
+    }
+
+    @Test
+    public void mark() {
+        LiteralPrefilter prefilter = compile("\\d+\\s+mg", "temp").literalPrefilter;
+        char[] chars = "take 10 mg; temp high".toCharArray();
+        int[] marks = new int[chars.length + 1];
+        prefilter.mark(chars, 0, chars.length, chars.length, 3, marks);
+        for (int i = 0; i < chars.length; i++) {
+//            "mg" at 8: a match can start from anywhere before it, up to 8 - 2 (a digit and a space)
+            boolean expected = (i >= 0 && i <= 6) || i == 12;
+            assertEquals("position " + i, expected, marks[i] > 0);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jianlin Shi
+ */
+public class OverlapIndexTest {
+
+    @Test
+    public void leftToRight() {
+        OverlapIndex index = new OverlapIndex();
+        for (int i = 0; i < 100; i++)
+            index.add(i * 10, i * 10 + 5, i);
+        assertEquals(100, index.size());
+        assertEquals(-1, index.find(5, 10));
+        assertEquals(-1, index.find(995, 1000));
+        assertEquals(3, index.getPosition(index.find(34, 36)));
+        assertEquals(3, index.getPosition(index.find(26, 31)));
+//        the leftmost one if overlaps with several
+        assertEquals(3, index.getPosition(index.find(33, 52)));
+        index.clear();
+        assertEquals(-1, index.find(0, 1000));
+    }
+
+    @Test
+    public void outOfOrder() {
+        OverlapIndex index = new OverlapIndex();
+        index.add(20, 30, 0);
+        index.add(0, 50, 1);
+        index.add(5, 8, 2);
+        assertEquals(1, index.getPosition(index.find(40, 45)));
+        assertEquals(1, index.getPosition(index.find(1, 2)));
+        int slot = index.find(0, 10);
+        assertEquals(1, index.getPosition(slot));
+        index.replace(slot, 0, 4, 1);
+        assertEquals(2, index.getPosition(index.find(6, 25)));
+        assertEquals(-1, index.find(30, 45));
+        assertEquals(0, index.getPosition(index.find(29, 45)));
+        assertEquals(3, index.size());
+    }
+}
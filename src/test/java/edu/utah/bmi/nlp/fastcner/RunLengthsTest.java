@@ -0,0 +1,58 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Jianlin Shi
+ */
+public class RunLengthsTest {
+
+    @Test
+    public void runs() {
+        char[] chars = "ab123  4xxy".toCharArray();
+        RunLengths runLengths = new RunLengths();
+        runLengths.reset(chars, 0, chars.length);
+        int[] digits = runLengths.get(RunLengths.slotOf('d'), c -> Character.isDigit((char) c));
+        assertArrayEquals(new int[]{0, 0, 3, 2, 1, 0, 0, 1, 0, 0, 0, 0}, digits);
+        int[] same = runLengths.get(RunLengths.SAME, null);
+        assertEquals(2, same[5]);
+        assertEquals(2, same[8]);
+        assertEquals(1, same[10]);
+//        computed once per segment
+        assertSame(digits, runLengths.get(RunLengths.slotOf('d'), c -> false));
+        assertEquals(-1, RunLengths.slotOf('b'));
+    }
+
+    @Test
+    public void segment() {
+        char[] chars = "12345 678".toCharArray();
+        RunLengths runLengths = new RunLengths();
+        runLengths.reset(chars, 1, 3);
+        int[] digits = runLengths.get(RunLengths.slotOf('d'), c -> Character.isDigit((char) c));
+        assertEquals(2, digits[1]);
+        assertEquals(1, digits[2]);
+        runLengths.reset(chars, 6, 9);
+        digits = runLengths.get(RunLengths.slotOf('d'), c -> Character.isDigit((char) c));
+        assertEquals(3, digits[6]);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastner.FastRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+
+/**
+ * Compares the portable start char scan with the one that StartCharScanners picks for this JVM, on ASCII clinical
+ * text, and then the whole FastCNER matching with each. Not a unit test: the vectorized scanner only exists in the
+ * multi-release jar, so run it against the packaged jar on JDK 17+, e.g.
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp target/fastner-[version].jar:target/test-classes:[dependencies] \
+ *     edu.utah.bmi.nlp.fastcner.StartCharScanBenchmark
+ * </pre>
+ *
+ * @author Jianlin Shi
+ */
+public class StartCharScanBenchmark {
+    private static final String[] SENTENCES = {
+            "Patient is a 67 year old male with history of hypertension and hyperlipidemia.",
+            "He denies chest pain, shortness of breath, nausea or vomiting.",
+            "Vital signs: temp 98.6 F, bp 132/84, pulse 78, resp 16, sat 97% on room air.",
+            "Lungs clear to auscultation bilaterally, no wheezes, rales or rhonchi.",
+            "Continue lisinopril 20 mg daily and atorvastatin 40 mg at bedtime.",
+            "Follow up in clinic in 3 months or sooner if symptoms recur."};
+
+    public static void main(String[] args) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 2_000_000; i++)
+            sb.append(SENTENCES[i % SENTENCES.length]).append(' ');
+        String text = sb.toString();
+        char[] chars = text.toCharArray();
+        char[] starts = {'%', '/', 'F'};
+        StartCharScanner portable = new StartCharScanner(starts);
+        StartCharScanner picked = StartCharScanners.create(starts);
+        System.out.println("Text: " + chars.length + " chars. Picked scanner: " + picked.getClass().getSimpleName());
+        for (int round = 0; round < 5; round++) {
+            System.out.printf("round %d\tportable %.1f ms\tpicked %.1f ms%n", round, scan(portable, chars),
+                    scan(picked, chars));
+        }
+
+        String rules = "@fastcner\n" +
+                "temp\\s+\\d+.\\d+\\s+F\t0\tTemperature\n" +
+                "bp\\s+\\d+/\\d+\t0\tBloodPressure\n" +
+                "\\d+%\t0\tSaturation\n" +
+                "\\d+\\s+mg\t0\tDose\n";
+        FastCNER fastCNER = new FastCNER(rules);
+        fastCNER.setReplicationSupport(true);
+        FastRule.logger.setLevel(Level.WARNING);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            HashMap<String, ArrayList<Span>> matches = fastCNER.processString(text);
+            System.out.printf("round %d\tFastCNER %.1f ms\t%d doses%n", round, (System.nanoTime() - start) / 1e6,
+                    matches.get("Dose").size());
+        }
+    }
+
+    private static double scan(StartCharScanner scanner, char[] chars) {
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int repeat = 0; repeat < 20; repeat++) {
+            for (int i = scanner.next(chars, 0, chars.length); i < chars.length;
+                 i = scanner.next(chars, i + 1, chars.length))
+                hits++;
+        }
+        if (hits == 0)
+            System.out.println("no hit");
+        return (System.nanoTime() - start) / 1e6 / 20;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastcner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jianlin Shi
+ */
+public class StartCharScannerTest {
+
+    @Test
+    public void next() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append("patient denies any pain, ");
+        sb.append("temp 101.5 F, bp 120/80 中");
+        char[] chars = sb.toString().toCharArray();
+        char[] starts = {'t', 'b', '中'};
+        StartCharScanner expected = new StartCharScanner(starts);
+        StartCharScanner scanner = StartCharScanners.create(starts);
+        for (int from = 0; from <= chars.length; from += 7) {
+            for (int to : new int[]{from, Math.min(chars.length, from + 5), chars.length})
+                assertEquals(expected.next(chars, from, to), scanner.next(chars, from, to));
+        }
+        int position = chars.length - 25;
+        assertEquals(position, scanner.next(chars, 2500, chars.length));
+        assertEquals(chars.length - 1, scanner.next(chars, position + 15, chars.length));
+        assertEquals(chars.length, new StartCharScanner(new char[0]).next(chars, 0, chars.length));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static edu.utah.bmi.nlp.core.NERSpan.widthOnly;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class ConceptCountTest {
+    private static final String RULES = "@fastner\n" +
+            "mass of the left lung\t1\tFinding\tACTUAL\n" +
+            "no mass\t2\tFinding\tPSEUDO\n" +
+            "\\w+ of the liver\t0\tContext\tACTUAL\n" +
+            "\\( \\w+ \\) of the left lung\t0\tOrgan\tACTUAL\n" +
+            "\\> 3 mg of aspirin\t1\tDose\tACTUAL\n" +
+            "5 mg of heparin\t1\tDose\tACTUAL\n";
+
+    private static final List<String> CONCEPTS = Arrays.asList("Finding", "Context", "Organ", "Dose", "Unknown");
+
+    private final String text = "A mass of the left lung , no mass of the left lung , no mass of the liver , " +
+            "take 5 mg of aspirin and 5 mg of heparin , 5 mg of heparin .";
+
+    @Test
+    public void tokenCounts() {
+        ArrayList<Span> tokens = tokens(text);
+        FastNER fastNER = new FastNER(RULES);
+        assertArrayEquals(sizes(fastNER.processSpanList(tokens)), fastNER.countConcepts(tokens, CONCEPTS));
+        assertArrayEquals(new int[]{1, 1, 2, 3, 0}, fastNER.countConcepts(tokens, CONCEPTS));
+        assertArrayEquals(sizes(fastNER.processSpanList(tokens)), countOffsets(fastNER));
+
+        fastNER.setRemovePseudo(false);
+        assertArrayEquals(sizes(fastNER.processSpanList(tokens)), fastNER.countConcepts(tokens, CONCEPTS));
+        fastNER.setRemovePseudo(true);
+        fastNER.setCompareMethod(widthOnly);
+        assertArrayEquals(sizes(fastNER.processSpanList(tokens)), fastNER.countConcepts(tokens, CONCEPTS));
+
+        fastNER = new FastNER(RULES);
+        fastNER.setParallelism(ForkJoinPool.commonPool(), 4);
+        assertArrayEquals(sizes(fastNER.processSpanList(tokens)), countOffsets(fastNER));
+//        the counts are the sizes of the resolved spans if a ConflictResolver is set
+        fastNER.setConflictResolver(new SweepConflictResolver());
+        assertArrayEquals(sizes(fastNER.processSpanList(tokens)), fastNER.countConcepts(tokens, CONCEPTS));
+
+        FastNER partitioned = FastNER.createPartitioned(RULES, false);
+        assertArrayEquals(sizes(partitioned.processSpanList(tokens)), partitioned.countConcepts(tokens, CONCEPTS));
+        FastNER view = new FastNER(RULES).withConcepts(new HashSet<>(Arrays.asList("Dose", "Organ")));
+        assertArrayEquals(new int[]{0, 0, 2, 3, 0}, view.countConcepts(tokens, CONCEPTS));
+    }
+
+    @Test
+    public void tokenPresence() {
+        FastNER fastNER = new FastNER(RULES);
+//        the only finding is removed by the pseudo rule that overlaps it
+        ArrayList<Span> tokens = tokens("no mass of the left lung , 5 mg of heparin .");
+        assertArrayEquals(new boolean[]{false, true}, fastNER.containsConcepts(tokens, Arrays.asList("Finding", "Dose")));
+        assertFalse(fastNER.containsAny(tokens, Arrays.asList("Finding", "Context")));
+        assertTrue(fastNER.containsAny(tokens, Arrays.asList("Finding", "Dose")));
+
+//        the matching stops after the first dose
+        ConceptCounter counter = fastNER.count(tokens(text), ConceptCounter.presence(Arrays.asList("Dose")));
+        assertTrue(counter.isComplete());
+        assertArrayEquals(new int[]{1}, counter.getCounts());
+        counter = fastNER.count(tokens(text), ConceptCounter.presence(Arrays.asList("Dose", "Unknown")));
+        assertFalse(counter.isComplete());
+        assertArrayEquals(new int[]{3, 0}, counter.getCounts());
+    }
+
+    @Test
+    public void charCounts() {
+        String rules = "@fastcner\n" +
+                "pneumonia\t1\tFinding\n" +
+                "no pneumonia\t2\tFinding\tPSEUDO\n" +
+                "effusion\t1\tFinding\n" +
+                "\\d+\\s+mg\t1\tDose\n" +
+                "[left|right]\\s+lung\t1\tOrgan\n";
+        String text = "pneumonia in the left lung, no pneumonia, effusion; 20 mg and 5  mg daily. Right lung clear.";
+        List<String> concepts = Arrays.asList("Finding", "Dose", "Organ");
+        FastCNER fastCNER = new FastCNER(rules);
+        assertArrayEquals(sizes(fastCNER.processString(text), concepts), fastCNER.countConcepts(text, concepts));
+        assertArrayEquals(new int[]{2, 2, 1}, fastCNER.countConcepts(text, concepts));
+        int[] begins = {0, 75}, ends = {74, text.length()};
+        assertArrayEquals(sizes(fastCNER.processSegments(text, begins, ends, 2), concepts),
+                fastCNER.countSegments(text, begins, ends, 2, ConceptCounter.counting(concepts)).getCounts());
+        fastCNER.setRemovePseudo(false);
+        assertArrayEquals(new int[]{3, 2, 1}, fastCNER.countConcepts(text, concepts));
+
+        FastCNER partitioned = FastCNER.createPartitioned(rules);
+        assertArrayEquals(sizes(partitioned.processString(text), concepts), partitioned.countConcepts(text, concepts));
+
+        fastCNER = new FastCNER(rules);
+        assertArrayEquals(new boolean[]{false, false}, fastCNER.containsConcepts("no pneumonia.", Arrays.asList("Finding", "Dose")));
+        assertTrue(fastCNER.containsAny(text, Arrays.asList("Unknown", "Organ")));
+//        the matching stops after the first dose
+        ConceptCounter counter = fastCNER.count(text, ConceptCounter.presence(Arrays.asList("Dose")));
+        assertArrayEquals(new int[]{1}, counter.getCounts());
+    }
+
+    private int[] countOffsets(FastNER fastNER) {
+        ArrayList<Span> tokens = tokens(text);
+        int[] begins = new int[tokens.size()], ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        ConceptCounter counter = ConceptCounter.counting(CONCEPTS);
+        return fastNER.countTokenSegments(text, begins, ends, new int[]{0}, new int[]{tokens.size()}, 1, counter)
+                .getCounts();
+    }
+
+    private ArrayList<Span> tokens(String text) {
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (Span token : tokens)
+            token.text = token.text.toLowerCase();
+        return tokens;
+    }
+
+    private int[] sizes(HashMap<String, ArrayList<Span>> matches) {
+        return sizes(matches, CONCEPTS);
+    }
+
+    private int[] sizes(HashMap<String, ArrayList<Span>> matches, List<String> concepts) {
+        int[] sizes = new int[concepts.size()];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = matches.containsKey(concepts.get(i)) ? matches.get(concepts.get(i)).size() : 0;
+        return sizes;
+    }
+}
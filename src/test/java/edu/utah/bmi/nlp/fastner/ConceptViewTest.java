@@ -0,0 +1,107 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class ConceptViewTest {
+    private static final String RULES = "@fastner\n" +
+            "mass of the left lung\t1\tFinding\tACTUAL\n" +
+            "no mass\t2\tFinding\tPSEUDO\n" +
+            "\\w+ of the liver\t0\tContext\tACTUAL\n" +
+            "\\( \\w+ \\) of the left lung\t0\tOrgan\tACTUAL\n" +
+            "\\> 3 mg of aspirin\t1\tDose\tACTUAL\n" +
+            "5 mg of heparin\t1\tDose\tACTUAL\n";
+
+    private final String text = "A mass of the left lung , no mass of the liver , take 5 mg of aspirin and 5 mg of heparin .";
+
+    @Test
+    public void views() {
+        ArrayList<Span> tokens = tokens();
+        FastNER fastNER = new FastNER(RULES);
+        String all = MatchStrings.toString(fastNER.processSpanList(tokens));
+        for (Set<String> concepts : Arrays.asList(set("Dose"), set("Finding", "Organ"), set("Context", "Unknown"))) {
+            FastNER view = fastNER.withConcepts(concepts);
+            assertEquals(MatchStrings.toString(fastNER.processSpanList(tokens), concepts), MatchStrings.toString(view.processSpanList(tokens)));
+            assertEquals(MatchStrings.toString(fastNER.processSpanList(tokens), concepts), MatchStrings.toString(processOffsets(view)));
+            assertTrue(concepts.containsAll(view.getTypeDefinitions().keySet()));
+        }
+        assertEquals("Dose:54-69;Dose:74-89;", MatchStrings.toOffsets(fastNER.withConcepts(set("Dose")).processSpanList(tokens)));
+//        the subtrees that cannot reach the concepts are skipped
+        FastRuleWOG doseView = (FastRuleWOG) fastNER.withConcepts(set("Dose")).fastRule;
+        FastRuleWOG findingView = (FastRuleWOG) fastNER.withConcepts(set("Finding")).fastRule;
+        assertTrue(doseView.reachableNodes.size() > 0);
+        Set<HashMap> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        shared.addAll(doseView.reachableNodes);
+        shared.retainAll(findingView.reachableNodes);
+//        only the roots are shared by the two views
+        shared.remove(doseView.rulesMap);
+        shared.remove(doseView.wildcardRoot);
+        assertTrue(shared.isEmpty());
+        assertEquals(set("Dose"), doseView.getViewConcepts());
+        assertEquals(set("Dose"), ((FastRuleWOG) doseView.withConcepts(set("Dose", "Finding"))).getViewConcepts());
+
+//        a view does not change the engine, and its settings are its own
+        String findings = MatchStrings.toString(findingView.processSpans(tokens));
+        findingView.setRemovePseudo(false);
+        assertNotEquals(findings, MatchStrings.toString(findingView.processSpans(tokens)));
+        assertEquals(all, MatchStrings.toString(fastNER.processSpanList(tokens)));
+        assertFalse(findingView.minimize());
+        assertFalse(fastNER.minimize());
+    }
+
+    @Test
+    public void minimized() {
+        ArrayList<Span> tokens = tokens();
+        FastNER fastNER = new FastNER(RULES);
+        assertTrue(fastNER.minimize());
+        FastNER view = fastNER.withConcepts(set("Finding"));
+        assertNull(((FastRuleWOG) view.fastRule).reachableNodes);
+        assertEquals("Finding:2-23;", MatchStrings.toOffsets(view.processSpanList(tokens)));
+        assertEquals(MatchStrings.toString(fastNER.processSpanList(tokens), set("Finding")), MatchStrings.toString(view.processSpanList(tokens)));
+    }
+
+    private HashMap<String, ArrayList<Span>> processOffsets(FastNER fastNER) {
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        int[] begins = new int[tokens.size()], ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        return fastNER.processTokenSegments(text, begins, ends, new int[]{0}, new int[]{tokens.size()}, 1);
+    }
+
+    private ArrayList<Span> tokens() {
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (Span token : tokens)
+            token.text = token.text.toLowerCase();
+        return tokens;
+    }
+
+    private Set<String> set(String... concepts) {
+        return new LinkedHashSet<>(Arrays.asList(concepts));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.NERSpan;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import edu.utah.bmi.nlp.fastcner.uima.FastCNER_AE_General;
+import edu.utah.bmi.nlp.fastner.uima.FastNER_AE_General;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+import static org.junit.Assert.*;
+
+/**
+ * Test the reference-counted sharing of compiled engines
+ */
+public class FastNERRegistryTest {
+
+    private final String rule = "@fastner\n" +
+            "pulmonary emboli	0	Concept	ACTUAL\n";
+
+    @Test
+    public void acquireRelease() {
+        String key = FastNERRegistry.getKey(FastNER.class, rule, false, "scorewidth");
+        FastNER first = FastNERRegistry.acquire(key, () -> new FastNER(rule));
+        FastNER second = FastNERRegistry.acquire(key, () -> new FastNER(rule));
+        assertSame(first, second);
+        assertEquals(2, FastNERRegistry.getReferenceCount(key));
+
+        String otherKey = FastNERRegistry.getKey(FastNER.class, rule, true, "scorewidth");
+        assertNotEquals(key, otherKey);
+        FastNER other = FastNERRegistry.acquire(otherKey, () -> new FastNER(rule, true));
+        assertNotSame(first, other);
+
+        assertFalse(FastNERRegistry.release(key));
+        assertTrue(FastNERRegistry.release(key));
+        assertEquals(0, FastNERRegistry.getReferenceCount(key));
+        assertTrue(FastNERRegistry.release(otherKey));
+
+        FastNER rebuilt = FastNERRegistry.acquire(key, () -> new FastNER(rule));
+        assertNotSame(first, rebuilt);
+        FastNERRegistry.release(key);
+    }
+
+    @Test
+    public void sealShared() {
+        String key = FastNERRegistry.getKey(FastNER.class, rule, false, "score");
+        FastNER shared = FastNERRegistry.acquire(key, () -> {
+            FastNER fastNER = new FastNER(rule);
+            fastNER.setCompareMethod(NERSpan.scoreOnly);
+            return fastNER;
+        });
+        assertTrue(shared.isSealed());
+        try {
+            shared.setCompareMethod(NERSpan.widthOnly);
+            fail("A shared engine cannot be reconfigured");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            shared.setRemovePseudo(false);
+            fail("A shared engine cannot be reconfigured");
+        } catch (IllegalStateException e) {
+        }
+        FastNERRegistry.release(key);
+
+        String charKey = FastNERRegistry.getKey(FastCNER.class, "@fastcner\nfever\t1\tFinding\n");
+        FastCNER fastCNER = FastNERRegistry.acquire(charKey, () -> FastCNER.createPartitioned("@fastcner\nfever\t1\tFinding\n"));
+        try {
+            fastCNER.setMaxRepeatLength(10);
+            fail("A shared engine cannot be reconfigured");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(1, fastCNER.processString("no fever").get("Finding").size());
+        FastNERRegistry.release(charKey);
+    }
+
+    @Test
+    public void hashRuleFile() throws Exception {
+        File ruleFile = File.createTempFile("fastner", ".tsv");
+        ruleFile.deleteOnExit();
+        Files.write(ruleFile.toPath(), rule.getBytes(StandardCharsets.UTF_8));
+        assertEquals(FastNERRegistry.hashRuleSource(rule), FastNERRegistry.hashRuleSource(ruleFile.getAbsolutePath()));
+        assertNotEquals(FastNERRegistry.hashRuleSource(rule), FastNERRegistry.hashRuleSource(rule + "emboli	0	Concept	ACTUAL\n"));
+    }
+
+    @Test
+    public void shareAmongAEs() throws Exception {
+        TypeSystemDescription typeSystem = TypeSystemDescriptionFactory.createTypeSystemDescriptionFromPath("desc/type/All_Types.xml");
+        Object[] configurationData = new Object[]{FastNER_AE_General.PARAM_RULE_STR, rule};
+        String key = FastNERRegistry.getKey(FastNER.class, rule, true, false, NERSpan.scorewidth, NERSpan.byRuleLength, 0,
+                "none");
+        AnalysisEngine ae1 = createEngine(FastNER_AE_General.class, typeSystem, configurationData);
+        AnalysisEngine ae2 = createEngine(FastNER_AE_General.class, typeSystem, configurationData);
+        assertEquals(2, FastNERRegistry.getReferenceCount(key));
+        ae1.destroy();
+        assertEquals(1, FastNERRegistry.getReferenceCount(key));
+        ae2.destroy();
+        assertEquals(0, FastNERRegistry.getReferenceCount(key));
+
+        AnalysisEngine ae3 = createEngine(FastNER_AE_General.class, typeSystem, FastNER_AE_General.PARAM_RULE_STR, rule,
+                FastNER_AE_General.PARAM_SHARE_COMPILED_RULES, false);
+        assertEquals(0, FastNERRegistry.getReferenceCount(key));
+        ae3.destroy();
+    }
+
+    @Test
+    public void keyCharAEsByCompareMethods() throws Exception {
+        TypeSystemDescription typeSystem = TypeSystemDescriptionFactory.createTypeSystemDescriptionFromPath("desc/type/All_Types.xml");
+        String charRule = "@fastcner\nemboli\t1\tConcept\n";
+        AnalysisEngine ae1 = createEngine(FastCNER_AE_General.class, typeSystem, FastNER_AE_General.PARAM_RULE_STR, charRule,
+                FastNER_AE_General.PARAM_CONFLICT_RESOLUTION, "bestscore");
+        AnalysisEngine ae2 = createEngine(FastCNER_AE_General.class, typeSystem, FastNER_AE_General.PARAM_RULE_STR, charRule,
+                FastNER_AE_General.PARAM_CONFLICT_RESOLUTION, "bestscore",
+                FastNER_AE_General.ADV_PARAM_SPAN_COMPARE_METHOD, NERSpan.widthOnly);
+//        the compare methods configure the best score resolver, so the two AEs cannot share an engine
+        assertEquals(1, FastNERRegistry.getReferenceCount(FastNERRegistry.getKey(FastCNER.class, charRule, true, 50,
+                false, 0, "bestscore", NERSpan.scorewidth, NERSpan.byRuleLength)));
+        assertEquals(1, FastNERRegistry.getReferenceCount(FastNERRegistry.getKey(FastCNER.class, charRule, true, 50,
+                false, 0, "bestscore", NERSpan.widthOnly, NERSpan.byRuleLength)));
+        ae1.destroy();
+        ae2.destroy();
+    }
+}
@@ -16,6 +16,8 @@
 
 package edu.utah.bmi.nlp.fastner;
 
+import edu.utah.bmi.nlp.core.DeterminantValueSet;
+import edu.utah.bmi.nlp.core.NERSpan;
 import edu.utah.bmi.nlp.core.SimpleParser;
 import edu.utah.bmi.nlp.core.Span;
 import org.junit.Test;
@@ -24,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
@@ -92,4 +95,166 @@ public class FastRuleWGTest {
         }
         assert (res.containsKey("Concept") && res.get("Concept").size() == 0);
     }
-}
\ No newline at end of file
+    @Test
+    public void processTokenSegments() throws Exception {
+        String text = "Exam was done. Pulmonary emboli protocol. No emboli. Further treatment needed";
+        String rule = "@fastner\n" +
+                "pulmonary \\( emboli \\)	0	Concept	ACTUAL\n" +
+                "\\( done \\) pulmonary	0	Cross	ACTUAL\n" +
+                "no emboli	0	Concept	PSEUDO\n" +
+                "emboli	0	Concept	ACTUAL\n" +
+                "treatment \\w+	0	Other	ACTUAL";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+//        exam was done | pulmonary emboli protocol | no emboli | further treatment needed
+        int[] segmentStarts = new int[]{0, 3, 6, 8};
+        int[] segmentEnds = new int[]{3, 6, 8, 11};
+        int[] begins = new int[tokens.size()];
+        int[] ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        fastNER = new FastNER(rule);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < segmentStarts.length; i++) {
+            int[] sentenceBegins = Arrays.copyOfRange(begins, segmentStarts[i], segmentEnds[i]);
+            int[] sentenceEnds = Arrays.copyOfRange(ends, segmentStarts[i], segmentEnds[i]);
+            expected.append(toString(text, fastNER.fastRule.processTokenOffsets(text, sentenceBegins, sentenceEnds,
+                    sentenceBegins.length, false)));
+        }
+        HashMap<String, ArrayList<Span>> res = fastNER.processTokenSegments(text, begins, ends, segmentStarts,
+                segmentEnds, segmentStarts.length);
+        assert (!res.containsKey("Cross"));
+        assertEquals("Concept:emboli,Other:treatment needed,", toString(text, res));
+        assertEquals(expected.toString(), toString(text, res));
+    }
+
+    @Test
+    public void processInParallelChunks() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append("Exam was done. Positive for pulmonary emboli protocol. No emboli. Further treatment needed. ");
+        String text = sb.toString();
+        String rule = "@fastner\n" +
+                "pulmonary \\( emboli \\)	0	Concept	ACTUAL\n" +
+                "pulmonary emboli protocol	0	Concept	ACTUAL\n" +
+                "no emboli	0	Concept	PSEUDO\n" +
+                "emboli	0	Concept	ACTUAL\n" +
+                "treatment \\w+	0	Other	ACTUAL";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        int[] begins = new int[tokens.size()];
+        int[] ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        fastNER = new FastNER(rule);
+        String expected = toString(text, fastNER.fastRule.processTokenOffsets(text, begins, ends, begins.length, false));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int chunkSize : new int[]{1, 2, 7, 50}) {
+                fastNER.setParallelism(pool, chunkSize);
+                assertEquals(expected, toString(text, fastNER.fastRule.processTokenOffsets(text, begins, ends,
+                        begins.length, false)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(100, expected.split("Other:").length - 1);
+    }
+
+    @Test
+    public void pruneInlinePseudo() throws Exception {
+        String text = "No emboli. Pulmonary emboli protocol. no emboli , emboli again. no emboli";
+        String rule = "@fastner\n" +
+                "pulmonary \\( emboli \\)	0	Concept	ACTUAL\n" +
+                "no emboli	0	Concept	PSEUDO\n" +
+                "emboli	0	Concept	ACTUAL\n" +
+                "again	0	Other	PSEUDO";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        fastNER = new FastNER(rule);
+        fastNER.setRemovePseudo(false);
+        HashMap<String, ArrayList<Span>> all = fastNER.processSpanList(tokens);
+//        what the post-hoc removal keeps
+        for (ArrayList<Span> spans : all.values())
+            spans.removeIf(span -> fastNER.getRule(span.ruleId).type == DeterminantValueSet.Determinants.PSEUDO);
+        fastNER.setRemovePseudo(true);
+        HashMap<String, ArrayList<Span>> res = fastNER.processSpanList(tokens);
+        assertEquals(toString(text, all), toString(text, res));
+        assertEquals("Concept:emboli,Concept:emboli,", toString(text, res));
+        assertEquals(0, res.get("Other").size());
+    }
+
+    @Test
+    public void branchPruning() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            sb.append("Positive for pulmonary emboli protocol . No pulmonary emboli seen . Emboli protocol done . ");
+        String text = sb.toString();
+        String rule = "@fastner\n" +
+                "pulmonary emboli	2	Concept	ACTUAL\n" +
+                "pulmonary emboli protocol	1	Concept	ACTUAL\n" +
+                "pulmonary \\( emboli \\)	0	Concept	ACTUAL\n" +
+                "emboli	3	Concept	ACTUAL\n" +
+                "emboli protocol \\w+	0	Concept	ACTUAL\n" +
+                "no pulmonary emboli	1	Concept	PSEUDO\n" +
+                "protocol	0	Other	ACTUAL";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (String method : new String[]{NERSpan.scoreOnly, NERSpan.widthOnly}) {
+            fastNER = new FastNER(rule);
+            fastNER.setCompareMethod(method);
+            String expected = toString(text, fastNER.processSpanList(tokens));
+            assertTrue(expected.contains("Concept:emboli") && expected.contains("Other:protocol"));
+            fastNER.setBranchPruning(true);
+            assertEquals(expected, toString(text, fastNER.processSpanList(tokens)));
+        }
+    }
+
+    @Test
+    public void startTokenFiltering() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            sb.append("Positive for pulmonary emboli protocol . Fever for ").append(i).append(" days . Nothing else . ");
+        String text = sb.toString();
+        String rule = "@fastner\n" +
+                "pulmonary emboli	2	Concept	ACTUAL\n" +
+                "\\( emboli \\) protocol	1	Concept	ACTUAL\n" +
+                "\\d+ days	0	Duration	ACTUAL\n" +
+                "\\w+ for pulmonary	0	Context	ACTUAL\n" +
+                "no pulmonary emboli	1	Concept	PSEUDO\n";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        ArrayList<String> strings = new ArrayList<>();
+        int[] begins = new int[tokens.size()], ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            strings.add(tokens.get(i).text.toLowerCase());
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        fastNER = new FastNER(rule);
+        fastNER.setStartTokenFiltering(false);
+        String expectedSpans = toString(text, fastNER.processSpanList(tokens));
+        String expectedStrings = fastNER.processStringList(strings).toString();
+        String expectedOffsets = toString(text, fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false));
+        assertTrue(expectedSpans.contains("Duration:49 days") && expectedSpans.contains("Context:Positive for pulmonary"));
+        fastNER.setStartTokenFiltering(true);
+        assertEquals(expectedSpans, toString(text, fastNER.processSpanList(tokens)));
+        assertEquals(expectedStrings, fastNER.processStringList(strings).toString());
+        assertEquals(expectedOffsets, toString(text, fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false)));
+//        only a number can start a match without the "\\w+" rule
+        fastNER = new FastNER("@fastner\npulmonary emboli	2	Concept	ACTUAL\n\\d+ days	0	Duration	ACTUAL\n");
+        FastRuleWOG engine = (FastRuleWOG) fastNER.fastRule;
+        assertNull(engine.getStartNode("nothing"));
+        assertNotNull(engine.getStartNode("12"));
+        assertNotNull(engine.getStartNode("pulmonary"));
+    }
+
+    private String toString(String text, HashMap<String, ArrayList<Span>> matches) {
+        StringBuilder sb = new StringBuilder();
+        for (String concept : new java.util.TreeSet<>(matches.keySet())) {
+            for (Span span : matches.get(concept)) {
+                sb.append(concept).append(":").append(text.substring(span.begin, span.end)).append(",");
+            }
+        }
+        return sb.toString();
+    }
+}
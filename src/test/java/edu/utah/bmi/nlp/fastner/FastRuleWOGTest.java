@@ -16,8 +16,13 @@
 
 package edu.utah.bmi.nlp.fastner;
 
+import edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants;
+import edu.utah.bmi.nlp.core.Rule;
 import edu.utah.bmi.nlp.core.SimpleParser;
 import edu.utah.bmi.nlp.core.Span;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -25,6 +30,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Created by Jianlin Shi on 7/25/17.
  */
@@ -82,4 +89,94 @@ public class FastRuleWOGTest {
             entry.getValue().forEach((span)->{System.out.println(text.substring(span.getBegin(),span.getEnd()));});
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void processTokenOffsets() throws Exception {
+        String text = "Exam was done yesterday. Positive for Pulmonary EMBOLI protocol, 3 times. No further treatment needed.";
+        String rule = "@fastner\n" +
+                "pulmonary emboli	0	Concept	ACTUAL\n" +
+                "\\( \\d+ \\) times	0	Count	ACTUAL\n" +
+                "further \\w+	0	Other	ACTUAL";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        int[] begins = new int[tokens.size()];
+        int[] ends = new int[tokens.size()];
+        ArrayList<Span> lowerCased = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Span token = tokens.get(i);
+            begins[i] = token.begin;
+            ends[i] = token.end;
+            lowerCased.add(new Span(token.begin, token.end, text.substring(token.begin, token.end).toLowerCase()));
+        }
+
+        fastNER = new FastNER(rule);
+        HashMap<String, ArrayList<Span>> expected = fastNER.processSpanList(lowerCased);
+        HashMap<String, ArrayList<Span>> res = fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false);
+        assertEquals(3, expected.size());
+        assertEquals(toString(text, expected), toString(text, res));
+        assertEquals("Pulmonary EMBOLI", toString(text, res).get("Concept"));
+        assertEquals("3", toString(text, res).get("Count"));
+
+        res = fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), true);
+        assert (!res.containsKey("Concept") || res.get("Concept").size() == 0);
+
+        JCas jCas = JCasFactory.createJCas();
+        jCas.setDocumentText(text);
+        ArrayList<Annotation> annotations = new ArrayList<>();
+        for (Span token : tokens)
+            annotations.add(new Annotation(jCas, token.begin, token.end));
+        assertEquals(toString(text, expected), toString(text, fastNER.processAnnotationList(annotations)));
+    }
+
+    @Test
+    public void textWindow() {
+        String text = "No EMBOLI.";
+        TextWindow window = new TextWindow(text, true).set(3, 9);
+        assertEquals("emboli".hashCode(), window.hashCode());
+        assert (window.equals("emboli"));
+        assert (!window.equals("EMBOLI"));
+        assertEquals("emboli", window.toString());
+        HashMap<String, String> vocabulary = new HashMap<>();
+        vocabulary.put("emboli", "emboli");
+        assertEquals("emboli", vocabulary.get(window));
+        assertEquals(null, vocabulary.get(window.set(0, 2)));
+    }
+
+    private HashMap<String, String> toString(String text, HashMap<String, ArrayList<Span>> matches) {
+        HashMap<String, String> output = new HashMap<>();
+        for (Map.Entry<String, ArrayList<Span>> entry : matches.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (Span span : entry.getValue()) {
+                if (sb.length() > 0)
+                    sb.append("|");
+                sb.append(text.substring(span.begin, span.end));
+            }
+            output.put(entry.getKey(), sb.toString());
+        }
+        return output;
+    }
+    @Test
+    public void ruleTable() throws Exception {
+        String rule = "@fastner\n" +
+                "pulmonary emboli	0.5	Concept	ACTUAL\n" +
+                "no emboli	0	Concept	PSEUDO\n" +
+                "emboli protocol	1	Protocol	ACTUAL\n";
+        fastNER = new FastNER(rule);
+        RuleTable table = fastNER.fastRule.getRuleTable();
+        assertEquals(fastNER.getRuleStore().size(), table.size());
+        assertEquals(2, table.getConceptCount());
+        for (int i = 0; i < table.size(); i++) {
+            Rule r = fastNER.getRule(table.ids[i]);
+            assertEquals(i, table.indexOf(r.id));
+            assertEquals(r.score, table.scores[i], 0);
+            assertEquals(r.type, table.types[i]);
+            assertEquals(r.rule.split("\\s+").length, table.lengths[i]);
+            assertEquals(r.ruleName, table.getConceptName(table.conceptIds[i]));
+        }
+//        the END nodes hold the dense indices
+        HashMap emboli = (HashMap) ((HashMap) fastNER.fastRule.rulesMap.get("no")).get("emboli");
+        int[] terminals = (int[]) emboli.get(Determinants.END);
+        assertEquals(1, terminals.length);
+        assertEquals(Determinants.PSEUDO, table.types[terminals[0]]);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class HybridFastNERTest {
+    private static final String RULES = "@fastner\n" +
+            "mass of the left lung\t1\tFinding\tACTUAL\n" +
+            "no mass\t2\tFinding\tPSEUDO\n" +
+            "\\w+ of the liver\t0\tContext\tACTUAL\n" +
+            "# char rules\n" +
+            "@fastcner\n" +
+            "\\d+\\s+mg\t1\tDose\n" +
+            "pneumonia\t1\tFinding\n";
+
+    private static final String TEXT = "A mass of the left lung and pneumonia. No mass of the liver, 5 mg daily.\n" +
+            "Pneumonia of the liver with 20  mg given.";
+
+    @Test
+    public void splitRuleSource() {
+        String[] parts = HybridFastNER.splitRuleSource(RULES);
+        assertEquals(RULES.split("\n", -1).length, parts[0].split("\n", -1).length);
+        assertEquals(RULES.split("\n", -1).length, parts[1].split("\n", -1).length);
+        assertTrue(parts[0].contains("no mass") && !parts[0].contains("pneumonia") && !parts[0].contains("@fastcner"));
+        assertTrue(parts[1].contains("pneumonia") && !parts[1].contains("no mass") && !parts[1].contains("@fastner"));
+        assertNull(HybridFastNER.splitRuleSource("@fastner\nmass\t1\tFinding\n")[1]);
+    }
+
+    @Test
+    public void processText() throws IOException {
+        String[] parts = HybridFastNER.splitRuleSource(RULES);
+        FastNER fastNER = new FastNER(parts[0]);
+        FastCNER fastCNER = new FastCNER(parts[1]);
+        ArrayList<ArrayList<Span>> sentences = SimpleParser.tokenizeDecimalSmartWSentences(TEXT, false);
+        HashMap<String, ArrayList<Span>> expected = new HashMap<>();
+        for (ArrayList<Span> sentence : sentences) {
+            ArrayList<Span> tokens = new ArrayList<>();
+            for (Span token : sentence)
+                tokens.add(new Span(token.begin, token.end, token.text.toLowerCase()));
+            add(expected, fastNER.processSpanList(tokens));
+            int begin = sentence.get(0).begin, end = sentence.get(sentence.size() - 1).end;
+            add(expected, fastCNER.processSegments(TEXT, new int[]{begin}, new int[]{end}, 1));
+        }
+        String expectedStr = MatchStrings.toString(expected, rules(fastNER, fastCNER));
+        assertTrue(expectedStr.contains("Dose:") && expectedStr.contains("Context:")
+                && expectedStr.contains("Finding:28-37:pneumonia"));
+
+        HybridFastNER hybrid = new HybridFastNER(RULES, false);
+        assertNotNull(hybrid.getCharRule());
+//        the char rules are case sensitive, the token rules match the lower cased tokens
+        assertEquals("Context:42-59;Context:73-95;Dose:61-65;Dose:101-107;Finding:2-23;Finding:28-37;",
+                MatchStrings.toOffsets(hybrid.processText(TEXT)));
+        assertEquals(expectedStr, MatchStrings.toString(hybrid.processText(TEXT), rules(hybrid, hybrid)));
+
+        File ruleFile = File.createTempFile("hybrid", ".tsv");
+        ruleFile.deleteOnExit();
+        Files.write(ruleFile.toPath(), RULES.getBytes(StandardCharsets.UTF_8));
+        hybrid = new HybridFastNER(ruleFile.getAbsolutePath(), false);
+        assertEquals(expectedStr, MatchStrings.toString(hybrid.processText(TEXT), rules(hybrid, hybrid)));
+        assertTrue(hybrid.getTypeDefinitions().keySet().containsAll(java.util.Arrays.asList("Finding", "Context", "Dose")));
+    }
+
+    private void add(HashMap<String, ArrayList<Span>> matches, HashMap<String, ArrayList<Span>> more) {
+        for (String concept : more.keySet()) {
+            matches.putIfAbsent(concept, new ArrayList<>());
+            matches.get(concept).addAll(more.get(concept));
+        }
+    }
+
+    private Function<Span, String> rules(FastNER tokenRules, FastNER charRules) {
+        return span -> tokenRules.getRule(span.ruleId) != null ? tokenRules.getRuleString(span.ruleId) :
+                charRules.getRuleString(span.ruleId);
+    }
+}
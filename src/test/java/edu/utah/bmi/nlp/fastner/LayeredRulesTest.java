@@ -0,0 +1,169 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class LayeredRulesTest {
+    private static final String[] ORGANS = {"left lung", "right lung", "left kidney", "liver"};
+    private static final String[] FINDINGS = {"pneumonia", "mass", "effusion", "nodule", "cyst"};
+
+    private String baseRules() {
+        StringBuilder rules = new StringBuilder("@fastner\n");
+        for (String finding : FINDINGS)
+            for (String organ : ORGANS)
+                rules.append(finding).append(" of the ").append(organ).append("\t1\tFinding\tACTUAL\n");
+        rules.append("\\w+ of the liver\t0\tContext\tACTUAL\n")
+                .append("no mass of the left lung\t2\tFinding\tPSEUDO\n");
+        return rules.toString();
+    }
+
+    private String tenantRules() {
+        return "@fastner\n" +
+//                overrides a base rule
+                "mass of the liver\t3\tFinding\tACTUAL\n" +
+//                same pattern, new concept
+                "cyst of the liver\t1\tBenign\tACTUAL\n" +
+//                extends a base path
+                "nodule of the left lung apex\t1\tFinding\tACTUAL\n" +
+//                new start token
+                "granuloma of the liver\t1\tFinding\tACTUAL\n" +
+                "\\w+ of the spleen\t0\tContext\tACTUAL\n";
+    }
+
+    private String text() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            sb.append("There is a ").append(FINDINGS[i % FINDINGS.length]).append(" of the ")
+                    .append(ORGANS[i % ORGANS.length]).append(" apex , no mass of the left lung , granuloma of the liver ,")
+                    .append(" cyst of the spleen . ");
+        return sb.toString();
+    }
+
+    @Test
+    public void tokenRules() {
+        FastNER base = new FastNER(baseRules());
+        FastNER merged = new FastNER(baseRules() + tenantRules().substring("@fastner\n".length()));
+        compareLayered(base, merged, text());
+    }
+
+    @Test
+    public void minimizedBase() {
+        FastNER base = new FastNER(baseRules());
+        assertTrue(base.minimize());
+        FastNER merged = new FastNER(baseRules() + tenantRules().substring("@fastner\n".length()));
+        compareLayered(base, merged, text());
+    }
+
+    @Test
+    public void captureRules() {
+        String baseRules = baseRules() + "\\( \\w+ \\) of the left kidney\t0\tOrgan\tACTUAL\n";
+        FastNER base = new FastNER(baseRules);
+        assertTrue(base.fastRule instanceof FastRuleWG);
+        FastNER merged = new FastNER(baseRules + tenantRules().substring("@fastner\n".length()));
+        FastNER tenant = compareLayered(base, merged, text());
+        assertTrue(tenant.fastRule instanceof FastRuleWG);
+    }
+
+    @Test
+    public void numericRules() {
+        String baseRules = "@fastner\n" +
+                "\\> 3 mg of aspirin\t1\tHighDose\tACTUAL\n" +
+                "\\d+ mg of heparin\t0\tDose\tACTUAL\n";
+        String tenantRules = "@fastner\n" +
+                "\\< 3 mg of aspirin\t1\tLowDose\tACTUAL\n" +
+                "\\> 1 \\< 6 mg of heparin\t1\tMidDose\tACTUAL\n" +
+                "\\d+ mg of heparin\t1\tDose\tACTUAL\n";
+        String text = "take 5 mg of aspirin , 2 mg of aspirin , 4 mg of heparin and 9 mg of heparin";
+        FastNER base = new FastNER(baseRules);
+        FastNER merged = new FastNER(baseRules + tenantRules.substring("@fastner\n".length()));
+        FastNER tenant = new FastNER(base, tenantRules);
+        assertTrue(tenant.fastRule instanceof FastRuleWGN);
+        String expected = toString(merged, merged.processSpanList(tokenize(text)));
+        assertTrue(expected.contains("MidDose:") && expected.contains("LowDose:"));
+        assertEquals(expected, toString(tenant, tenant.processSpanList(tokenize(text))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void charBase() {
+        new FastNER(new FastCNER("@fastcner\nmass\\s+of\t1\tFinding\n"), tenantRules());
+    }
+
+    private FastNER compareLayered(FastNER base, FastNER merged, String text) {
+        ArrayList<Span> tokens = tokenize(text);
+        String baseExpected = toString(base, base.processSpanList(tokens));
+        FastNER tenant = new FastNER(base, tenantRules());
+        FastNER other = new FastNER(base, "@fastner\ncyst of the liver\t1\tBenign\tACTUAL\n");
+//        the base is shared, not copied or changed
+        assertEquals(5, tenant.fastRule.getRuleStore().size());
+        assertSame(base.fastRule, ((FastRuleWOG) tenant.fastRule).getBaseRule());
+        assertEquals(baseExpected, toString(base, base.processSpanList(tokens)));
+
+        String expected = toString(merged, merged.processSpanList(tokens));
+        assertTrue(expected.contains("Benign:") && expected.contains("granuloma of the liver")
+                && expected.contains(":mass of the liver:3.0"));
+        assertEquals(expected, toString(tenant, tenant.processSpanList(tokens)));
+        ArrayList<String> strings = new ArrayList<>();
+        int[] begins = new int[tokens.size()], ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            strings.add(tokens.get(i).text);
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        assertEquals(toString(merged, merged.processStringList(strings)),
+                toString(tenant, tenant.processStringList(strings)));
+        assertEquals(toString(merged, merged.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false)),
+                toString(tenant, tenant.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false)));
+        tenant.setStartTokenFiltering(false);
+        assertEquals(expected, toString(tenant, tenant.processSpanList(tokens)));
+        assertFalse(tenant.minimize());
+
+        String otherResults = toString(other, other.processSpanList(tokens));
+        assertTrue(otherResults.contains("Benign:") && !otherResults.contains("granuloma"));
+        return tenant;
+    }
+
+    private ArrayList<Span> tokenize(String text) {
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (Span token : tokens)
+            token.text = token.text.toLowerCase();
+        return tokens;
+    }
+
+    private String toString(FastNER fastNER, HashMap<String, ArrayList<Span>> matches) {
+        StringBuilder sb = new StringBuilder();
+        for (String concept : new TreeSet<>(matches.keySet())) {
+            for (Span span : matches.get(concept)) {
+                sb.append(concept).append(":").append(span.begin).append("-").append(span.end).append(":")
+                        .append(fastNER.getRuleString(span.ruleId)).append(":").append(span.score).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.Span;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Serialize the matches of an engine, to compare the outputs of two engines or an output with the expected spans.
+ * The concepts are in name order, the spans in the order of their lists.
+ *
+ * @author Jianlin Shi
+ */
+public class MatchStrings {
+
+    /**
+     * @return "concept:begin-end:ruleId:score" per line
+     */
+    public static String toString(HashMap<String, ArrayList<Span>> matches) {
+        return toString(matches, (Set<String>) null);
+    }
+
+    /**
+     * @param concepts only serialize these concepts, null for all
+     * @return "concept:begin-end:ruleId:score" per line
+     */
+    public static String toString(HashMap<String, ArrayList<Span>> matches, Set<String> concepts) {
+        StringBuilder sb = new StringBuilder();
+        for (String concept : new TreeSet<>(matches.keySet())) {
+            if (concepts != null && !concepts.contains(concept))
+                continue;
+            for (Span span : matches.get(concept)) {
+                sb.append(concept).append(":").append(span.begin).append("-").append(span.end).append(":")
+                        .append(span.ruleId).append(":").append(span.score).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * For the outputs whose rule ids differ, e.g. the same rules in different engines. The spans of each concept are
+     * sorted, as their lists may be merged from several engines.
+     *
+     * @param rule describes the rule of a span
+     * @return "concept:begin-end:rule" per line
+     */
+    public static String toString(HashMap<String, ArrayList<Span>> matches, Function<Span, String> rule) {
+        StringBuilder sb = new StringBuilder();
+        for (String concept : new TreeSet<>(matches.keySet())) {
+            TreeSet<String> spans = new TreeSet<>();
+            for (Span span : matches.get(concept))
+                spans.add(String.format("%s:%d-%d:%s", concept, span.begin, span.end, rule.apply(span)));
+            for (String span : spans)
+                sb.append(span).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return "concept:begin-end;" per span, to write the expected spans of a test
+     */
+    public static String toOffsets(HashMap<String, ArrayList<Span>> matches) {
+        StringBuilder sb = new StringBuilder();
+        for (String concept : new TreeSet<>(matches.keySet())) {
+            for (Span span : matches.get(concept))
+                sb.append(concept).append(":").append(span.begin).append("-").append(span.end).append(";");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static edu.utah.bmi.nlp.core.NERSpan.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class MergedFastNERTest {
+    private static final String[] RULE_SETS = {
+            "@fastner\n" +
+                    "mass of the left lung\t1\tFinding\tACTUAL\n" +
+                    "mass of the left lung apex\t0\tFinding\tACTUAL\n" +
+                    "no mass\t2\tFinding\tPSEUDO\n" +
+                    "\\w+ of the liver\t0\tContext\tACTUAL\n",
+//            same concept and pattern as the first rule set, different scores and compare method
+            "@fastner\n" +
+                    "mass of the left lung\t2\tFinding\tACTUAL\n" +
+                    "mass of the left lung apex\t0\tFinding\tACTUAL\n" +
+                    "no mass\t2\tFinding\tPSEUDO\n",
+            "@fastner\n" +
+                    "\\> 3 mg of aspirin\t1\tHighDose\tACTUAL\n" +
+                    "\\< 3 mg of aspirin\t1\tLowDose\tACTUAL\n" +
+                    "\\d+ mg of heparin\t0\tDose\tACTUAL\n",
+            "@fastner\n" +
+                    "\\( \\w+ \\) of the liver\t0\tOrgan\tACTUAL\n" +
+                    "no \\( mass \\)\t1\tFinding\tACTUAL\n"
+    };
+
+    @Test
+    public void test() {
+        String text = "A mass of the left lung apex , no mass of the liver , take 5 mg of aspirin , 2 mg of aspirin and "
+                + "4 mg of heparin . Mass of the left lung .";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (Span token : tokens)
+            token.text = token.text.toLowerCase();
+
+        MergedFastNER merged = new MergedFastNER(Arrays.asList(RULE_SETS), false);
+        assertEquals(RULE_SETS.length, merged.getRuleSetCount());
+        merged.setCompareMethod(1, widthOnly);
+        merged.setRemovePseudo(1, false);
+        merged.setConflictResolver(3, new SweepConflictResolver());
+        ArrayList<HashMap<String, ArrayList<Span>>> results = merged.processSpanListByRuleSet(tokens);
+        assertEquals(RULE_SETS.length, results.size());
+
+        for (int s = 0; s < RULE_SETS.length; s++) {
+            FastNER fastNER = new FastNER(RULE_SETS[s]);
+            if (s == 1) {
+                fastNER.setCompareMethod(widthOnly);
+                fastNER.setRemovePseudo(false);
+            } else if (s == 3) {
+                fastNER.setConflictResolver(new SweepConflictResolver());
+            }
+            String expected = MatchStrings.toString(fastNER.processSpanList(tokens));
+            assertTrue(expected.length() > 0);
+            assertEquals(expected, MatchStrings.toString(results.get(s)));
+            for (ArrayList<Span> spans : results.get(s).values())
+                for (Span span : spans)
+                    assertEquals(fastNER.getRuleString(span.ruleId), merged.getRule(s, span.ruleId).rule);
+        }
+        assertEquals("Context:34-51;Finding:2-23;Finding:115-136;", MatchStrings.toOffsets(results.get(0)));
+        assertEquals("Dose:97-112;HighDose:59-74;LowDose:77-92;", MatchStrings.toOffsets(results.get(2)));
+        assertNotEquals(MatchStrings.toString(results.get(0)), MatchStrings.toString(results.get(1)));
+        assertTrue(merged.getTypeDefinitions(2).containsKey("HighDose"));
+        assertFalse(merged.getTypeDefinitions(2).containsKey("Finding"));
+    }
+
+    @Test
+    public void duplicatePatterns() {
+//        the rule ids are the line numbers, the comments shift the ids of the second rule set across a bucket boundary
+        StringBuilder first = new StringBuilder("@fastner\n");
+        for (int i = 0; i < 10; i++)
+            first.append("#comment\n");
+        first.append("\\w+ of the liver\t0\tContext\tACTUAL\n");
+//        the same pattern and concept twice, the last one wins in a FastNER
+        String second = "@fastner\n" +
+                "fever\t1\tFinding\tPSEUDO\n" +
+                "fever\t1\tFinding\tACTUAL\n";
+        String text = "Fever today , no sign of the liver .";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (Span token : tokens)
+            token.text = token.text.toLowerCase();
+
+        MergedFastNER merged = new MergedFastNER(Arrays.asList(first.toString(), second), false);
+        ArrayList<HashMap<String, ArrayList<Span>>> results = merged.processSpanListByRuleSet(tokens);
+        assertEquals(MatchStrings.toString(new FastNER(first.toString()).processSpanList(tokens)), MatchStrings.toString(results.get(0)));
+        assertEquals(MatchStrings.toString(new FastNER(second).processSpanList(tokens)), MatchStrings.toString(results.get(1)));
+        assertEquals(1, results.get(1).get("Finding").size());
+        assertEquals(0, results.get(1).get("Finding").get(0).begin);
+        assertEquals(5, results.get(1).get("Finding").get(0).end);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void charRules() {
+        new MergedFastNER(Arrays.asList(RULE_SETS[0], "@fastcner\nmass\\s+of\t1\tFinding\n"), false);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.DeterminantValueSet.Determinants;
+import edu.utah.bmi.nlp.core.Rule;
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import edu.utah.bmi.nlp.fastcner.FastCRuleBitap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class MinimizedRulesTest {
+    private static final String[] ORGANS = {"left lung", "right lung", "left kidney", "right kidney", "liver"};
+    private static final String[] FINDINGS = {"pneumonia", "mass", "effusion", "nodule", "lesion", "cyst"};
+
+    @Test
+    public void tokenRules() {
+        StringBuilder rules = new StringBuilder("@fastner\n");
+        for (String finding : FINDINGS)
+            for (String organ : ORGANS)
+                rules.append(finding).append(" of the ").append(organ).append("\t").append(finding.length() % 3)
+                        .append("\t").append(finding.equals("cyst") ? "Benign" : "Finding").append("\tACTUAL\n");
+        rules.append("\\( mass \\) of the liver\t3\tFinding\tACTUAL\n")
+                .append("\\w+ of the liver\t0\tContext\tACTUAL\n")
+                .append("no mass of the left lung\t1\tFinding\tPSEUDO\n")
+                .append("\\d+ cm mass of the liver\t2\tSize\tACTUAL\n");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++)
+            sb.append("There is a ").append(FINDINGS[i % FINDINGS.length]).append(" of the ")
+                    .append(ORGANS[i % ORGANS.length]).append(" and no mass of the left lung , ").append(i)
+                    .append(" cm mass of the liver . ");
+        String text = sb.toString();
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        ArrayList<String> strings = new ArrayList<>();
+        int[] begins = new int[tokens.size()], ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            strings.add(tokens.get(i).text.toLowerCase());
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+        FastNER fastNER = new FastNER(rules.toString());
+        String expectedSpans = MatchStrings.toString(fastNER.processSpanList(tokens));
+        String expectedStrings = MatchStrings.toString(fastNER.processStringList(strings));
+        String expectedOffsets = MatchStrings.toString(fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false));
+        assertTrue(expectedSpans.contains("Size:") && expectedSpans.contains("Benign:"));
+//        There is a pneumonia of the left lung and ...
+        assertTrue(expectedSpans.contains("\nFinding:11-37:"));
+
+        assertTrue(fastNER.minimize());
+        assertTrue(fastNER.fastRule.isMinimized());
+        MinimizedRules minimized = fastNER.fastRule.minimizedRules;
+        assertTrue(minimized.getNodesAfter() * 2 < minimized.getNodesBefore());
+        assertEquals(expectedSpans, MatchStrings.toString(fastNER.processSpanList(tokens)));
+        assertEquals(expectedStrings, MatchStrings.toString(fastNER.processStringList(strings)));
+        assertEquals(expectedOffsets, MatchStrings.toString(fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false)));
+        fastNER.setStartTokenFiltering(false);
+        assertEquals(expectedSpans, MatchStrings.toString(fastNER.processSpanList(tokens)));
+        fastNER.setParallelism(ForkJoinPool.commonPool(), 17);
+        assertEquals(expectedOffsets, MatchStrings.toString(fastNER.fastRule.processTokenOffsets(text, begins, ends, tokens.size(), false)));
+    }
+
+    @Test
+    public void numericRules() {
+        String rules = "@fastner\n" +
+                "\\> 3 mg of aspirin\t1\tHighDose\tACTUAL\n" +
+                "\\< 3 mg of aspirin\t1\tLowDose\tACTUAL\n" +
+                "\\> 1 \\< 6 mg of heparin\t1\tMidDose\tACTUAL\n" +
+                "\\d+ mg of heparin\t0\tDose\tACTUAL\n";
+        ArrayList<String> tokens = new ArrayList<>();
+        for (String token : "take 5 mg of aspirin , 2 mg of aspirin , 4 mg of heparin and 9 mg of heparin".split(" "))
+            tokens.add(token);
+        FastNER fastNER = new FastNER(rules);
+        assertTrue(fastNER.fastRule instanceof FastRuleWGN);
+        String expected = MatchStrings.toString(fastNER.processStringList(tokens));
+        //        the offsets of the string tokens are token indexes
+        assertEquals("Dose:11-14;Dose:16-19;HighDose:1-4;LowDose:6-9;MidDose:11-14;", MatchStrings.toOffsets(fastNER.processStringList(tokens)));
+        assertTrue(fastNER.minimize());
+        assertEquals(expected, MatchStrings.toString(fastNER.processStringList(tokens)));
+    }
+
+    @Test
+    public void charRules() {
+        StringBuilder rules = new StringBuilder("@fastcner\n");
+        for (String finding : FINDINGS)
+            for (String organ : ORGANS)
+                rules.append(finding).append("\\s+of\\s+the\\s+").append(organ).append("\t")
+                        .append(finding.length() % 3).append("\tFinding\n");
+        rules.append("(\\c+)\\s+of\\s+the\\s+liver\t0\tContext\n")
+                .append("\\d+\\s+cm\\s+mass\\e\t1\tSize\n")
+                .append("(mass)\\s+of\\s+the\\s+liver\t2\tFinding\n");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++)
+            sb.append("There is a ").append(FINDINGS[i % FINDINGS.length]).append(" of  the ")
+                    .append(ORGANS[i % ORGANS.length]).append(", mass of the liver and ").append(i).append(" cm mass\n");
+        sb.append("12 cm mass");
+        String text = sb.toString();
+        FastCNER fastCNER = new FastCNER(rules.toString());
+        fastCNER.setReplicationSupport(true);
+        String expected = MatchStrings.toString(fastCNER.processString(text));
+        assertTrue(expected.contains("Size:") && expected.contains("Context:"));
+//        the last line: 12 cm mass
+        assertTrue(expected.contains("Size:" + (text.length() - 10) + "-" + text.length() + ":"));
+
+        assertTrue(fastCNER.minimize());
+        MinimizedRules minimized = fastCNER.fastRule.minimizedRules;
+        assertTrue(minimized.getNodesAfter() * 2 < minimized.getNodesBefore());
+        assertEquals(expected, MatchStrings.toString(fastCNER.processString(text)));
+        fastCNER.setLiteralPrefiltering(false);
+        assertEquals(expected, MatchStrings.toString(fastCNER.processString(text)));
+        fastCNER.setParallelism(ForkJoinPool.commonPool(), 50);
+        assertEquals(expected, MatchStrings.toString(fastCNER.processString(text)));
+    }
+
+    @Test
+    public void bitapRules() {
+        HashMap<Integer, Rule> rules = new HashMap<>();
+        int id = 0;
+        for (String finding : FINDINGS)
+            for (String organ : ORGANS) {
+                rules.put(id, new Rule(id, finding + "\\sof\\sthe\\s" + organ, "Finding", finding.length(), Determinants.ACTUAL));
+                id++;
+            }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++)
+            sb.append("a ").append(FINDINGS[i % FINDINGS.length]).append(" of the ").append(ORGANS[i % ORGANS.length])
+                    .append(". ");
+        String text = sb.toString();
+        FastCRuleBitap bitap = new FastCRuleBitap(rules);
+        assertTrue(bitap.isCompiled());
+        String expected = MatchStrings.toString(bitap.processString(text));
+        assertTrue(expected.startsWith("Finding:2-28:"));
+        assertTrue(bitap.minimize());
+        assertEquals(expected, MatchStrings.toString(bitap.processString(text)));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import edu.utah.bmi.nlp.fastcner.FastCRule;
+import edu.utah.bmi.nlp.fastcner.FastCRuleBitap;
+import edu.utah.bmi.nlp.fastcner.FastCRuleSB;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.utah.bmi.nlp.core.NERSpan.widthOnly;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class PartitionedFastRuleTest {
+
+    @Test
+    public void tokenRules() {
+        String rules = "@fastner\n" +
+                "mass of the left lung\t1\tFinding\tACTUAL\n" +
+                "no mass\t2\tFinding\tPSEUDO\n" +
+                "\\w+ of the liver\t0\tContext\tACTUAL\n" +
+                "\\( \\w+ \\) of the left lung\t0\tOrgan\tACTUAL\n" +
+                "\\> 3 mg of aspirin\t1\tDose\tACTUAL\n" +
+                "5 mg of heparin\t1\tDose\tACTUAL\n";
+        String text = "A mass of the left lung , no mass of the liver , take 5 mg of aspirin and 5 mg of heparin .";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        for (Span token : tokens)
+            token.text = token.text.toLowerCase();
+        FastNER fastNER = new FastNER(rules);
+        assertTrue(fastNER.fastRule instanceof FastRuleWGN);
+        FastNER partitioned = FastNER.createPartitioned(rules, false);
+        List<FastRule> partitions = ((PartitionedFastRule) partitioned.fastRule).getPartitions();
+        assertEquals(3, partitions.size());
+        assertEquals(FastRuleWOG.class, partitions.get(0).getClass());
+        assertEquals(FastRuleWG.class, partitions.get(1).getClass());
+//        a concept is not split: both Dose rules go to the numeric engine
+        assertEquals(FastRuleWGN.class, partitions.get(2).getClass());
+        assertEquals(2, partitions.get(2).getRuleStore().size());
+
+        assertEquals("Context:29-46;Dose:54-69;Dose:74-89;Finding:2-23;Organ:2-6;",
+                MatchStrings.toOffsets(partitioned.processSpanList(tokens)));
+        String expected = MatchStrings.toString(fastNER.processSpanList(tokens));
+        assertEquals(expected, MatchStrings.toString(partitioned.processSpanList(tokens)));
+        fastNER.setCompareMethod(widthOnly);
+        partitioned.setCompareMethod(widthOnly);
+        fastNER.setConflictResolver(new SweepConflictResolver());
+        partitioned.setConflictResolver(new SweepConflictResolver());
+        assertEquals(MatchStrings.toString(fastNER.processSpanList(tokens)), MatchStrings.toString(partitioned.processSpanList(tokens)));
+        assertEquals(fastNER.getRuleString(3), partitioned.getRuleString(3));
+    }
+
+    @Test
+    public void charRules() {
+        String rules = "@fastcner\n" +
+                "pneumonia\t1\tFinding\n" +
+                "effusion\t1\tFinding\n" +
+                "\\d+\\s+mg\t1\tDose\n" +
+                "[left|right]\\s+lung\t1\tOrgan\n";
+        String text = "Pneumonia in the left lung, effusion; 20 mg and 5  mg daily. Right lung clear.";
+        FastCNER fastCNER = new FastCNER(rules);
+        assertTrue(fastCNER.fastRule instanceof FastCRuleSB);
+        FastCNER partitioned = FastCNER.createPartitioned(rules);
+        List<FastRule> partitions = ((PartitionedFastRule) partitioned.fastRule).getPartitions();
+        assertEquals(3, partitions.size());
+        assertTrue(partitions.get(0) instanceof FastCRuleBitap);
+        assertEquals(FastCRule.class, partitions.get(1).getClass());
+        assertTrue(partitions.get(2) instanceof FastCRuleSB);
+
+        assertEquals("Dose:38-43;Dose:48-53;Finding:28-36;Organ:17-26;", MatchStrings.toOffsets(partitioned.processString(text)));
+        String expected = MatchStrings.toString(fastCNER.processString(text));
+        assertEquals(expected, MatchStrings.toString(partitioned.processString(text)));
+        int[] begins = {0, 61}, ends = {60, text.length()};
+        assertEquals(MatchStrings.toString(fastCNER.processSegments(text, begins, ends, 2)),
+                MatchStrings.toString(partitioned.processSegments(text, begins, ends, 2)));
+    }
+
+    @Test
+    public void singlePartition() {
+        FastNER partitioned = FastNER.createPartitioned("@fastner\nmass of the left lung\t1\tFinding\tACTUAL\n", false);
+        assertEquals(FastRuleWOG.class, partitioned.fastRule.getClass());
+    }
+}
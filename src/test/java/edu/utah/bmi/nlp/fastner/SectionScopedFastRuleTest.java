@@ -0,0 +1,137 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jianlin Shi
+ */
+public class SectionScopedFastRuleTest {
+    private static final String RULES = "@fastner\n" +
+            "fever\t0\tFever\tACTUAL\n" +
+            "history of fever\t1\tFever\tPSEUDO\tHistory\n" +
+            "high fever\t0\tFever\tACTUAL\tPlan|Assessment\n" +
+            "pneumonia\t0\tPneumonia\tACTUAL\tAssessment\n";
+
+    private final String text = "history of fever , high fever today , pneumonia";
+
+    @Test
+    public void sectionViews() {
+        ArrayList<Span> tokens = tokens();
+        FastNER fastNER = new FastNER(RULES);
+        assertTrue(fastNER.fastRule instanceof SectionScopedFastRule);
+        SectionScopedFastRule scoped = (SectionScopedFastRule) fastNER.fastRule;
+        assertEquals(new TreeSet<>(Arrays.asList("Assessment", "History", "Plan")),
+                new TreeSet<>(scoped.getScopedSections()));
+//        all + unscoped + History + Plan + Assessment
+        assertEquals(5, scoped.getEngines().size());
+
+//        no section: same as the rules without the scopes
+        FastNER unscoped = new FastNER(RULES.replaceAll("(\t(ACTUAL|PSEUDO))\t.*", "$1"));
+        assertEquals(MatchStrings.toOffsets(unscoped.processSpanList(tokens)), MatchStrings.toOffsets(fastNER.processSpanList(tokens)));
+        assertEquals(MatchStrings.toOffsets(fastNER.processSpanList(tokens)), MatchStrings.toOffsets(fastNER.processSpanList(tokens, null)));
+
+        assertEquals("Fever:11-16;Fever:24-29;", MatchStrings.toOffsets(fastNER.processSpanList(tokens, "Other")));
+//        the pseudo rule removes the fever it covers
+        assertEquals("Fever:24-29;", MatchStrings.toOffsets(fastNER.processSpanList(tokens, "History")));
+        assertEquals("Fever:11-16;Fever:19-29;", MatchStrings.toOffsets(fastNER.processSpanList(tokens, "Plan")));
+        assertEquals("Fever:11-16;Fever:19-29;Pneumonia:38-47;", MatchStrings.toOffsets(fastNER.processSpanList(tokens, "Assessment")));
+
+        fastNER.setRemovePseudo(false);
+        assertEquals("Fever:0-16;Fever:24-29;", MatchStrings.toOffsets(fastNER.processSpanList(tokens, "History")));
+    }
+
+    @Test
+    public void tokenSegments() {
+        ArrayList<Span> tokens = tokens();
+        FastNER fastNER = new FastNER(RULES);
+        int size = tokens.size();
+        int[] begins = new int[size], ends = new int[size];
+        for (int i = 0; i < size; i++) {
+            begins[i] = tokens.get(i).begin;
+            ends[i] = tokens.get(i).end;
+        }
+//        "history of fever ," | "high fever today ," | "pneumonia"
+        int[] segmentStarts = {0, 4, 8}, segmentEnds = {4, 8, size};
+        String[] sections = {"History", "Plan", "Assessment"};
+        HashMap<String, ArrayList<Span>> matches = fastNER.processTokenSegments(text, begins, ends, segmentStarts,
+                segmentEnds, 3, sections);
+        HashMap<String, ArrayList<Span>> sentenceMatches = new HashMap<>();
+        for (int s = 0; s < 3; s++) {
+            HashMap<String, ArrayList<Span>> segment = fastNER.processSpanList(
+                    new ArrayList<>(tokens.subList(segmentStarts[s], segmentEnds[s])), sections[s]);
+            for (String concept : segment.keySet())
+                sentenceMatches.computeIfAbsent(concept, k -> new ArrayList<>()).addAll(segment.get(concept));
+        }
+        String expected = MatchStrings.toOffsets(sentenceMatches);
+        assertEquals("Fever:19-29;Pneumonia:38-47;", expected);
+        assertEquals(expected, MatchStrings.toOffsets(matches));
+    }
+
+    @Test
+    public void noScope() {
+        FastNER fastNER = new FastNER("@fastner\nfever\t0\tFever\tACTUAL\n");
+        assertFalse(fastNER.fastRule instanceof SectionScopedFastRule);
+        assertEquals("Fever:11-16;Fever:24-29;", MatchStrings.toOffsets(fastNER.processSpanList(tokens(), "History")));
+    }
+
+    @Test
+    public void charRules() {
+        ArrayList<String> warnings = new ArrayList<>();
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING)
+                    warnings.add(record.getMessage());
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        FastRule.logger.addHandler(handler);
+        try {
+            FastCNER fastCNER = new FastCNER("@fastcner\nfever\t0\tFever\tACTUAL\tHistory\n");
+            assertFalse(fastCNER.fastRule instanceof SectionScopedFastRule);
+            assertEquals(1, warnings.size());
+            assertTrue(warnings.get(0).contains("Section scopes"));
+//            the scope is ignored
+            assertEquals("Fever:11-16;Fever:24-29;", MatchStrings.toOffsets(fastCNER.processString(text)));
+        } finally {
+            FastRule.logger.removeHandler(handler);
+        }
+    }
+
+    private ArrayList<Span> tokens() {
+        return SimpleParser.tokenize2Spans(text, true);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner;
+
+import edu.utah.bmi.nlp.core.NERSpan;
+import edu.utah.bmi.nlp.core.SimpleParser;
+import edu.utah.bmi.nlp.core.Span;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jianlin Shi
+ */
+public class SweepConflictResolverTest {
+
+    private HashMap<String, ArrayList<Span>> getMatches() {
+        HashMap<String, ArrayList<Span>> matches = new HashMap<>();
+        matches.put("A", new ArrayList<>(Arrays.asList(new Span(0, 5, 1, 0.5), new Span(10, 12, 2, 2))));
+        matches.put("B", new ArrayList<>(Arrays.asList(new Span(3, 11, 3, 1), new Span(20, 25, 4, 0))));
+        matches.put("C", new ArrayList<>(Arrays.asList(new Span(0, 2, 5, 3))));
+        return matches;
+    }
+
+    @Test
+    public void leftmostLongest() {
+        ConflictResolver resolver = SweepConflictResolver.getResolver(SweepConflictResolver.leftmostLongest,
+                NERSpan.scorewidth, NERSpan.byStrWidth);
+        HashMap<String, ArrayList<Span>> resolved = resolver.resolve(getMatches());
+        assertEquals("A:0-5;A:10-12;B:20-25;", MatchStrings.toOffsets(resolved));
+        assertTrue(resolved.get("C").isEmpty());
+        assertNull(SweepConflictResolver.getResolver("none", NERSpan.scorewidth, NERSpan.byStrWidth));
+    }
+
+    @Test
+    public void bestScore() {
+        ConflictResolver resolver = SweepConflictResolver.getResolver(SweepConflictResolver.bestScore,
+                NERSpan.scorewidth, NERSpan.byStrWidth);
+//        C(0-2) beats A(0-5), then B(3-11) does not overlap with C, A(10-12) beats B
+        assertEquals("A:10-12;B:20-25;C:0-2;", MatchStrings.toOffsets(resolver.resolve(getMatches())));
+        resolver = SweepConflictResolver.getResolver(SweepConflictResolver.bestScore,
+                NERSpan.widthscore, NERSpan.byStrWidth);
+//        B(3-11) beats A(0-5), then C(0-2) lost to A only and does not overlap with B
+        HashMap<String, ArrayList<Span>> resolved = resolver.resolve(getMatches());
+        assertEquals("B:3-11;B:20-25;C:0-2;", MatchStrings.toOffsets(resolved));
+        assertTrue(resolved.get("A").isEmpty());
+    }
+
+    @Test
+    public void bestScoreKeepsMatchesThatLostToDropped() {
+        HashMap<String, ArrayList<Span>> matches = new HashMap<>();
+        matches.put("A", new ArrayList<>(Arrays.asList(new Span(0, 10, 1, 1))));
+        matches.put("B", new ArrayList<>(Arrays.asList(new Span(2, 4, 2, 0.5))));
+        matches.put("C", new ArrayList<>(Arrays.asList(new Span(5, 20, 3, 2))));
+        ConflictResolver resolver = SweepConflictResolver.getResolver(SweepConflictResolver.bestScore,
+                NERSpan.scoreOnly, NERSpan.byStrWidth);
+//        C(5-20) beats A(0-10), B(2-4) only lost to A and does not overlap with C
+        HashMap<String, ArrayList<Span>> resolved = resolver.resolve(matches);
+        assertEquals("B:2-4;C:5-20;", MatchStrings.toOffsets(resolved));
+        assertTrue(resolved.get("A").isEmpty());
+    }
+
+    @Test
+    public void resolveInEngine() {
+        String text = "Positive for pulmonary emboli protocol today";
+        String rule = "@fastner\n" +
+                "pulmonary emboli	0	Concept	ACTUAL\n" +
+                "emboli protocol	1	Protocol	ACTUAL\n" +
+                "today	0	Time	ACTUAL";
+        ArrayList<Span> tokens = SimpleParser.tokenizeDecimalSmartWSentences(text, false).get(0);
+        FastNER fastNER = new FastNER(rule);
+        assertEquals(3, fastNER.processSpanList(tokens).size());
+        assertEquals(1, fastNER.processSpanList(tokens).get("Protocol").size());
+        fastNER.setConflictResolver(new SweepConflictResolver());
+        HashMap<String, ArrayList<Span>> res = fastNER.processSpanList(tokens);
+        assertEquals(1, res.get("Concept").size());
+        assertEquals(0, res.get("Protocol").size());
+        assertEquals(1, res.get("Time").size());
+        fastNER.setConflictResolver(new SweepConflictResolver(NERSpan.scorewidth, NERSpan.byRuleLength));
+        res = fastNER.processSpanList(tokens);
+        assertEquals(0, res.get("Concept").size());
+        assertEquals(1, res.get("Protocol").size());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner.uima;
+
+import edu.utah.bmi.nlp.fastcner.uima.FastCNER_AE_General;
+import edu.utah.bmi.nlp.type.system.ConceptBASE;
+import edu.utah.bmi.nlp.uima.ae.SimpleParser_AE;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.Test;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the document single pass mode with sentence by sentence processing
+ */
+public class DocumentSinglePassTest {
+    private final String text = "Exam was done yesterday. Positive for pulmonary emboli\n" +
+            "protocol. No emboli.\n\nFever 3 days. History of pulmonary emboli in 2010, treated with heparin.\n" +
+            "no fever";
+
+    @Test
+    public void fastNER() throws Exception {
+        String rule = "@fastner\n" +
+                "pulmonary emboli	0	Concept	ACTUAL\n" +
+                "emboli	0	Concept	ACTUAL\n" +
+                "no emboli	0	Concept	PSEUDO\n" +
+                "fever	0	Concept	ACTUAL\n" +
+                "emboli protocol	0	Concept	ACTUAL\n" +
+                "yesterday positive	0	Concept	ACTUAL\n";
+        String expected = compare(FastNER_AE_General.class, FastNER_AE_General.PARAM_RULE_STR, rule,
+                FastNER_AE_General.PARAM_MARK_PSEUDO, true, FastNER_AE_General.PARAM_CASE_SENSITIVE, false);
+        assertEquals(6, expected.split(";").length);
+    }
+
+    @Test
+    public void fastCNER() throws Exception {
+        String rule = "@fastcner\n" +
+                "pulmonary\\s+emboli	0	Concept	ACTUAL\n" +
+                "emboli\\s+protocol	0	Concept	ACTUAL\n" +
+                "\\b(\\C\\c+)\\s	0	Concept	ACTUAL\n" +
+                "\\d+\\s+days	0	Concept	ACTUAL\n" +
+                "yesterday.\\s+Positive	0	Concept	ACTUAL\n";
+        String expected = compare(FastCNER_AE_General.class, FastCNER_AE_General.PARAM_RULE_STR, rule);
+        assertEquals(6, expected.split(";").length);
+    }
+
+    private String compare(Class aeClass, Object... configurationData) throws Exception {
+        TypeSystemDescription typeSystem = TypeSystemDescriptionFactory.createTypeSystemDescriptionFromPath("desc/type/All_Types.xml");
+        AnalysisEngine parser = createEngine(SimpleParser_AE.class, typeSystem);
+        AnalysisEngine sentenceBySentence = createEngine(aeClass, typeSystem, configurationData);
+        Object[] singlePassConfiguration = new Object[configurationData.length + 2];
+        System.arraycopy(configurationData, 0, singlePassConfiguration, 0, configurationData.length);
+        singlePassConfiguration[configurationData.length] = FastNER_AE_General.PARAM_DOCUMENT_SINGLE_PASS;
+        singlePassConfiguration[configurationData.length + 1] = true;
+        AnalysisEngine singlePass = createEngine(aeClass, typeSystem, singlePassConfiguration);
+
+        String expected = run(typeSystem, parser, sentenceBySentence);
+        assertEquals(expected, run(typeSystem, parser, singlePass));
+        return expected;
+    }
+
+    private String run(TypeSystemDescription typeSystem, AnalysisEngine parser, AnalysisEngine ae) throws Exception {
+        JCas jCas = JCasFactory.createJCas(typeSystem);
+        jCas.setDocumentText(text);
+        parser.process(jCas);
+        ae.process(jCas);
+        StringBuilder sb = new StringBuilder();
+        for (ConceptBASE concept : JCasUtil.select(jCas, ConceptBASE.class)) {
+            sb.append(concept.getType().getShortName()).append(":").append(concept.getBegin()).append("-")
+                    .append(concept.getEnd()).append(":").append(concept.getCoveredText()).append(":")
+                    .append(concept.getSection()).append(";");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner.uima;
+
+import edu.utah.bmi.nlp.fastcner.uima.FastCNER_AE_General;
+import edu.utah.bmi.nlp.fastner.FastRule;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.util.CasPool;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * Measures the throughput of the AEs deployed with a CAS pool and a pool of AE instances that share one compiled
+ * engine, for 1 to 32 threads. Not a unit test (MultiThreadDeploymentTest checks the results), run it with the test
+ * classpath, e.g.
+ * <pre>
+ * java -cp target/classes:target/test-classes:[dependencies] edu.utah.bmi.nlp.fastner.uima.MultiThreadDeploymentBenchmark
+ * </pre>
+ *
+ * @author Jianlin Shi
+ */
+public class MultiThreadDeploymentBenchmark {
+    private static final int[] THREADS = new int[]{1, 4, 16, 32};
+    private static final int DOCS = 6400;
+
+    public static void main(String[] args) throws Exception {
+        run(FastNER_AE_General.class, FastNER_AE_General.PARAM_RULE_STR, MultiThreadDeploymentTest.TOKEN_RULES);
+        run(FastCNER_AE_General.class, FastCNER_AE_General.PARAM_RULE_STR, MultiThreadDeploymentTest.CHAR_RULES);
+    }
+
+    private static void run(Class aeClass, Object... configurationData) throws Exception {
+        AnalysisEngineDescription description = MultiThreadDeploymentTest.getDescription(aeClass, configurationData);
+        for (int threads : THREADS) {
+            AnalysisEngine ae = UIMAFramework.produceAnalysisEngine(description, threads, 0);
+//            after the AE is initialized, which may reload the logging configuration
+            FastRule.logger.setLevel(Level.WARNING);
+            CasPool casPool = new CasPool(threads, ae);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+//            the first round warms up the pools and the JIT
+            for (int round = 0; round < 2; round++) {
+                ArrayList<Future<String>> results = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int i = 0; i < DOCS; i++) {
+                    String text = MultiThreadDeploymentTest.TEXTS[i % MultiThreadDeploymentTest.TEXTS.length];
+                    results.add(executor.submit(() -> MultiThreadDeploymentTest.process(ae, casPool, text)));
+                }
+                for (Future<String> result : results)
+                    result.get();
+                long elapsed = System.nanoTime() - start;
+                if (round > 0)
+                    System.out.printf("%s\tthreads: %d\tdocs/s: %.1f%n", aeClass.getSimpleName(), threads,
+                            DOCS * 1e9 / elapsed);
+            }
+            executor.shutdown();
+            ae.destroy();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner.uima;
+
+import edu.utah.bmi.nlp.fastcner.FastCNER;
+import edu.utah.bmi.nlp.fastcner.uima.FastCNER_AE_General;
+import edu.utah.bmi.nlp.fastner.FastNER;
+import edu.utah.bmi.nlp.fastner.FastNERRegistry;
+import edu.utah.bmi.nlp.type.system.Concept;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasPool;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static edu.utah.bmi.nlp.core.NERSpan.byRuleLength;
+import static edu.utah.bmi.nlp.core.NERSpan.scorewidth;
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Run the AEs with a CAS pool and a pool of AE instances (one per thread) that share one compiled engine, check that
+ * every thread gets the same results as a single-threaded run. The throughput is measured by
+ * MultiThreadDeploymentBenchmark.
+ */
+public class MultiThreadDeploymentTest {
+    private static final int[] THREADS = new int[]{1, 4};
+    private static final int DOCS = 64;
+
+    static final String[] TEXTS = new String[]{
+            "Exam was done yesterday. Positive for pulmonary emboli protocol. No further treatment needed.",
+            "The patient denies chest pain. Pulmonary Emboli was ruled out. Fever 3 days ago.",
+            "No fever. No emboli. History of pulmonary emboli in 2010, treated with heparin.",
+            "Patient reports fever and chest pain since last week; CT negative for emboli."};
+
+    static final String TOKEN_RULES = "@fastner\n" +
+            "pulmonary emboli	0	Concept	ACTUAL\n" +
+            "emboli	0	Concept	ACTUAL\n" +
+            "no emboli	0	Concept	PSEUDO\n" +
+            "fever	0	Concept	ACTUAL\n" +
+            "chest pain	0	Concept	ACTUAL\n";
+
+    static final String CHAR_RULES = "@fastcner\n" +
+            "pulmonary\\s+emboli	0	Concept	ACTUAL\n" +
+            "emboli	0	Concept	ACTUAL\n" +
+            "fever	0	Concept	ACTUAL\n" +
+            "\\d+\\s+days	0	Concept	ACTUAL\n";
+
+    @Test
+    public void fastNER() throws Exception {
+        run(FastNER_AE_General.class, FastNERRegistry.getKey(FastNER.class, TOKEN_RULES, true, false, scorewidth,
+                byRuleLength, 0, "none"), FastNER_AE_General.PARAM_RULE_STR, TOKEN_RULES);
+    }
+
+    @Test
+    public void fastCNER() throws Exception {
+        run(FastCNER_AE_General.class, FastNERRegistry.getKey(FastCNER.class, CHAR_RULES, true, 50, false, 0, "none",
+                scorewidth, byRuleLength), FastCNER_AE_General.PARAM_RULE_STR, CHAR_RULES);
+    }
+
+    /**
+     * @param registryKey the key of the engine that all the AE instances share
+     */
+    private void run(Class aeClass, String registryKey, Object... configurationData) throws Exception {
+        AnalysisEngineDescription description = getDescription(aeClass, configurationData);
+        List<String> expected = null;
+        for (int threads : THREADS) {
+            AnalysisEngine ae = UIMAFramework.produceAnalysisEngine(description, threads, 0);
+            assertEquals(threads, FastNERRegistry.getReferenceCount(registryKey));
+            CasPool casPool = new CasPool(threads, ae);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            ArrayList<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < DOCS; i++) {
+                String text = TEXTS[i % TEXTS.length];
+                results.add(executor.submit(() -> process(ae, casPool, text)));
+            }
+            ArrayList<String> outputs = new ArrayList<>();
+            for (Future<String> result : results) {
+                outputs.add(result.get());
+            }
+            executor.shutdown();
+            ae.destroy();
+            assertEquals(0, FastNERRegistry.getReferenceCount(registryKey));
+            if (expected == null) {
+                expected = outputs;
+                assertFalse(expected.get(0).isEmpty());
+            } else {
+                assertEquals(expected, outputs);
+            }
+        }
+    }
+
+    /**
+     * @return the description of an AE that shares its compiled rules
+     */
+    static AnalysisEngineDescription getDescription(Class aeClass, Object... configurationData) throws Exception {
+        TypeSystemDescription typeSystem = TypeSystemDescriptionFactory.createTypeSystemDescriptionFromPath("desc/type/All_Types.xml");
+        Object[] shared = Arrays.copyOf(configurationData, configurationData.length + 2);
+        shared[configurationData.length] = FastNER_AE_General.PARAM_SHARE_COMPILED_RULES;
+        shared[configurationData.length + 1] = true;
+        return createEngineDescription(aeClass, typeSystem, shared);
+    }
+
+    /**
+     * @return the concepts found in the text, as "begin-end:text;"
+     */
+    static String process(AnalysisEngine ae, CasPool casPool, String text) throws Exception {
+        CAS cas = casPool.getCas(0);
+        try {
+            cas.setDocumentText(text);
+            ae.process(cas);
+            JCas jCas = cas.getJCas();
+            StringBuilder sb = new StringBuilder();
+            for (Concept concept : JCasUtil.select(jCas, Concept.class)) {
+                sb.append(concept.getBegin()).append("-").append(concept.getEnd()).append(":")
+                        .append(concept.getCoveredText()).append(";");
+            }
+            return sb.toString();
+        } finally {
+            casPool.releaseCas(cas);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright  2017  Department of Biomedical Informatics, University of Utah
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.utah.bmi.nlp.fastner.uima;
+
+import edu.utah.bmi.nlp.type.system.ConceptBASE;
+import edu.utah.bmi.nlp.type.system.DefaultSection;
+import edu.utah.bmi.nlp.type.system.SectionBody;
+import edu.utah.bmi.nlp.uima.ae.SimpleParser_AE;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.Test;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Section-scoped rules and skipping the sections that are out of scope
+ */
+public class SectionScopeTest {
+    private final String text = "Positive for pulmonary emboli. No fever.\n\nHistory of pulmonary emboli. Fever 3 days.";
+    private final String rule = "@fastner\n" +
+            "fever\t0\tConcept\tACTUAL\n" +
+            "pulmonary emboli\t0\tConcept\tACTUAL\tDefaultSection\n";
+
+    @Test
+    public void test() throws Exception {
+        String expected = "Concept:13-29:pulmonary emboli:DefaultSection;Concept:34-39:fever:DefaultSection;" +
+                "OutsideScopeConcept:71-76:Fever:SectionBody;";
+        assertEquals(expected, run(false, false));
+        assertEquals(expected, run(false, true));
+        expected = expected.substring(0, expected.indexOf("OutsideScopeConcept"));
+        assertEquals(expected, run(true, false));
+        assertEquals(expected, run(true, true));
+    }
+
+    private String run(boolean skipOutsideSections, boolean singlePass) throws Exception {
+        TypeSystemDescription typeSystem = TypeSystemDescriptionFactory.createTypeSystemDescriptionFromPath("desc/type/All_Types.xml");
+        AnalysisEngine parser = createEngine(SimpleParser_AE.class, typeSystem);
+        AnalysisEngine fastNER = createEngine(FastNER_AE_General.class, typeSystem,
+                FastNER_AE_General.PARAM_RULE_STR, rule, FastNER_AE_General.PARAM_CASE_SENSITIVE, false,
+                FastNER_AE_General.PARAM_EXCLUDE_SECTIONS, "SectionBody",
+                FastNER_AE_General.PARAM_SKIP_OUTSIDE_SECTIONS, skipOutsideSections,
+                FastNER_AE_General.PARAM_DOCUMENT_SINGLE_PASS, singlePass);
+        JCas jCas = JCasFactory.createJCas(typeSystem);
+        jCas.setDocumentText(text);
+        new DefaultSection(jCas, 0, 40).addToIndexes();
+        new SectionBody(jCas, 42, text.length()).addToIndexes();
+        parser.process(jCas);
+        fastNER.process(jCas);
+        StringBuilder sb = new StringBuilder();
+        for (ConceptBASE concept : JCasUtil.select(jCas, ConceptBASE.class)) {
+            sb.append(concept.getType().getShortName()).append(":").append(concept.getBegin()).append("-")
+                    .append(concept.getEnd()).append(":").append(concept.getCoveredText()).append(":")
+                    .append(concept.getSection()).append(";");
+        }
+        return sb.toString();
+    }
+}